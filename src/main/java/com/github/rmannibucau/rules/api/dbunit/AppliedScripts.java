@@ -0,0 +1,110 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// tracks @BootstrapScript scripts already executed per DataSource (and JDBC url) with the hash of their content
+// and the tables they create to detect a recreated database
+final class AppliedScripts {
+    private static final Pattern CREATE_TABLE = Pattern.compile(
+        "create\\s+(?:(?:global|local)\\s+)?(?:(?:temporary|cached|memory)\\s+)?table\\s+(?:if\\s+not\\s+exists\\s+)?((?:[\\w$#]+|\"[^\"]+\"|`[^`]+`)(?:\\.(?:[\\w$#]+|\"[^\"]+\"|`[^`]+`))*)",
+        Pattern.CASE_INSENSITIVE);
+    private static final Map<DataSource, Map<String, Applied>> APPLIED = new WeakHashMap<DataSource, Map<String, Applied>>();
+
+    private AppliedScripts() {
+        // no-op
+    }
+
+    static boolean isApplied(final DataSource dataSource, final Connection connection, final String schema,
+                             final String location, final String script) throws SQLException {
+        final String key = connection.getMetaData().getURL() + '|' + location;
+        final Applied applied;
+        synchronized (APPLIED) {
+            final Map<String, Applied> scripts = APPLIED.get(dataSource);
+            applied = scripts == null ? null : scripts.get(key);
+        }
+        if (applied == null || !Arrays.equals(applied.hash, hash(script))) {
+            return false;
+        }
+
+        final DatabaseMetaData metaData = connection.getMetaData();
+        for (final String table : applied.tables) {
+            if (!exists(metaData, connection.getCatalog(), schema, table)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void markApplied(final DataSource dataSource, final Connection connection,
+                            final String location, final String script) throws SQLException {
+        final Collection<String> tables = new ArrayList<String>();
+        final Matcher matcher = CREATE_TABLE.matcher(script);
+        while (matcher.find()) {
+            String table = matcher.group(1);
+            final int dot = table.lastIndexOf('.');
+            if (dot >= 0) {
+                table = table.substring(dot + 1);
+            }
+            if (table.length() > 1 && (table.charAt(0) == '"' || table.charAt(0) == '`')) {
+                table = table.substring(1, table.length() - 1);
+            }
+            tables.add(table);
+        }
+
+        final String key = connection.getMetaData().getURL() + '|' + location;
+        synchronized (APPLIED) {
+            Map<String, Applied> scripts = APPLIED.get(dataSource);
+            if (scripts == null) {
+                scripts = new HashMap<String, Applied>();
+                APPLIED.put(dataSource, scripts);
+            }
+            scripts.put(key, new Applied(hash(script), tables));
+        }
+    }
+
+    private static boolean exists(final DatabaseMetaData metaData, final String catalog, final String schema, final String table) throws SQLException {
+        // unquoted identifiers can be stored upper or lower case depending the database
+        for (final String name : new String[]{ table, table.toUpperCase(Locale.ENGLISH), table.toLowerCase(Locale.ENGLISH) }) {
+            try (final ResultSet rs = metaData.getTables(catalog, schema, name, null)) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static byte[] hash(final String script) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Applied {
+        private final byte[] hash;
+        private final Collection<String> tables;
+
+        private Applied(final byte[] hash, final Collection<String> tables) {
+            this.hash = hash;
+            this.tables = tables;
+        }
+    }
+}
@@ -1,30 +1,29 @@
 package com.github.rmannibucau.rules.api.dbunit;
 
+import com.github.rmannibucau.rules.api.UnitInject;
+import com.github.rmannibucau.rules.internal.Reflections;
 import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.AmbiguousTableNameException;
 import org.dbunit.database.DatabaseConfig;
 import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.Column;
 import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
 import org.dbunit.dataset.FilteredDataSet;
 import org.dbunit.dataset.IDataSet;
-import org.dbunit.dataset.datatype.DefaultDataTypeFactory;
 import org.dbunit.dataset.filter.ExcludeTableFilter;
 import org.dbunit.dataset.filter.IColumnFilter;
 import org.dbunit.dataset.filter.ITableFilter;
-import org.dbunit.ext.db2.Db2DataTypeFactory;
-import org.dbunit.ext.h2.H2DataTypeFactory;
-import org.dbunit.ext.hsqldb.HsqldbDataTypeFactory;
-import org.dbunit.ext.mysql.MySqlDataTypeFactory;
-import org.dbunit.ext.oracle.OracleDataTypeFactory;
-import org.dbunit.ext.postgresql.PostgresqlDataTypeFactory;
 import org.dbunit.operation.DatabaseOperation;
+import org.dbunit.util.QualifiedTableName;
+import org.jboss.arquillian.persistence.CleanupStrategy;
 import org.jboss.arquillian.persistence.CleanupUsingScript;
 import org.jboss.arquillian.persistence.DataSeedStrategy;
 import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.TestExecutionPhase;
 import org.jboss.arquillian.persistence.core.configuration.PersistenceConfiguration;
-import org.jboss.arquillian.persistence.core.event.AfterPersistenceTest;
-import org.jboss.arquillian.persistence.core.event.BeforePersistenceTest;
 import org.jboss.arquillian.persistence.core.metadata.MetadataExtractor;
-import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionEnabler;
 import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionFeatureResolver;
 import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionScriptingFeatureResolver;
 import org.jboss.arquillian.persistence.core.test.AssertionErrorCollector;
@@ -34,119 +33,230 @@ import org.jboss.arquillian.persistence.dbunit.cleanup.CleanupStrategyExecutor;
 import org.jboss.arquillian.persistence.dbunit.cleanup.CleanupStrategyProvider;
 import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitConfiguration;
 import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitConfigurationPropertyMapper;
-import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitDataSeedStrategyProvider;
 import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
-import org.jboss.arquillian.persistence.dbunit.data.provider.DataSetProvider;
-import org.jboss.arquillian.persistence.dbunit.data.provider.ExpectedDataSetProvider;
 import org.jboss.arquillian.persistence.dbunit.dataset.DataSetRegister;
 import org.jboss.arquillian.persistence.dbunit.filter.TableFilterResolver;
 import org.jboss.arquillian.persistence.jpa.cache.JpaCacheEvictionConfiguration;
-import org.jboss.arquillian.persistence.jpa.cache.JpaCacheEvictionHandler;
-import org.jboss.arquillian.persistence.script.ScriptExecutor;
 import org.jboss.arquillian.persistence.script.configuration.ScriptingConfiguration;
 import org.jboss.arquillian.persistence.script.data.descriptor.SqlScriptResourceDescriptor;
 import org.jboss.arquillian.persistence.script.data.provider.SqlScriptProvider;
-import org.jboss.arquillian.persistence.script.splitter.DefaultStatementSplitter;
-import org.jboss.arquillian.persistence.script.splitter.StatementSplitterResolver;
 import org.jboss.arquillian.persistence.spi.dbunit.filter.TableFilterProvider;
-import org.jboss.arquillian.persistence.spi.script.StatementSplitter;
 import org.jboss.arquillian.test.spi.TestClass;
-import org.jboss.arquillian.test.spi.event.suite.TestEvent;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
 
-import javax.naming.NamingException;
 import javax.persistence.EntityManager;
 import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.sql.DatabaseMetaData;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static java.util.Arrays.asList;
 import static org.jboss.arquillian.persistence.dbunit.DataSetUtils.mergeDataSets;
 
 // a rule reusing arquillian persistence api
 public class ArquillianPersistenceDbUnitRule implements TestRule {
-    private final ThreadLocal<Configuration> configurationThreadLocal = new ThreadLocal<Configuration>();
+    private static final PersistenceConfiguration DEFAULT_PERSISTENCE_CONFIGURATION = new PersistenceConfiguration();
+    private static final ScriptingConfiguration DEFAULT_SCRIPTING_CONFIGURATION = new ScriptingConfiguration();
+    private static final DBUnitConfiguration DEFAULT_DBUNIT_CONFIGURATION = new DBUnitConfiguration();
 
-    public ArquillianPersistenceDbUnitRule() {
-        configurationThreadLocal.set(new Configuration());
-    }
+    // not thread bound: JUnit can evaluate the rule in another thread than the one which created it
+    private final Configuration config = new Configuration();
 
     public ArquillianPersistenceDbUnitRule resourcesHolder(final Object test) {
-        configurationThreadLocal.get().providerInstance(test);
+        config.providerInstance(test);
         return this;
     }
 
     public ArquillianPersistenceDbUnitRule persistenceConfiguration(final PersistenceConfiguration configuration) {
-        configurationThreadLocal.get().persistenceConfiguration(configuration);
+        config.persistenceConfiguration(configuration);
         return this;
     }
 
     public ArquillianPersistenceDbUnitRule jpaCacheEvictionConfiguration(final JpaCacheEvictionConfiguration configuration) {
-        configurationThreadLocal.get().jpaCacheEvictionConfiguration(configuration);
+        config.jpaCacheEvictionConfiguration(configuration);
         return this;
     }
 
     public ArquillianPersistenceDbUnitRule scriptingConfiguration(final ScriptingConfiguration configuration) {
-        configurationThreadLocal.get().scriptingConfiguration(configuration);
+        config.scriptingConfiguration(configuration);
         return this;
     }
 
     public ArquillianPersistenceDbUnitRule dbUnitConfiguration(final DBUnitConfiguration configuration) {
-        configurationThreadLocal.get().dbUnitConfiguration(configuration);
+        config.dbUnitConfiguration(configuration);
         return this;
     }
 
     public ArquillianPersistenceDbUnitRule entityManager(final String name, EntityManager entityManager) {
-        configurationThreadLocal.get().entityManager(name, entityManager);
+        config.entityManager(name, entityManager);
         return this;
     }
 
     public ArquillianPersistenceDbUnitRule dataSource(final DataSource ds) {
-        configurationThreadLocal.get().dataSource = ds;
+        config.dataSource = ds;
+        return this;
+    }
+
+    // when the test has several @DbUnitInstance datasources, the value of the one to use (default to the unnamed one or the first declared)
+    public ArquillianPersistenceDbUnitRule dataSource(final String name) {
+        config.dataSourceName = name;
+        return this;
+    }
+
+    // seed and run the test in a transaction rolled back after the test instead of cleaning up the database,
+    // the test needs to use getDataSource() (or a @UnitInject DataSource field) to see the seeded data
+    public ArquillianPersistenceDbUnitRule transactional(final boolean transactional) {
+        config.transactional = transactional;
+        return this;
+    }
+
+    // default to DbUnitDataSeeder, BatchedDataSeeder and BulkDataSeeder (database native load) are faster for big datasets
+    public ArquillianPersistenceDbUnitRule dataSeeder(final DataSeeder seeder) {
+        config.dataSeeder = seeder;
+        return this;
+    }
+
+    // keep the DbUnit connection across tests of the class (CLASS) or of the JVM (SUITE), default to TEST
+    public ArquillianPersistenceDbUnitRule connectionScope(final ConnectionScope scope) {
+        config.connectionScope = scope;
+        return this;
+    }
+
+    // clean after the test only the tables it wrote through getDataSource() (or a @UnitInject DataSource field),
+    // seeded tables the test only read are cleaned lazily by the next test using the database (same JDBC URL and user)
+    // and schema or at JVM shutdown.
+    // Ignored for USED_ROWS_ONLY cleanup strategy and transactional mode.
+    public ArquillianPersistenceDbUnitRule trackDirtyTables(final boolean trackDirtyTables) {
+        config.trackDirtyTables = trackDirtyTables;
+        return this;
+    }
+
+    // with trackDirtyTables, skip the cleanup, the scripts before and the seeding when the previous test using the DataSource
+    // seeded the same fixture (datasets, scripts and seed strategy) and wrote nothing through getDataSource()
+    // (or a @UnitInject DataSource field) and the seeded tables still have the same checksum (computed by the database,
+    // see TableChecksum, so writes done through any other connection are detected). Never reused on other databases.
+    public ArquillianPersistenceDbUnitRule reuseSeededData(final boolean reuseSeededData) {
+        config.reuseSeededData = reuseSeededData;
+        return this;
+    }
+
+    // scripts (locations) of @ApplyScriptBefore to execute only once per DataSource, see @BootstrapScript
+    public ArquillianPersistenceDbUnitRule bootstrapScripts(final String... scripts) {
+        config.bootstrapScripts.addAll(asList(scripts));
+        return this;
+    }
+
+    // seed a template database once per fixture (datasets, scripts and seed strategy) and run each test on a clone of it,
+    // the test needs to use getDataSource() (or a @UnitInject DataSource field) to see the clone.
+    // Ignored in transactional mode.
+    public ArquillianPersistenceDbUnitRule databaseTemplate(final DatabaseTemplate template) {
+        config.databaseTemplate = template;
+        return this;
+    }
+
+    // run the test in a schema leased from the pool (shared by the rule instances) to execute tests in parallel,
+    // it overrides the DBUnitConfiguration schema and getDataSource() (or a @UnitInject DataSource field) connections use it
+    public ArquillianPersistenceDbUnitRule schemaPool(final SchemaPool pool) {
+        config.schemaPool = pool;
+        return this;
+    }
+
+    // record what the test executes through getDataSource() (or a @UnitInject DataSource field) even without
+    // @MaxQueries/@MaxRowsFetched budget, see getQueryStatistics()
+    public ArquillianPersistenceDbUnitRule recordQueries(final boolean recordQueries) {
+        config.recordQueries = recordQueries;
+        return this;
+    }
+
+    // when the first test of a class starts, parse in background the datasets and scripts of all its test methods
+    public ArquillianPersistenceDbUnitRule prefetch(final boolean prefetch) {
+        config.prefetch = prefetch;
+        return this;
+    }
+
+    // verify the expected tables of @ShouldMatchDataSet concurrently on up to parallelism read-only connections
+    // of the DataSource, differences are still reported in the dataset order. Ignored in transactional mode.
+    public ArquillianPersistenceDbUnitRule verificationParallelism(final int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism should be > 0");
+        }
+        config.verificationParallelism = parallelism;
+        return this;
+    }
+
+    // EXPLAIN (H2, PostgreSQL and MySQL) the first execution of each SQL shape the test executed through getDataSource()
+    // (or a @UnitInject DataSource field) against the seeded data: full scans of tables holding more rows than the threshold
+    // fail the test (Long.MAX_VALUE to only get the plans) and, if reports is not null, the plans of each test are written
+    // in reports/<test class>.<test method>.txt. Plans are in getQueryStatistics() shapes.
+    public ArquillianPersistenceDbUnitRule explainQueries(final long fullScanRowThreshold, final File reports) {
+        config.fullScanRowThreshold = fullScanRowThreshold;
+        config.planReports = reports;
         return this;
     }
 
+    // what the current (or last) test executed through getDataSource(), null if it was not recorded
+    public QueryStatistics getQueryStatistics() {
+        return config.queryStatistics;
+    }
+
+    // the datasource the test should use, in transactional mode it shares the rule connection
+    public DataSource getDataSource() {
+        if (config.testDataSource == null) {
+            config.testDataSource = new TestDataSource(findDataSource());
+        }
+        return config.testDataSource;
+    }
+
     @Override
     public Statement apply(final Statement base, final Description description) {
         return new Statement() {
             @Override
             public void evaluate() throws Throwable {
-                final State state = before(description);
+                final State state = new State();
+                final State active;
+                try {
+                    active = before(description, state);
+                } catch (final RuntimeException | Error e) {
+                    abort(state);
+                    throw e;
+                }
                 try {
                     base.evaluate();
                 } finally {
-                    after(state);
+                    after(active);
                 }
             }
         };
     }
 
-    private State before(final Description description) {
+    private State before(final Description description, final State state) {
+        final TestClassMetadata classMetadata = TestClassMetadata.of(description.getTestClass());
         final Method testMethod;
         try {
-            testMethod = description.getTestClass().getMethod(description.getMethodName());
+            testMethod = classMetadata.getMethod(description.getTestClass(), description.getMethodName());
         } catch (final NoSuchMethodException e) {
             throw new IllegalArgumentException(e);
         }
 
-        final MetadataExtractor metadataExtractor = new MetadataExtractor(new TestClass(description.getTestClass()));
-        if (!new PersistenceExtensionEnabler(metadataExtractor).shouldPersistenceExtensionBeActivated()) {
+        final MetadataExtractor metadataExtractor = classMetadata.getMetadataExtractor();
+        if (!classMetadata.isPersistenceEnabled()) {
             return null;
         }
 
-        final State state = new State();
         state.method(testMethod);
         state.metaExtractor(metadataExtractor);
 
@@ -155,145 +265,299 @@ public class ArquillianPersistenceDbUnitRule implements TestRule {
             throw new IllegalStateException("DataSource is not yet initialized");
         }
 
-        final Configuration config = configurationThreadLocal.get();
-        final PersistenceConfiguration configuration = config.persistenceConfiguration != null ? config.persistenceConfiguration : new PersistenceConfiguration();
+        if (config.testDataSource == null || config.testDataSource.getDelegate() != dataSource) {
+            config.testDataSource = new TestDataSource(dataSource);
+        }
+
+        // defaults are shared to let TestClassMetadata reuse what it resolved for the method
+        final PersistenceConfiguration configuration = config.persistenceConfiguration != null ? config.persistenceConfiguration : DEFAULT_PERSISTENCE_CONFIGURATION;
         config.persistenceConfiguration(configuration);
 
         final JpaCacheEvictionConfiguration jpaCacheEvictionConfiguration = config.jpaCacheEvictionConfiguration != null ? config.jpaCacheEvictionConfiguration : new JpaCacheEvictionConfiguration();
         config.jpaCacheEvictionConfiguration(jpaCacheEvictionConfiguration);
 
-        final ScriptingConfiguration scriptingConfiguration = config.scriptingConfiguration != null ? config.scriptingConfiguration : new ScriptingConfiguration();
+        final ScriptingConfiguration scriptingConfiguration = config.scriptingConfiguration != null ? config.scriptingConfiguration : DEFAULT_SCRIPTING_CONFIGURATION;
         config.scriptingConfiguration(scriptingConfiguration);
 
-        final DBUnitConfiguration dbUnitConfiguration = config.dbUnitConfiguration != null ? config.dbUnitConfiguration : new DBUnitConfiguration();
+        final DBUnitConfiguration dbUnitConfiguration = config.dbUnitConfiguration != null ? config.dbUnitConfiguration : DEFAULT_DBUNIT_CONFIGURATION;
         config.dbUnitConfiguration(dbUnitConfiguration);
 
-        final PersistenceExtensionFeatureResolver persistenceExtensionFeatureResolver = new PersistenceExtensionFeatureResolver(testMethod, metadataExtractor, configuration);
+        if (config.prefetch) { // before the connection setup
+            classMetadata.prefetch(description.getTestClass(), testMethod, configuration, scriptingConfiguration, dbUnitConfiguration);
+        }
+
+        final TestClassMetadata.MethodMetadata methodMetadata = classMetadata.getMethodMetadata(testMethod, configuration, scriptingConfiguration, dbUnitConfiguration);
+        final PersistenceExtensionFeatureResolver persistenceExtensionFeatureResolver = methodMetadata.getFeatureResolver();
         state.persistenceExtensionFeatureResolver(persistenceExtensionFeatureResolver);
-        final PersistenceExtensionScriptingFeatureResolver persistenceExtensionScriptingFeatureResolver = new PersistenceExtensionScriptingFeatureResolver(testMethod, metadataExtractor, scriptingConfiguration);
-        state.persistenceExtensionScriptingFeatureResolver(persistenceExtensionScriptingFeatureResolver);
+        state.persistenceExtensionScriptingFeatureResolver(methodMetadata.getScriptingFeatureResolver());
 
         DataSetRegister dataSetRegister = null;
         if (persistenceExtensionFeatureResolver.shouldVerifyDataAfterTest()) {
-            final Collection<DataSetResourceDescriptor> dataSetResourceDescriptors = new ExpectedDataSetProvider(metadataExtractor, dbUnitConfiguration).getDescriptorsDefinedFor(testMethod);
+            final Collection<DataSetResourceDescriptor> dataSetResourceDescriptors = methodMetadata.getExpectedDataSets();
             for (final DataSetResourceDescriptor dataSetDescriptor : dataSetResourceDescriptors) {
                 if (dataSetRegister == null) {
                     dataSetRegister = new DataSetRegister();
                     state.dataSetRegister(dataSetRegister);
                 }
-                dataSetRegister.addExpected(dataSetDescriptor.getContent());
+                dataSetRegister.addExpected(DataSetCache.getInstance().get(dataSetDescriptor));
             }
         }
 
-        final String schema = dbUnitConfiguration.getSchema();
-        final DatabaseConnection databaseConnection;
-        try {
-            databaseConnection = new DatabaseConnection(dataSource.getConnection(), schema == null || schema.isEmpty() ? null : schema);
-            initConnection(databaseConnection);
-            state.databaseConnection(databaseConnection);
-        } catch (final DatabaseUnitException | SQLException e) {
-            throw new IllegalStateException(e);
+        final String schema;
+        if (config.schemaPool != null) {
+            try {
+                state.schemaLease(config.schemaPool.acquire(dataSource, scriptingConfiguration));
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            schema = state.schemaLease.getSchema();
+        } else {
+            schema = dbUnitConfiguration.getSchema() == null || dbUnitConfiguration.getSchema().isEmpty() ? null : dbUnitConfiguration.getSchema();
         }
 
-        if (state.persistenceExtensionScriptingFeatureResolver.shouldCleanupUsingScriptBefore()) {
+        String templateFixture = null;
+        if (config.databaseTemplate != null && !config.transactional && (methodMetadata.getStreamingDataSets().length > 0
+            || methodMetadata.getGeneratedDataSets().length > 0
+            || (persistenceExtensionFeatureResolver.shouldSeedData() && !methodMetadata.getInitialDataSets().isEmpty()))) {
+            templateFixture = fixture(state, config, methodMetadata, schema);
+            final DatabaseTemplates.Created template = DatabaseTemplates.find(config.databaseTemplate, dataSource, templateFixture);
+            if (template != null) { // already seeded, scripts and seeding are skipped
+                try {
+                    state.clone(template.newClone());
+                } catch (final SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        final DatabaseConnection databaseConnection = state.clone != null ?
+            acquireConnection(state, state.clone.getDataSource(), schema, description.getTestClass(), ConnectionScope.TEST) :
+            acquireConnection(state, dataSource, schema, description.getTestClass(), templateFixture != null ? ConnectionScope.TEST : config.connectionScope);
+
+        Set<String> reused = null; // tables still holding the fixture, seeded by a previous read-only test
+        if (state.clone == null) {
+            try {
+                state.target(DirtyTables.Target.of(dataSource, databaseConnection.getConnection(), schema));
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            final boolean track = config.trackDirtyTables && !config.transactional && persistenceExtensionFeatureResolver.shouldCleanupAfter()
+                && persistenceExtensionFeatureResolver.getCleanupStrategy() != CleanupStrategy.USED_ROWS_ONLY;
+            if (track && config.reuseSeededData && templateFixture == null) {
+                state.fixture(fixture(state, config, methodMetadata, schema));
+                final Map<String, String> checksums = findReusableTables(databaseConnection, state.target, state.fixture);
+                if (checksums != null) {
+                    reused = checksums.keySet();
+                    state.seededChecksums(checksums);
+                }
+            }
+            if (reused == null) { // seeded data a previous read-only test left
+                final Set<String> pending = DirtyTables.takePending(state.target);
+                new DirtyTablesCleanupStrategyExecutor(databaseConnection, pending, dbUnitConfiguration)
+                    .cleanupDatabase(dbUnitConfiguration.getExcludeTablesFromCleanup());
+                JpaCacheEvictor.written(dataSource, pending);
+            }
+            if (track) {
+                state.fixtureTables(new DirtyTables());
+                if (reused != null) {
+                    state.fixtureTables.add(reused.toArray(new String[reused.size()]));
+                }
+            }
+        }
+
+        if (state.clone == null && reused == null && state.persistenceExtensionScriptingFeatureResolver.shouldCleanupUsingScriptBefore()) {
             executeScripts(
                 state, config,
-                SqlScriptProvider.createProviderForCleanupScripts(new TestClass(state.method.getDeclaringClass()), config.scriptingConfiguration).getDescriptorsDefinedFor(state.method));
+                SqlScriptProvider.createProviderForCleanupScripts(new TestClass(state.method.getDeclaringClass()), config.scriptingConfiguration).getDescriptorsDefinedFor(state.method),
+                Collections.<String>emptySet());
         }
-        if (state.persistenceExtensionFeatureResolver.shouldCustomScriptBeAppliedBeforeTestRequested()) {
+        if (state.clone == null && reused == null && state.persistenceExtensionFeatureResolver.shouldCustomScriptBeAppliedBeforeTestRequested()) {
+            final Collection<String> bootstrapScripts = new HashSet<String>(config.bootstrapScripts);
+            for (final BootstrapScript bootstrap : asList(classMetadata.getBootstrapScript(), methodMetadata.getBootstrapScript())) {
+                if (bootstrap != null) {
+                    bootstrapScripts.addAll(asList(bootstrap.value()));
+                }
+            }
             executeScripts(
                 state, config,
-                SqlScriptProvider.createProviderForScriptsToBeAppliedBeforeTest(new TestClass(state.method.getDeclaringClass()), config.scriptingConfiguration).getDescriptorsDefinedFor(state.method));
+                SqlScriptProvider.createProviderForScriptsToBeAppliedBeforeTest(new TestClass(state.method.getDeclaringClass()), config.scriptingConfiguration).getDescriptorsDefinedFor(state.method),
+                bootstrapScripts);
         }
 
-        if (persistenceExtensionFeatureResolver.shouldSeedData()) {
-            final Collection<DataSetResourceDescriptor> dataSetResourceDescriptors = new DataSetProvider(metadataExtractor, dbUnitConfiguration).getDescriptorsDefinedFor(testMethod);
-            for (final DataSetResourceDescriptor dataSetDescriptor : dataSetResourceDescriptors) {
+        if (config.transactional) {
+            try {
+                state.transaction(new RollbackTransaction(databaseConnection.getConnection()));
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        final String[] streamingDataSets = methodMetadata.getStreamingDataSets();
+        final GeneratedDataSet[] generatedDataSets = methodMetadata.getGeneratedDataSets();
+        if (persistenceExtensionFeatureResolver.shouldSeedData() || streamingDataSets.length > 0 || generatedDataSets.length > 0) {
+            if (persistenceExtensionFeatureResolver.shouldSeedData()) {
+                final Collection<DataSetResourceDescriptor> dataSetResourceDescriptors = methodMetadata.getInitialDataSets();
+                for (final DataSetResourceDescriptor dataSetDescriptor : dataSetResourceDescriptors) {
+                    if (dataSetRegister == null) {
+                        dataSetRegister = new DataSetRegister();
+                        state.dataSetRegister(dataSetRegister);
+                    }
+                    dataSetRegister.addInitial(DataSetCache.getInstance().get(dataSetDescriptor));
+                }
+            }
+
+            applyProperties(databaseConnection, dbUnitConfiguration);
+
+            if (reused != null) { // already seeded, tables are registered for USED_TABLES_ONLY cleanup
                 if (dataSetRegister == null) {
                     dataSetRegister = new DataSetRegister();
                     state.dataSetRegister(dataSetRegister);
                 }
-                dataSetRegister.addInitial(dataSetDescriptor.getContent());
-            }
+                dataSetRegister.addInitial(tablesOnly(reused));
+            } else if (state.clone == null) {
+                final DataSeedStrategy dataSeedStrategy = persistenceExtensionFeatureResolver.getDataSeedStrategy();
+                final DataSeeder seeder = config.dataSeeder != null ? config.dataSeeder : new DbUnitDataSeeder(dbUnitConfiguration.isUseIdentityInsert());
+                final Collection<String> seeded = new HashSet<String>();
+
+                if (dataSetRegister != null) {
+                    IDataSet initialDataSet;
+                    try {
+                        initialDataSet = mergeDataSets(dataSetRegister.getInitial());
+                    } catch (final DataSetException e) {
+                        throw new IllegalStateException(e);
+                    }
 
-            final DatabaseConfig dbUnitConfig = databaseConnection.getConfig();
-            final Map<String, Object> properties = new DBUnitConfigurationPropertyMapper().map(dbUnitConfiguration);
-            for (final Map.Entry<String, Object> property : properties.entrySet()) {
-                if (DatabaseConfig.PROPERTY_DATATYPE_FACTORY.equals(property.getKey())) { // already set
-                    continue;
+                    if (dbUnitConfiguration.isFilterTables()) {
+                        final TableFilterProvider sequenceFilterProvider = new TableFilterResolver(dbUnitConfiguration).resolve();
+                        final ITableFilter databaseSequenceFilter;
+                        try {
+                            databaseSequenceFilter = sequenceFilterProvider.provide(databaseConnection, initialDataSet.getTableNames());
+                        } catch (final SQLException | DataSetException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        initialDataSet = new FilteredDataSet(databaseSequenceFilter, initialDataSet);
+                    }
+
+                    try {
+                        seeder.seed(databaseConnection, initialDataSet, dataSeedStrategy);
+                        seeded.addAll(asList(initialDataSet.getTableNames()));
+                    } catch (final DatabaseUnitException | SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
                 }
-                dbUnitConfig.setProperty(property.getKey(), property.getValue());
-            }
 
-            if (dataSetRegister != null) {
-                IDataSet initialDataSet;
-                try {
-                    initialDataSet = mergeDataSets(dataSetRegister.getInitial());
-                } catch (final DataSetException e) {
-                    throw new IllegalStateException(e);
+                for (final String location : streamingDataSets) {
+                    final Collection<String> tables;
+                    try {
+                        tables = seedStreamingDataSet(databaseConnection, seeder, dataSeedStrategy, location);
+                    } catch (final DatabaseUnitException | SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    seeded.addAll(tables);
+                    if (dataSetRegister == null) {
+                        dataSetRegister = new DataSetRegister();
+                        state.dataSetRegister(dataSetRegister);
+                    }
+                    dataSetRegister.addInitial(tablesOnly(tables)); // for USED_TABLES_ONLY cleanup, rows are not kept
                 }
 
-                if (dbUnitConfiguration.isFilterTables()) {
-                    final TableFilterProvider sequenceFilterProvider = new TableFilterResolver(dbUnitConfiguration).resolve();
-                    final ITableFilter databaseSequenceFilter;
+                if (generatedDataSets.length > 0) { // the default seeder is too slow for such volumes
                     try {
-                        databaseSequenceFilter = sequenceFilterProvider.provide(databaseConnection, initialDataSet.getTableNames());
-                    } catch (final SQLException | DataSetException e) {
+                        final IDataSet generated = GeneratedTable.dataSet(databaseConnection, generatedDataSets);
+                        (config.dataSeeder != null ? config.dataSeeder : new BatchedDataSeeder()).seed(databaseConnection, generated, dataSeedStrategy);
+                        seeded.addAll(asList(generated.getTableNames()));
+                        if (dataSetRegister == null) {
+                            dataSetRegister = new DataSetRegister();
+                            state.dataSetRegister(dataSetRegister);
+                        }
+                        dataSetRegister.addInitial(generated); // rows are computed again if needed (USED_ROWS_ONLY cleanup)
+                    } catch (final DatabaseUnitException | SQLException e) {
                         throw new IllegalStateException(e);
                     }
-                    initialDataSet = new FilteredDataSet(databaseSequenceFilter, initialDataSet);
                 }
 
-                final DataSeedStrategy dataSeedStrategy = persistenceExtensionFeatureResolver.getDataSeedStrategy();
-                final boolean useIdentityInsert = dbUnitConfiguration.isUseIdentityInsert();
-                try {
-                    final DatabaseOperation databaseOperation = dataSeedStrategy.provide(new DBUnitDataSeedStrategyProvider(useIdentityInsert));
-                    databaseOperation.execute(databaseConnection, initialDataSet);
-                } catch (final DatabaseUnitException | SQLException e) {
-                    throw new IllegalStateException(e);
+                final Collection<String> normalized = new HashSet<String>();
+                for (final String table : seeded) {
+                    normalized.add(DirtyTables.normalize(table));
+                }
+                JpaCacheEvictor.written(dataSource, normalized);
+                state.seededTables(normalized);
+                if (state.fixtureTables != null) {
+                    state.fixtureTables.add(seeded.toArray(new String[seeded.size()]));
                 }
-            }
-        }
 
-        try {
-            final JpaCacheEvictionHandler jpaHandler = new JpaCacheEvictionHandler(null, jpaCacheEvictionConfiguration) {
-                @Override
-                public EntityManager lookup(final String emJndiName) throws NamingException {
-                    return findEntityManager(emJndiName);
+                if (templateFixture != null) { // first test of the fixture: freeze the seeded database and run on a clone
+                    state.connectionLease.release();
+                    final DatabaseTemplates.Created template;
+                    try {
+                        template = DatabaseTemplates.create(config.databaseTemplate, dataSource, templateFixture);
+                    } catch (final SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    // the fixture lives in the template now, give the source back clean
+                    new DirtyTablesCleanupStrategyExecutor(acquireConnection(state, dataSource, schema, description.getTestClass(), ConnectionScope.TEST), normalized, dbUnitConfiguration)
+                        .cleanupDatabase(dbUnitConfiguration.getExcludeTablesFromCleanup());
+                    state.connectionLease.release();
+                    JpaCacheEvictor.written(dataSource, normalized);
+                    try {
+                        state.clone(template.newClone());
+                    } catch (final SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    state.fixtureTables(null);
+                    applyProperties(acquireConnection(state, state.clone.getDataSource(), schema, description.getTestClass(), ConnectionScope.TEST), dbUnitConfiguration);
                 }
-            };
-            state.jpaEvictionHandler(jpaHandler);
-            config.instance = config.instance == null ? description.getTestClass().newInstance() : config.instance;
-            jpaHandler.onBeforeTestMethod(new BeforePersistenceTest(new TestEvent(config.instance, testMethod)));
-        } catch (final InstantiationException | IllegalAccessException e) {
-            throw new IllegalStateException(e);
+            }
         }
 
-        return state;
-    }
+        if (state.transaction != null) {
+            try {
+                state.transaction.seeded();
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            config.testDataSource.share(state.transaction);
+        }
+        if (state.fixture != null && state.seededChecksums == null) { // writes not seen by the tracking change them
+            try {
+                state.seededChecksums(checksums(databaseConnection, state.fixtureTables.getTables()));
+            } catch (final SQLException | DatabaseUnitException e) {
+                state.seededChecksums(null);
+            }
+            if (state.seededChecksums == null) { // can't know if the data are unchanged
+                state.fixture(null);
+            }
+        }
+        if (state.fixtureTables != null) {
+            state.dirtyTables(new DirtyTables());
+            config.testDataSource.track(state.dirtyTables);
+        }
+        if (state.clone != null) {
+            config.testDataSource.redirect(state.clone.getDataSource());
+        }
+        if (state.schemaLease != null) {
+            config.testDataSource.useSchema(schema);
+        }
+        injectDataSource(config);
 
-    private void initConnection(final DatabaseConnection databaseConnection) {
-        try {
-            final DatabaseMetaData meta = databaseConnection.getConnection().getMetaData();
-            final String product = meta.getDatabaseProductName().toLowerCase(Locale.ENGLISH);
-            if (product.contains("h2")) {
-                databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new H2DataTypeFactory());
-            } else if (product.contains("mysql")) {
-                databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new MySqlDataTypeFactory());
-            } else if (product.contains("oracle")) {
-                databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new OracleDataTypeFactory());
-            } else if (product.contains("hsql")) {
-                databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new HsqldbDataTypeFactory());
-            } else if (product.contains("postgre")) {
-                databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new PostgresqlDataTypeFactory());
-            } else if (product.contains("db2")) {
-                databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new Db2DataTypeFactory());
-            } else {
-                databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new DefaultDataTypeFactory());
+        config.testClass = description.getTestClass();
+        final JpaCacheEvictor jpaCacheEvictor = new JpaCacheEvictor(jpaCacheEvictionConfiguration, description.getTestClass(), testMethod) {
+            @Override
+            protected EntityManager lookup(final String name) {
+                return findEntityManager(name);
             }
-        } catch (final SQLException e) {
-            // no-op
+        };
+        state.jpaCacheEvictor(jpaCacheEvictor);
+        jpaCacheEvictor.evict(TestExecutionPhase.BEFORE, dataSource);
+
+        state.budgets(methodMetadata.getMaxQueries(), methodMetadata.getMaxRowsFetched());
+        config.queryStatistics = config.recordQueries || config.fullScanRowThreshold != null || state.maxQueries != null || state.maxRowsFetched != null ?
+            new QueryStatistics(config.fullScanRowThreshold != null) : null;
+        if (config.queryStatistics != null) { // only the test body is recorded
+            config.testDataSource.record(config.queryStatistics);
         }
+
+        return state;
     }
 
     private void after(final State state) {
@@ -301,156 +565,426 @@ public class ArquillianPersistenceDbUnitRule implements TestRule {
             return;
         }
 
+        config.testDataSource.stopRecording();
         try {
-            final Configuration configuration = configurationThreadLocal.get();
+            final Configuration configuration = config;
 
-            state.jpaCacheEvictionHandler.onAfterTestMethod(new AfterPersistenceTest(new TestEvent(configuration.instance, state.method)));
+            if (state.dirtyTables == null || state.dirtyTables.isUnknown()) { // the test can have written anything
+                JpaCacheEvictor.writtenUnknown(findDataSource());
+            }
+            state.jpaCacheEvictor.evict(TestExecutionPhase.AFTER, findDataSource());
 
             final AssertionErrorCollector errorCollector = new AssertionErrorCollector();
+            if (configuration.fullScanRowThreshold != null) { // before the cleanup to get the plans of the seeded data
+                explainQueries(state, configuration, errorCollector);
+            }
             if (state.persistenceExtensionFeatureResolver.shouldVerifyDataAfterTest()) {
                 final ShouldMatchDataSet dataSetsToVerify = state.metadataExtractor.shouldMatchDataSet().fetchFrom(state.method);
                 final CustomColumnFilter customColumnFilter = state.metadataExtractor.using(CustomColumnFilter.class).fetchFrom(state.method);
                 try {
-                    IDataSet currentDataSet = state.databaseConnection.createDataSet();
                     final String[] excludeTables = configuration.dbUnitConfiguration.getExcludeTablesFromComparisonWhenEmptyExpected();
-                    if (excludeTables.length != 0) {
-                        currentDataSet = new FilteredDataSet(new ExcludeTableFilter(excludeTables), currentDataSet);
-                    }
                     final IDataSet expectedDataSet = mergeDataSets(state.dataSetRegister.getExpected());
-                    final DataSetComparator dataSetComparator = new DataSetComparator(dataSetsToVerify.orderBy(),
-                        dataSetsToVerify.excludeColumns(), customColumnFilter == null ? Collections.<Class<? extends IColumnFilter>>emptySet() : new HashSet<>(asList(customColumnFilter.value())));
-                    dataSetComparator.compare(currentDataSet, expectedDataSet, errorCollector);
+                    final Set<Class<? extends IColumnFilter>> columnFilters = customColumnFilter == null ?
+                        Collections.<Class<? extends IColumnFilter>>emptySet() : new HashSet<>(asList(customColumnFilter.value()));
+                    if (configuration.verificationParallelism > 1 && state.transaction == null && expectedDataSet.getTableNames().length > 1) {
+                        new ParallelDataSetVerifier(state.clone != null ? state.clone.getDataSource() : findDataSource(),
+                            configuration.testDataSource, configuration.verificationParallelism)
+                            .verify(state.databaseConnection, expectedDataSet, dataSetsToVerify, columnFilters, excludeTables, errorCollector);
+                    } else if (customColumnFilter != null || !streamingMatches(state.databaseConnection, expectedDataSet, dataSetsToVerify, excludeTables)) {
+                        // full comparison only when the streaming one can't be used or fails to get the detailed differences
+                        IDataSet currentDataSet = state.databaseConnection.createDataSet();
+                        if (excludeTables.length != 0) {
+                            currentDataSet = new FilteredDataSet(new ExcludeTableFilter(excludeTables), currentDataSet);
+                        }
+                        final DataSetComparator dataSetComparator = new DataSetComparator(dataSetsToVerify.orderBy(), dataSetsToVerify.excludeColumns(), columnFilters);
+                        dataSetComparator.compare(currentDataSet, expectedDataSet, errorCollector);
+                    }
                 } catch (final DatabaseUnitException | SQLException e) {
                     throw new IllegalStateException(e);
                 }
             }
 
-            if (state.persistenceExtensionFeatureResolver.shouldCleanupAfter()) {
-                final CleanupStrategyExecutor cleanupStrategyExecutor = state.persistenceExtensionFeatureResolver.getCleanupStrategy()
+            if (state.dirtyTables != null) {
+                configuration.testDataSource.untrack();
+            }
+            if (state.dirtyTables != null && !state.dirtyTables.isUnknown()) {
+                cleanupDirtyTables(state, configuration);
+            } else if (state.transaction == null && state.clone == null && state.persistenceExtensionFeatureResolver.shouldCleanupAfter()) {
+                final CleanupStrategy cleanupStrategy = state.persistenceExtensionFeatureResolver.getCleanupStrategy();
+                final CleanupStrategyExecutor cleanupStrategyExecutor = cleanupStrategy
                     .provide(new CleanupStrategyProvider(state.databaseConnection, state.dataSetRegister, configuration.dbUnitConfiguration));
                 cleanupStrategyExecutor.cleanupDatabase(configuration.dbUnitConfiguration.getExcludeTablesFromCleanup());
+                if (cleanupStrategy == CleanupStrategy.STRICT) {
+                    JpaCacheEvictor.writtenUnknown(findDataSource());
+                } else if (state.dataSetRegister != null) { // only seeded tables
+                    try {
+                        final Collection<String> tables = new HashSet<String>();
+                        for (final String table : mergeDataSets(state.dataSetRegister.getInitial()).getTableNames()) {
+                            tables.add(DirtyTables.normalize(table));
+                        }
+                        JpaCacheEvictor.written(findDataSource(), tables);
+                    } catch (final DataSetException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
             }
 
-            if (state.persistenceExtensionScriptingFeatureResolver.shouldCleanupUsingScriptAfter()) {
+            if (state.transaction == null && state.clone == null && state.persistenceExtensionScriptingFeatureResolver.shouldCleanupUsingScriptAfter()) {
                 final SqlScriptProvider<CleanupUsingScript> scriptsProvider = SqlScriptProvider.createProviderForCleanupScripts(new TestClass(state.method.getDeclaringClass()), configuration.scriptingConfiguration);
-                executeScripts(state, configuration, scriptsProvider.getDescriptorsDefinedFor(state.method));
+                executeScripts(state, configuration, scriptsProvider.getDescriptorsDefinedFor(state.method), Collections.<String>emptySet());
+            }
+
+            final QueryStatistics statistics = configuration.queryStatistics;
+            if (state.maxQueries != null && statistics.getQueries() > state.maxQueries.value()) {
+                errorCollector.collect(new AssertionError(
+                    "Expected at most " + state.maxQueries.value() + " queries but got " + statistics.getQueries() + ": " + statistics));
+            }
+            if (state.maxRowsFetched != null && statistics.getRowsFetched() > state.maxRowsFetched.value()) {
+                errorCollector.collect(new AssertionError(
+                    "Expected at most " + state.maxRowsFetched.value() + " rows fetched but got " + statistics.getRowsFetched() + ": " + statistics));
             }
 
             errorCollector.report();
         } finally {
+            if (state.dirtyTables != null) {
+                config.testDataSource.untrack();
+            }
+            if (state.transaction != null) {
+                config.testDataSource.release();
+                try {
+                    state.transaction.rollback();
+                } catch (final SQLException e) {
+                    // no-op
+                }
+                if (state.seededTables != null) { // back to what they were before the seeding
+                    JpaCacheEvictor.written(findDataSource(), state.seededTables);
+                }
+            }
+            state.connectionLease.release();
+            if (state.clone != null) { // the clone is thrown away instead of being cleaned up
+                config.testDataSource.restore();
+                state.clone.drop();
+            }
+            if (state.schemaLease != null) {
+                config.testDataSource.useSchema(null);
+                state.schemaLease.release();
+            }
+        }
+    }
+
+    private static void explainQueries(final State state, final Configuration configuration, final AssertionErrorCollector errorCollector) {
+        final QueryStatistics statistics = configuration.queryStatistics;
+        try {
+            final QueryPlan plan = QueryPlan.find(DatabaseMetaDataCache.getInstance().getProduct(state.databaseConnection));
+            if (plan == null) {
+                return;
+            }
+            try (final Connection connection = configuration.testDataSource.plainConnection()) {
+                plan.explain(connection, statistics, configuration.fullScanRowThreshold);
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (final QueryStatistics.Shape shape : statistics.getShapes()) {
+            for (final Map.Entry<String, Long> scan : shape.getFullScans().entrySet()) {
+                errorCollector.collect(new AssertionError(
+                    "Full scan of " + scan.getKey() + " (" + scan.getValue() + " rows) by " + shape.getSql() + ":\n" + shape.getPlan()));
+            }
+        }
+        if (configuration.planReports != null) {
             try {
-                state.databaseConnection.close();
-            } catch (final SQLException e) {
-                // no-op
+                QueryPlan.report(configuration.planReports, state.method.getDeclaringClass(), state.method.getName(), statistics);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // before() failed, after() won't be called but leased resources must be given back
+    private static void abort(final State state) {
+        if (state.connectionLease != null) {
+            state.connectionLease.release();
+        }
+        if (state.clone != null) {
+            state.clone.drop();
+        }
+        if (state.schemaLease != null) {
+            state.schemaLease.release();
+        }
+    }
+
+    private static void applyProperties(final DatabaseConnection databaseConnection, final DBUnitConfiguration dbUnitConfiguration) {
+        final DatabaseConfig dbUnitConfig = databaseConnection.getConfig();
+        final Map<String, Object> properties = new DBUnitConfigurationPropertyMapper().map(dbUnitConfiguration);
+        for (final Map.Entry<String, Object> property : properties.entrySet()) {
+            if (DatabaseConfig.PROPERTY_DATATYPE_FACTORY.equals(property.getKey())) { // already set
+                continue;
+            }
+            dbUnitConfig.setProperty(property.getKey(), property.getValue());
+        }
+    }
+
+    private static DatabaseConnection acquireConnection(final State state, final DataSource dataSource, final String schema,
+                                                        final Class<?> testClass, final ConnectionScope scope) {
+        try {
+            final DatabaseConnectionHolder.Lease lease = DatabaseConnectionHolder.acquire(dataSource, schema, testClass, scope);
+            state.databaseConnection(lease.getConnection());
+            state.connectionLease(lease);
+            if (state.schemaLease != null) { // unqualified statements (seeding, scripts) go to the leased schema
+                SchemaPool.use(lease.getConnection().getConnection(), schema);
+            }
+            return lease.getConnection();
+        } catch (final DatabaseUnitException | SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // what makes the content of a seeded database: seeded datasets and the scripts executed before
+    private static String fixture(final State state, final Configuration config, final TestClassMetadata.MethodMetadata methodMetadata,
+                                          final String schema) {
+        final StringBuilder fixture = new StringBuilder(state.persistenceExtensionFeatureResolver.getDataSeedStrategy().name())
+            .append('|').append(schema);
+        for (final DataSetResourceDescriptor descriptor : methodMetadata.getInitialDataSets()) {
+            fixture.append("|dataset:").append(descriptor.getLocation());
+        }
+        for (final String location : methodMetadata.getStreamingDataSets()) {
+            fixture.append("|stream:").append(location);
+        }
+        for (final GeneratedDataSet generated : methodMetadata.getGeneratedDataSets()) {
+            fixture.append("|generated:").append(generated.table()).append(':').append(generated.rows())
+                .append(':').append(generated.generator().getName()).append(':').append(generated.seed());
+        }
+        if (state.persistenceExtensionScriptingFeatureResolver.shouldCleanupUsingScriptBefore()) {
+            for (final SqlScriptResourceDescriptor descriptor : SqlScriptProvider.createProviderForCleanupScripts(
+                    new TestClass(state.method.getDeclaringClass()), config.scriptingConfiguration).getDescriptorsDefinedFor(state.method)) {
+                fixture.append("|cleanup:").append(descriptor.getLocation());
+            }
+        }
+        if (state.persistenceExtensionFeatureResolver.shouldCustomScriptBeAppliedBeforeTestRequested()) {
+            for (final SqlScriptResourceDescriptor descriptor : SqlScriptProvider.createProviderForScriptsToBeAppliedBeforeTest(
+                    new TestClass(state.method.getDeclaringClass()), config.scriptingConfiguration).getDescriptorsDefinedFor(state.method)) {
+                fixture.append("|script:").append(descriptor.getLocation());
+            }
+        }
+        return fixture.toString();
+    }
+
+    // streamed datasets are seeded in file order without being cached, merged nor filtered to keep the memory constant,
+    // CLEAN_INSERT deletes their tables after a first pass collecting the table names
+    private static Collection<String> seedStreamingDataSet(final DatabaseConnection connection, final DataSeeder seeder,
+                                                           final DataSeedStrategy strategy, final String location) throws DatabaseUnitException, SQLException {
+        try (final StreamedDataSet dataSet = new StreamedDataSet(location)) {
+            DataSeedStrategy streamStrategy = strategy;
+            if (strategy == DataSeedStrategy.CLEAN_INSERT) {
+                DatabaseOperation.DELETE_ALL.execute(connection, tablesOnly(asList(dataSet.getTableNames())));
+                streamStrategy = DataSeedStrategy.INSERT;
+            }
+            (ParallelDataSeeder.class.isInstance(seeder) ? ParallelDataSeeder.class.cast(seeder).getDelegate() : seeder)
+                .seed(connection, dataSet, streamStrategy);
+            return dataSet.getStreamedTableNames();
+        }
+    }
+
+    private static IDataSet tablesOnly(final Collection<String> tables) {
+        final DefaultDataSet dataSet = new DefaultDataSet();
+        for (final String table : tables) {
+            try {
+                dataSet.addTable(new DefaultTable(table));
+            } catch (final AmbiguousTableNameException e) {
+                // already there
+            }
+        }
+        return dataSet;
+    }
+
+    private static boolean streamingMatches(final DatabaseConnection connection, final IDataSet expected,
+                                            final ShouldMatchDataSet config, final String[] excludeTables) {
+        try {
+            return new StreamingDataSetComparator(config.orderBy(), config.excludeColumns(), excludeTables).matches(connection, expected);
+        } catch (final DatabaseUnitException | SQLException e) { // let DataSetComparator report it
+            return false;
+        }
+    }
+
+    private void cleanupDirtyTables(final State state, final Configuration configuration) {
+        Set<String> candidates = null; // all tables
+        if (state.persistenceExtensionFeatureResolver.getCleanupStrategy() == CleanupStrategy.USED_TABLES_ONLY) {
+            candidates = new HashSet<String>();
+            if (state.dataSetRegister != null) {
+                try {
+                    for (final String table : mergeDataSets(state.dataSetRegister.getInitial()).getTableNames()) {
+                        candidates.add(DirtyTables.normalize(table));
+                    }
+                } catch (final DataSetException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        final Set<String> written = new HashSet<String>(state.dirtyTables.getTables());
+        final Set<String> fixture = new HashSet<String>(state.fixtureTables.getTables());
+        if (candidates != null) {
+            written.retainAll(candidates);
+            fixture.retainAll(candidates);
+        }
+        fixture.removeAll(written);
+
+        new DirtyTablesCleanupStrategyExecutor(state.databaseConnection, written, configuration.dbUnitConfiguration)
+            .cleanupDatabase(configuration.dbUnitConfiguration.getExcludeTablesFromCleanup());
+        JpaCacheEvictor.written(findDataSource(), state.dirtyTables.getTables()); // test writes not done through JPA and their cleanup
+        try {
+            DirtyTables.addPending(state.target, state.databaseConnection.getConnection(), configuration.dbUnitConfiguration, fixture);
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        if (state.fixture != null && state.dirtyTables.getTables().isEmpty() && !fixture.isEmpty() && fixture.equals(state.seededChecksums.keySet())
+            && !state.persistenceExtensionScriptingFeatureResolver.shouldCleanupUsingScriptAfter()) { // read-only test, next one can reuse the data
+            DirtyTables.seeded(state.target, state.fixture, state.seededChecksums);
+        }
+    }
+
+    // the checksums of the pending tables if they still hold fixture: same checksums as when it was seeded
+    private static Map<String, String> findReusableTables(final DatabaseConnection connection, final DirtyTables.Target target, final String fixture) {
+        final Map<String, String> checksums = DirtyTables.findSeeded(target, fixture);
+        if (checksums == null) {
+            return null;
+        }
+        try {
+            return checksums.equals(checksums(connection, checksums.keySet())) ? checksums : null;
+        } catch (final SQLException | DatabaseUnitException e) { // table dropped for instance
+            return null;
+        }
+    }
+
+    // null if the database has no TableChecksum
+    private static Map<String, String> checksums(final DatabaseConnection connection, final Collection<String> tables) throws SQLException, DatabaseUnitException {
+        final TableChecksum checksum = TableChecksum.find(DatabaseMetaDataCache.getInstance().getProduct(connection));
+        if (checksum == null) {
+            return null;
+        }
+        final String escapePattern = (String) connection.getConfig().getProperty(DatabaseConfig.PROPERTY_ESCAPE_PATTERN);
+        final IDataSet database = connection.createDataSet();
+        final Map<String, String> checksums = new HashMap<String, String>();
+        for (final String table : tables) {
+            final List<String> columns = new ArrayList<String>();
+            for (final Column column : database.getTableMetaData(table).getColumns()) {
+                columns.add(new QualifiedTableName(column.getColumnName(), null, escapePattern).getQualifiedName());
+            }
+            checksums.put(table, checksum.checksum(connection.getConnection(), new QualifiedTableName(table, connection.getSchema()).getQualifiedName(), columns));
+        }
+        return checksums;
+    }
+
+    private void injectDataSource(final Configuration config) {
+        if (config.instance == null) {
+            return;
+        }
+        for (final Field f : Reflections.findFields(config.instance.getClass(), UnitInject.class)) {
+            if (DataSource.class == f.getType()) {
+                Reflections.set(f, Modifier.isStatic(f.getModifiers()) ? null : config.instance, config.testDataSource);
             }
         }
     }
 
-    private void executeScripts(final State state, final Configuration config, final Collection<SqlScriptResourceDescriptor> descriptors) {
+    private void executeScripts(final State state, final Configuration config, final Collection<SqlScriptResourceDescriptor> descriptors,
+                                final Collection<String> bootstrapScripts) {
+        final SqlScriptExecutor executor;
+        try {
+            executor = new SqlScriptExecutor(state.databaseConnection.getConnection(), config.scriptingConfiguration);
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
         for (final SqlScriptResourceDescriptor scriptDescriptor : descriptors) {
             final String script = scriptDescriptor.getContent();
-            // spi is done through SW so handle default manually
-            final StatementSplitter statementSplitter = "default".equalsIgnoreCase(config.scriptingConfiguration.getSqlDialect()) ?
-                new DefaultStatementSplitter() : new StatementSplitterResolver(config.scriptingConfiguration).resolve();
+            final String location = scriptDescriptor.getLocation();
+            final boolean bootstrap = isBootstrapScript(bootstrapScripts, location);
+            try {
+                if (bootstrap && AppliedScripts.isApplied(config.dataSource, executor.getConnection(), state.databaseConnection.getSchema(), location, script)) {
+                    continue; // skip the metadata invalidation too
+                }
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
             try {
-                new ScriptExecutor(state.databaseConnection.getConnection(), config.scriptingConfiguration, statementSplitter).execute(script);
+                executor.execute(location, script);
+                if (bootstrap) {
+                    AppliedScripts.markApplied(config.dataSource, executor.getConnection(), location, script);
+                }
+                final DirtyTables scriptTables = new DirtyTables();
+                scriptTables.onSql(script);
+                JpaCacheEvictor.written(findDataSource(), scriptTables);
+                if (state.fixtureTables != null) {
+                    state.fixtureTables.onSql(script);
+                }
             } catch (final SQLException e) {
                 throw new IllegalStateException(e);
+            } finally {
+                DatabaseMetaDataCache.getInstance().onScript(config.dataSource, script);
+            }
+        }
+    }
+
+    private static boolean isBootstrapScript(final Collection<String> bootstrapScripts, final String location) {
+        for (final String script : bootstrapScripts) { // location can be prefixed with the default script location
+            if (location.equals(script) || location.endsWith('/' + script)) {
+                return true;
             }
         }
+        return false;
     }
 
     private DataSource findDataSource() {
-        final Configuration configuration = configurationThreadLocal.get();
+        final Configuration configuration = config;
         if (configuration != null && configuration.dataSource != null) {
             return configuration.dataSource;
         }
-        if (configuration != null && configuration.instance != null) { // TODO: support multiple datasources
-            Class<?> c = configuration.instance.getClass();
-            while (c != null && c != Object.class) {
-                for (final Field f : c.getDeclaredFields()) {
-                    if (f.getType() == DataSource.class && f.getAnnotation(DbUnitInstance.class) != null) {
-                        if (!f.isAccessible()) {
-                            f.setAccessible(true);
-                        }
-                        try {
-                            return configuration.dataSource = DataSource.class.cast(f.get(Modifier.isStatic(f.getModifiers()) ? null : configuration.instance));
-                        } catch (final IllegalAccessException e) {
-                            throw new IllegalStateException(e);
-                        }
-                    }
-                }
-                for (final Method m : c.getDeclaredMethods()) {
-                    if (DataSource.class == m.getReturnType() && m.getAnnotation(DbUnitInstance.class) != null && m.getParameterTypes().length == 0) {
-                        if (!m.isAccessible()) {
-                            m.setAccessible(true);
-                        }
-                        try {
-                            return configuration.dataSource = DataSource.class.cast(m.invoke(Modifier.isStatic(m.getModifiers()) ? null : configuration.instance));
-                        } catch (final InvocationTargetException e) {
-                            throw new IllegalStateException(e.getCause());
-                        } catch (IllegalAccessException e) {
-                            throw new IllegalStateException(e);
-                        }
-                    }
-                }
-                c = c.getSuperclass();
+        if (configuration != null && configuration.instance != null) {
+            final DataSource dataSource = TestClassMetadata.of(configuration.instance.getClass())
+                .findDataSource(configuration.dataSourceName, configuration.instance);
+            if (dataSource != null) {
+                return configuration.dataSource = dataSource;
             }
         }
         throw new IllegalStateException("No datasource available, provide either the tets instance with @DbUnitInstance on a datasource field or directly the datasource to the rule.");
     }
 
     private EntityManager findEntityManager(final String name) {
-        final Configuration configuration = configurationThreadLocal.get();
+        final Configuration configuration = config;
         if (configuration != null && configuration.entityManagers.containsKey(name)) {
             return configuration.entityManagers.get(name);
         }
-        if (configuration != null && configuration.instance != null) {
-            Class<?> c = configuration.instance.getClass();
-            while (c != null && c != Object.class) {
-                for (final Field f : c.getDeclaredFields()) {
-                    final DbUnitInstance annotation = f.getAnnotation(DbUnitInstance.class);
-                    if (f.getType() == EntityManager.class && annotation != null
-                        && annotation.value().equals(name) && annotation.value().isEmpty()) {
-                        if (!f.isAccessible()) {
-                            f.setAccessible(true);
-                        }
-                        try {
-                            final EntityManager manager = EntityManager.class.cast(f.get(configuration.instance));
-                            configuration.entityManager(name, manager);
-                            return manager;
-                        } catch (final IllegalAccessException e) {
-                            throw new IllegalStateException(e);
-                        }
-                    }
-                }
-                for (final Method m : c.getDeclaredMethods()) {
-                    final DbUnitInstance annotation = m.getAnnotation(DbUnitInstance.class);
-                    if (EntityManager.class == m.getReturnType() && annotation != null && m.getParameterTypes().length == 0
-                        && annotation.value().equals(name) && annotation.value().isEmpty()) {
-                        if (!m.isAccessible()) {
-                            m.setAccessible(true);
-                        }
-                        try {
-                            final EntityManager manager = EntityManager.class.cast(m.invoke(configuration.instance));
-                            configuration.entityManager(name, manager);
-                            return manager;
-                        } catch (final InvocationTargetException e) {
-                            throw new IllegalStateException(e.getCause());
-                        } catch (IllegalAccessException e) {
-                            throw new IllegalStateException(e);
-                        }
-                    }
-                }
-                c = c.getSuperclass();
+        if (configuration != null && (configuration.instance != null || configuration.testClass != null)) { // static fields without instance
+            final EntityManager manager = TestClassMetadata.of(configuration.instance != null ? configuration.instance.getClass() : configuration.testClass)
+                .findEntityManager(name, configuration.instance);
+            if (manager != null) {
+                configuration.entityManager(name, manager);
+                return manager;
             }
         }
-        throw new IllegalStateException("No datasource available, provide either the tets instance with @DbUnitInstance on a datasource field or directly the datasource to the rule.");
+        throw new IllegalStateException("No entity manager available, provide either the tets instance with @DbUnitInstance on an entity manager field or directly the entity manager to the rule.");
     }
 
     private static final class Configuration {
         private DataSource dataSource;
+        private String dataSourceName = "";
+        private TestDataSource testDataSource;
         private Object instance;
+        private Class<?> testClass;
+        private boolean transactional;
+        private DataSeeder dataSeeder;
+        private ConnectionScope connectionScope = ConnectionScope.TEST;
+        private boolean trackDirtyTables;
+        private boolean reuseSeededData;
+        private boolean recordQueries;
+        private boolean prefetch;
+        private int verificationParallelism = 1;
+        private Long fullScanRowThreshold;
+        private File planReports;
+        private volatile QueryStatistics queryStatistics;
+        private final Collection<String> bootstrapScripts = new HashSet<String>();
+        private DatabaseTemplate databaseTemplate;
+        private SchemaPool schemaPool;
 
         private PersistenceConfiguration persistenceConfiguration;
         private JpaCacheEvictionConfiguration jpaCacheEvictionConfiguration;
@@ -493,8 +1027,20 @@ public class ArquillianPersistenceDbUnitRule implements TestRule {
         private PersistenceExtensionScriptingFeatureResolver persistenceExtensionScriptingFeatureResolver;
         private DataSetRegister dataSetRegister;
         private DatabaseConnection databaseConnection;
+        private DatabaseConnectionHolder.Lease connectionLease;
         private Method method;
-        private JpaCacheEvictionHandler jpaCacheEvictionHandler;
+        private JpaCacheEvictor jpaCacheEvictor;
+        private RollbackTransaction transaction;
+        private DirtyTables fixtureTables;
+        private DirtyTables dirtyTables;
+        private DirtyTables.Target target;
+        private DatabaseTemplates.Clone clone;
+        private SchemaPool.Lease schemaLease;
+        private Collection<String> seededTables;
+        private MaxQueries maxQueries;
+        private MaxRowsFetched maxRowsFetched;
+        private String fixture; // set when the seeded data can be reused by the next test
+        private Map<String, String> seededChecksums;
 
         public void metaExtractor(final MetadataExtractor metadataExtractor) {
             this.metadataExtractor = metadataExtractor;
@@ -516,12 +1062,57 @@ public class ArquillianPersistenceDbUnitRule implements TestRule {
             this.databaseConnection = databaseConnection;
         }
 
+        public void connectionLease(final DatabaseConnectionHolder.Lease lease) {
+            this.connectionLease = lease;
+        }
+
         public void method(final Method testMethod) {
             this.method = testMethod;
         }
 
-        public void jpaEvictionHandler(final JpaCacheEvictionHandler jpaHandler) {
-            this.jpaCacheEvictionHandler = jpaHandler;
+        public void jpaCacheEvictor(final JpaCacheEvictor jpaCacheEvictor) {
+            this.jpaCacheEvictor = jpaCacheEvictor;
+        }
+
+        public void transaction(final RollbackTransaction transaction) {
+            this.transaction = transaction;
+        }
+
+        public void fixtureTables(final DirtyTables fixtureTables) {
+            this.fixtureTables = fixtureTables;
+        }
+
+        public void target(final DirtyTables.Target target) {
+            this.target = target;
+        }
+
+        public void dirtyTables(final DirtyTables dirtyTables) {
+            this.dirtyTables = dirtyTables;
+        }
+
+        public void clone(final DatabaseTemplates.Clone clone) {
+            this.clone = clone;
+        }
+
+        public void schemaLease(final SchemaPool.Lease schemaLease) {
+            this.schemaLease = schemaLease;
+        }
+
+        public void budgets(final MaxQueries maxQueries, final MaxRowsFetched maxRowsFetched) {
+            this.maxQueries = maxQueries;
+            this.maxRowsFetched = maxRowsFetched;
+        }
+
+        public void seededTables(final Collection<String> seededTables) {
+            this.seededTables = seededTables;
+        }
+
+        public void fixture(final String fixture) {
+            this.fixture = fixture;
+        }
+
+        public void seededChecksums(final Map<String, String> seededChecksums) {
+            this.seededChecksums = seededChecksums;
         }
     }
 }
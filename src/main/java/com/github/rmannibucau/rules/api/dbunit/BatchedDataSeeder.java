@@ -0,0 +1,404 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.NoPrimaryKeyException;
+import org.dbunit.dataset.RowOutOfBoundsException;
+import org.dbunit.operation.DatabaseOperation;
+import org.dbunit.util.QualifiedTableName;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// groups rows of a table in PreparedStatement batches instead of executing them one by one,
+// reuses DbUnit metadata (and therefore types) but not its operations (except DELETE_ALL for CLEAN_INSERT)
+public class BatchedDataSeeder implements DataSeeder {
+    private static final Logger LOGGER = Logger.getLogger(BatchedDataSeeder.class.getName());
+
+    private static final DataSeedStrategy.StrategyProvider<Mode> MODES = new DataSeedStrategy.StrategyProvider<Mode>() {
+        @Override
+        public Mode insertStrategy() {
+            return Mode.INSERT;
+        }
+
+        @Override
+        public Mode cleanInsertStrategy() {
+            return Mode.CLEAN_INSERT;
+        }
+
+        @Override
+        public Mode refreshStrategy() {
+            return Mode.REFRESH;
+        }
+
+        @Override
+        public Mode updateStrategy() {
+            return Mode.UPDATE;
+        }
+
+        @Override
+        public Mode defaultStrategy() {
+            return Mode.INSERT;
+        }
+    };
+
+    private final int batchSize;
+
+    public BatchedDataSeeder() {
+        this(1000);
+    }
+
+    public BatchedDataSeeder(final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize should be > 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException, SQLException {
+        final Mode mode = strategy.provide(MODES);
+        if (mode == Mode.CLEAN_INSERT) {
+            DatabaseOperation.DELETE_ALL.execute(connection, dataSet);
+        }
+
+        final ITableIterator iterator = dataSet.iterator();
+        while (iterator.next()) {
+            final ITable table = iterator.getTable();
+            final long start = System.nanoTime();
+            final int rows = seed(connection, table, mode);
+            report(table.getTableMetaData().getTableName(), rows, System.nanoTime() - start);
+        }
+    }
+
+    protected void report(final String table, final int rows, final long durationNs) {
+        if (!LOGGER.isLoggable(Level.FINE) || rows == 0) {
+            return;
+        }
+        final long ms = TimeUnit.NANOSECONDS.toMillis(durationNs);
+        final long throughput = durationNs == 0 ? rows : rows * TimeUnit.SECONDS.toNanos(1) / durationNs;
+        LOGGER.fine("Seeded " + rows + " rows in " + table + " in " + ms + "ms (" + throughput + " rows/s)");
+    }
+
+    private int seed(final DatabaseConnection connection, final ITable table, final Mode mode) throws DatabaseUnitException, SQLException {
+        final Column[] columns = table.getTableMetaData().getColumns();
+        if (columns.length == 0) {
+            return 0;
+        }
+
+        final ITableMetaData metaData = connection.createDataSet().getTableMetaData(table.getTableMetaData().getTableName());
+        final Column[] dbColumns = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            dbColumns[i] = metaData.getColumns()[metaData.getColumnIndex(columns[i].getColumnName())];
+        }
+        final int[] primaryKeys;
+        if (mode == Mode.UPDATE || mode == Mode.REFRESH) {
+            final Column[] pks = metaData.getPrimaryKeys();
+            if (pks.length == 0) {
+                throw new NoPrimaryKeyException(metaData.getTableName());
+            }
+            primaryKeys = new int[pks.length];
+            for (int i = 0; i < pks.length; i++) {
+                primaryKeys[i] = indexOf(columns, pks[i].getColumnName());
+            }
+        } else {
+            primaryKeys = null;
+        }
+
+        final DatabaseConfig config = connection.getConfig();
+        final String escapePattern = (String) config.getProperty(DatabaseConfig.PROPERTY_ESCAPE_PATTERN);
+        final Statements statements = new Statements(
+            connection.getConnection(), escapePattern,
+            new QualifiedTableName(metaData.getTableName(), connection.getSchema(), escapePattern).getQualifiedNameIfEnabled(config),
+            dbColumns, primaryKeys);
+
+        Batch batch = null;
+        int row = 0;
+        try {
+            while (true) {
+                final Object[] values = new Object[columns.length];
+                try {
+                    for (int i = 0; i < columns.length; i++) {
+                        values[i] = table.getValue(row, columns[i].getColumnName());
+                    }
+                } catch (final RowOutOfBoundsException end) {
+                    break;
+                }
+
+                final BitSet present = new BitSet(columns.length);
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != ITable.NO_VALUE) {
+                        present.set(i);
+                    }
+                }
+                if (batch == null || !batch.present.equals(present)) {
+                    if (batch != null) {
+                        batch.flush();
+                        batch.close();
+                    }
+                    batch = newBatch(mode, statements, present);
+                }
+                batch.add(values);
+                row++;
+            }
+            if (batch != null) {
+                batch.flush();
+            }
+        } finally {
+            if (batch != null) {
+                batch.close();
+            }
+        }
+        return row;
+    }
+
+    private Batch newBatch(final Mode mode, final Statements statements, final BitSet present) throws SQLException, NoPrimaryKeyException {
+        switch (mode) {
+            case UPDATE:
+                return new UpdateBatch(statements, present, null);
+            case REFRESH:
+                return new UpdateBatch(statements, present, new InsertBatch(statements, present));
+            default:
+                return new InsertBatch(statements, present);
+        }
+    }
+
+    private static int indexOf(final Column[] columns, final String name) throws NoPrimaryKeyException {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].getColumnName().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new NoPrimaryKeyException("Primary key " + name + " not in the dataset");
+    }
+
+    private enum Mode {
+        INSERT, CLEAN_INSERT, REFRESH, UPDATE
+    }
+
+    // what is common to all statements of a table
+    private static final class Statements {
+        private final Connection connection;
+        private final String escapePattern;
+        private final String table;
+        private final Column[] columns;
+        private final int[] primaryKeys;
+
+        private Statements(final Connection connection, final String escapePattern, final String table,
+                           final Column[] columns, final int[] primaryKeys) {
+            this.connection = connection;
+            this.escapePattern = escapePattern;
+            this.table = table;
+            this.columns = columns;
+            this.primaryKeys = primaryKeys;
+        }
+
+        private String column(final int i) {
+            return new QualifiedTableName(columns[i].getColumnName(), null, escapePattern).getQualifiedName();
+        }
+
+        private boolean isPrimaryKey(final int idx) {
+            for (final int pk : primaryKeys) {
+                if (pk == idx) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private abstract class Batch {
+        protected final Statements statements;
+        protected final BitSet present;
+        protected final PreparedStatement statement;
+        protected final List<Object[]> pending = new ArrayList<>();
+
+        protected Batch(final Statements statements, final BitSet present, final String sql) throws SQLException {
+            this.statements = statements;
+            this.present = present;
+            this.statement = statements.connection.prepareStatement(sql);
+        }
+
+        protected abstract int[] bind(Object[] values) throws SQLException, DatabaseUnitException;
+
+        protected void onExecuted(final int[] counts) throws SQLException, DatabaseUnitException {
+            // no-op
+        }
+
+        void add(final Object[] values) throws SQLException, DatabaseUnitException {
+            final int[] indices = bind(values);
+            for (int i = 0; i < indices.length; i++) {
+                statements.columns[indices[i]].getDataType().setSqlValue(values[indices[i]], i + 1, statement);
+            }
+            statement.addBatch();
+            pending.add(values);
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException, DatabaseUnitException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            final int[] counts = statement.executeBatch();
+            onExecuted(counts);
+            pending.clear();
+        }
+
+        void close() throws SQLException {
+            statement.close();
+        }
+    }
+
+    private final class InsertBatch extends Batch {
+        private final int[] indices;
+
+        private InsertBatch(final Statements statements, final BitSet present) throws SQLException {
+            super(statements, present, insert(statements, present));
+            this.indices = toIndices(present);
+        }
+
+        @Override
+        protected int[] bind(final Object[] values) {
+            return indices;
+        }
+    }
+
+    // for REFRESH rows not updated are inserted
+    private final class UpdateBatch extends Batch {
+        private final int[] indices;
+        private final InsertBatch inserts;
+
+        private UpdateBatch(final Statements statements, final BitSet present, final InsertBatch inserts) throws SQLException {
+            super(statements, present, update(statements, present));
+            this.inserts = inserts;
+
+            final Collection<Integer> idx = new ArrayList<>();
+            for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+                if (!statements.isPrimaryKey(i)) {
+                    idx.add(i);
+                }
+            }
+            if (idx.isEmpty()) { // "set pk = pk" to still be able to know if the row exists
+                idx.add(statements.primaryKeys[0]);
+            }
+            for (final int pk : statements.primaryKeys) {
+                idx.add(pk);
+            }
+            indices = new int[idx.size()];
+            int i = 0;
+            for (final Integer index : idx) {
+                indices[i++] = index;
+            }
+        }
+
+        @Override
+        protected int[] bind(final Object[] values) {
+            return indices;
+        }
+
+        @Override
+        protected void onExecuted(final int[] counts) throws SQLException, DatabaseUnitException {
+            if (inserts == null) {
+                return;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                int count = counts[i];
+                if (count == java.sql.Statement.SUCCESS_NO_INFO) { // replay it alone to know if the row exists
+                    final Object[] values = pending.get(i);
+                    try (final PreparedStatement single = statements.connection.prepareStatement(update(statements, present))) {
+                        for (int j = 0; j < indices.length; j++) {
+                            statements.columns[indices[j]].getDataType().setSqlValue(values[indices[j]], j + 1, single);
+                        }
+                        count = single.executeUpdate();
+                    }
+                }
+                if (count == 0) {
+                    inserts.add(pending.get(i));
+                }
+            }
+            inserts.flush();
+        }
+
+        @Override
+        void close() throws SQLException {
+            try {
+                super.close();
+            } finally {
+                if (inserts != null) {
+                    inserts.close();
+                }
+            }
+        }
+    }
+
+    private static String insert(final Statements statements, final BitSet present) {
+        final StringBuilder sql = new StringBuilder("insert into ").append(statements.table).append(" (");
+        final StringBuilder values = new StringBuilder(") values (");
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+            if (values.length() > ") values (".length()) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            sql.append(statements.column(i));
+            values.append('?');
+        }
+        return sql.append(values).append(')').toString();
+    }
+
+    private static String update(final Statements statements, final BitSet present) {
+        final StringBuilder sql = new StringBuilder("update ").append(statements.table).append(" set ");
+        boolean first = true;
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+            if (statements.isPrimaryKey(i)) {
+                continue;
+            }
+            if (!first) {
+                sql.append(", ");
+            }
+            sql.append(statements.column(i)).append(" = ?");
+            first = false;
+        }
+        if (first) {
+            sql.append(statements.column(statements.primaryKeys[0])).append(" = ?");
+        }
+        sql.append(" where ");
+        for (int i = 0; i < statements.primaryKeys.length; i++) {
+            if (i > 0) {
+                sql.append(" and ");
+            }
+            sql.append(statements.column(statements.primaryKeys[i])).append(" = ?");
+        }
+        return sql.toString();
+    }
+
+    private static int[] toIndices(final BitSet present) {
+        final int[] indices = new int[present.cardinality()];
+        int j = 0;
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+            indices[j++] = i;
+        }
+        return indices;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchedDataSeeder{batchSize=" + batchSize + '}';
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+// marks @ApplyScriptBefore scripts (locations) as idempotent schema bootstrap: they are executed once per DataSource
+// and only executed again if their content changed or the tables they create disappeared (database recreated)
+@Target({ TYPE, METHOD })
+@Retention(RUNTIME)
+public @interface BootstrapScript {
+    String[] value();
+}
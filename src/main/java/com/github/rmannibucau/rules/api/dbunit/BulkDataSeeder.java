@@ -0,0 +1,94 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.operation.DatabaseOperation;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// seeds INSERT and CLEAN_INSERT (after a DELETE_ALL) strategies with the BulkLoader of the database
+// (H2 CSVREAD, PostgreSQL COPY, MySQL LOAD DATA LOCAL or one registered with ServiceLoader),
+// other strategies, databases without loader and tables a loader rejects use the fallback (DbUnit operations by default)
+public class BulkDataSeeder implements DataSeeder {
+    private static final Logger LOGGER = Logger.getLogger(BulkDataSeeder.class.getName());
+
+    private final DataSeeder fallback;
+    private final List<BulkLoader> loaders;
+
+    public BulkDataSeeder() {
+        this(new DbUnitDataSeeder(false));
+    }
+
+    public BulkDataSeeder(final DataSeeder fallback) {
+        this(fallback, defaultLoaders());
+    }
+
+    public BulkDataSeeder(final DataSeeder fallback, final List<BulkLoader> loaders) {
+        this.fallback = fallback;
+        this.loaders = Collections.unmodifiableList(new ArrayList<BulkLoader>(loaders));
+    }
+
+    @Override
+    public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException, SQLException {
+        final BulkLoader loader = strategy == DataSeedStrategy.INSERT || strategy == DataSeedStrategy.CLEAN_INSERT ?
+            findLoader(DatabaseMetaDataCache.getInstance().getProduct(connection)) : null;
+        if (loader == null) {
+            fallback.seed(connection, dataSet, strategy);
+            return;
+        }
+
+        if (strategy == DataSeedStrategy.CLEAN_INSERT) {
+            DatabaseOperation.DELETE_ALL.execute(connection, dataSet);
+        }
+
+        final ITableIterator iterator = dataSet.iterator();
+        while (iterator.next()) {
+            final ITable table = iterator.getTable();
+            final long start = System.nanoTime();
+            final int rows = loader.load(connection, table);
+            if (rows < 0) {
+                fallback.seed(connection, new DefaultDataSet(table), DataSeedStrategy.INSERT);
+            } else if (LOGGER.isLoggable(Level.FINE) && rows > 0) {
+                LOGGER.fine("Bulk loaded " + rows + " rows in " + table.getTableMetaData().getTableName()
+                    + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            }
+        }
+    }
+
+    private BulkLoader findLoader(final String product) {
+        for (final BulkLoader loader : loaders) {
+            if (loader.supports(product)) {
+                return loader;
+            }
+        }
+        return null;
+    }
+
+    private static List<BulkLoader> defaultLoaders() {
+        final List<BulkLoader> loaders = new ArrayList<BulkLoader>();
+        for (final BulkLoader loader : ServiceLoader.load(BulkLoader.class, Thread.currentThread().getContextClassLoader())) {
+            loaders.add(loader);
+        }
+        loaders.add(new H2BulkLoader());
+        loaders.add(new PostgresBulkLoader());
+        loaders.add(new MySqlBulkLoader());
+        return loaders;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkDataSeeder{loaders=" + loaders + ", fallback=" + fallback + '}';
+    }
+}
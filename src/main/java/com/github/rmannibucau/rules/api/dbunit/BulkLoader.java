@@ -0,0 +1,17 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.ITable;
+
+import java.sql.SQLException;
+
+// a database native bulk insert path used by BulkDataSeeder, custom ones are registered with
+// META-INF/services/com.github.rmannibucau.rules.api.dbunit.BulkLoader and win over the built-in ones
+public interface BulkLoader {
+    // product is the lower case DatabaseMetaData product name
+    boolean supports(String product);
+
+    // inserts all the rows of the table and returns their count or -1 to let BulkDataSeeder fallback handle the table
+    int load(IDatabaseConnection connection, ITable table) throws DatabaseUnitException, SQLException;
+}
@@ -0,0 +1,263 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.AbstractDataSet;
+import org.dbunit.dataset.AbstractTable;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTableIterator;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.datatype.DataType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+// dataset compiled by DataSetCompiler (<location>.bin next to the yml/xml/json one), DataSetCache uses it instead of
+// parsing the source when it is up to date (same size and checksum).
+//
+// Format: header (magic, version, source size and crc32, tables with their row count and columns with a type and
+// the offset of their block) then a block per column: null bitmap then fixed width values or value offsets + payload.
+// Values are decoded on access from the (memory mapped when possible) buffer.
+final class CompiledDataSet extends AbstractDataSet {
+    static final String EXTENSION = ".bin";
+    static final int MAGIC = 0x52544453; // RTDS
+    static final short VERSION = 1;
+
+    static final byte NULL = 0;
+    static final byte INTEGER = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte BOOLEAN = 4;
+    static final byte DATE = 5;
+    static final byte STRING = 6;
+    static final byte BIG_DECIMAL = 7;
+    static final byte BIG_INTEGER = 8;
+    static final byte BYTES = 9;
+    static final byte MIXED = 10; // each value is prefixed by its type
+
+    private static final Logger LOGGER = Logger.getLogger(CompiledDataSet.class.getName());
+
+    private final ITable[] tables;
+
+    CompiledDataSet(final ByteBuffer buffer) throws DataSetException {
+        if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            throw new DataSetException("Not a compiled dataset");
+        }
+        buffer.getLong(); // source size
+        buffer.getLong(); // source checksum
+
+        final int tableCount = buffer.getInt();
+        final CompiledTable[] compiled = new CompiledTable[tableCount];
+        for (int t = 0; t < tableCount; t++) {
+            final String name = readString(buffer);
+            final int rows = buffer.getInt();
+            final int columnCount = buffer.getInt();
+            final Column[] columns = new Column[columnCount];
+            final byte[] types = new byte[columnCount];
+            final int[] offsets = new int[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                columns[c] = new Column(readString(buffer), DataType.UNKNOWN); // as yaml/xml datasets, typed by the database
+                types[c] = buffer.get();
+                offsets[c] = buffer.getInt();
+            }
+            compiled[t] = new CompiledTable(new DefaultTableMetaData(name, columns), rows, types, offsets);
+        }
+
+        final int data = buffer.position();
+        for (final CompiledTable table : compiled) {
+            table.init(buffer, data);
+        }
+        this.tables = compiled;
+    }
+
+    // null if there is no compiled version or if it is outdated
+    static CompiledDataSet find(final String location) {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        final URL compiled = loader.getResource(location + EXTENSION);
+        if (compiled == null) {
+            return null;
+        }
+        try {
+            final ByteBuffer buffer = map(compiled);
+            final byte[] source = read(loader.getResource(location));
+            if (source == null || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+                || buffer.getLong(6) != source.length || buffer.getLong(14) != checksum(source)) {
+                LOGGER.info(location + EXTENSION + " is outdated, using " + location);
+                return null;
+            }
+            return new CompiledDataSet(buffer);
+        } catch (final IOException | DataSetException | RuntimeException e) {
+            LOGGER.warning("Can't read " + compiled + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static long checksum(final byte[] source) {
+        final CRC32 crc = new CRC32();
+        crc.update(source);
+        return crc.getValue();
+    }
+
+    @Override
+    protected ITableIterator createIterator(final boolean reversed) throws DataSetException {
+        return new DefaultTableIterator(tables, reversed);
+    }
+
+    private static ByteBuffer map(final URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try (final FileChannel channel = FileChannel.open(new File(url.toURI()).toPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid once the channel is closed
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                // fallback on the stream
+            }
+        }
+        return ByteBuffer.wrap(read(url));
+    }
+
+    static byte[] read(final URL url) throws IOException {
+        if (url == null) {
+            return null;
+        }
+        try (final InputStream stream = url.openStream()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int width(final byte type) {
+        switch (type) {
+            case INTEGER:
+                return 4;
+            case LONG:
+            case DOUBLE:
+            case DATE:
+                return 8;
+            case BOOLEAN:
+                return 1;
+            default:
+                return -1;
+        }
+    }
+
+    private static final class CompiledTable extends AbstractTable {
+        private final ITableMetaData metaData;
+        private final int rows;
+        private final byte[] types;
+        private final int[] offsets;
+        private ByteBuffer buffer;
+        private int data;
+
+        private CompiledTable(final ITableMetaData metaData, final int rows, final byte[] types, final int[] offsets) {
+            this.metaData = metaData;
+            this.rows = rows;
+            this.types = types;
+            this.offsets = offsets;
+        }
+
+        private void init(final ByteBuffer buffer, final int data) {
+            this.buffer = buffer;
+            this.data = data;
+        }
+
+        @Override
+        public ITableMetaData getTableMetaData() {
+            return metaData;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows;
+        }
+
+        @Override
+        public Object getValue(final int row, final String column) throws DataSetException {
+            assertValidRowIndex(row);
+            final int index = getColumnIndex(column);
+            final byte type = types[index];
+            if (type == NULL) {
+                return null;
+            }
+
+            final int block = data + offsets[index];
+            if ((buffer.get(block + (row >> 3)) & (1 << (row & 7))) != 0) {
+                return null;
+            }
+
+            final int values = block + (rows + 7) / 8;
+            final int width = width(type);
+            if (width > 0) {
+                return decodeFixed(type, values + row * width);
+            }
+            final int payload = values + (rows + 1) * 4;
+            final int start = payload + buffer.getInt(values + row * 4);
+            final int end = payload + buffer.getInt(values + (row + 1) * 4);
+            if (type == MIXED) {
+                final byte valueType = buffer.get(start);
+                return width(valueType) > 0 ? decodeFixed(valueType, start + 1) : decodeVariable(valueType, start + 1, end);
+            }
+            return decodeVariable(type, start, end);
+        }
+
+        private Object decodeFixed(final byte type, final int position) {
+            switch (type) {
+                case INTEGER:
+                    return buffer.getInt(position);
+                case LONG:
+                    return buffer.getLong(position);
+                case DOUBLE:
+                    return buffer.getDouble(position);
+                case DATE:
+                    return new Date(buffer.getLong(position));
+                case BOOLEAN:
+                    return buffer.get(position) != 0;
+                default:
+                    throw new IllegalStateException("Unknown type " + type);
+            }
+        }
+
+        private Object decodeVariable(final byte type, final int start, final int end) {
+            final byte[] bytes = new byte[end - start];
+            final ByteBuffer view = buffer.duplicate(); // absolute bulk gets are java 9+
+            view.position(start);
+            view.get(bytes);
+            switch (type) {
+                case STRING:
+                    return new String(bytes, StandardCharsets.UTF_8);
+                case BIG_DECIMAL:
+                    return new BigDecimal(new String(bytes, StandardCharsets.US_ASCII));
+                case BIG_INTEGER:
+                    return new BigInteger(new String(bytes, StandardCharsets.US_ASCII));
+                case BYTES:
+                    return bytes;
+                default:
+                    throw new IllegalStateException("Unknown type " + type);
+            }
+        }
+    }
+}
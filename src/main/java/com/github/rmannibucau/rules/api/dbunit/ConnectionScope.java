@@ -0,0 +1,13 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+// how long the rule keeps its DbUnit connection
+public enum ConnectionScope {
+    // a connection per test (default)
+    TEST,
+
+    // reused by the tests of the same class, closed when another class uses the rule or the JVM exits
+    CLASS,
+
+    // reused until the JVM exits
+    SUITE
+}
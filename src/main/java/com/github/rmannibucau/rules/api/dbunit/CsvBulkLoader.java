@@ -0,0 +1,130 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.RowOutOfBoundsException;
+import org.dbunit.util.QualifiedTableName;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+// base for loaders reading a CSV file: rows are written (values converted with the database column types)
+// in a temporary UTF-8 file, every value is quoted and a null is the unquoted nullValue().
+// ITable.NO_VALUE is written as null since a bulk load can't skip a column for some rows.
+public abstract class CsvBulkLoader implements BulkLoader {
+    @Override
+    public int load(final IDatabaseConnection connection, final ITable table) throws DatabaseUnitException, SQLException {
+        final Column[] columns = table.getTableMetaData().getColumns();
+        if (columns.length == 0) {
+            return 0;
+        }
+
+        final ITableMetaData metaData = connection.createDataSet().getTableMetaData(table.getTableMetaData().getTableName());
+        final Column[] dbColumns = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            dbColumns[i] = metaData.getColumns()[metaData.getColumnIndex(columns[i].getColumnName())];
+            if (!supports(dbColumns[i])) {
+                return -1;
+            }
+        }
+
+        final DatabaseConfig config = connection.getConfig();
+        final String escapePattern = (String) config.getProperty(DatabaseConfig.PROPERTY_ESCAPE_PATTERN);
+        final String tableName = new QualifiedTableName(metaData.getTableName(), connection.getSchema(), escapePattern).getQualifiedNameIfEnabled(config);
+        final String[] columnNames = new String[dbColumns.length];
+        for (int i = 0; i < dbColumns.length; i++) {
+            columnNames[i] = new QualifiedTableName(dbColumns[i].getColumnName(), null, escapePattern).getQualifiedName();
+        }
+
+        File csv = null;
+        try {
+            csv = File.createTempFile("rule-them-all-bulk-", ".csv");
+            final int rows;
+            try (final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv), StandardCharsets.UTF_8))) {
+                rows = write(table, columns, dbColumns, writer);
+            }
+            if (rows > 0) {
+                load(connection, tableName, columnNames, csv);
+            }
+            return rows;
+        } catch (final IOException e) {
+            throw new DatabaseUnitException(e);
+        } finally {
+            if (csv != null && !csv.delete()) {
+                csv.deleteOnExit();
+            }
+        }
+    }
+
+    // executes the native load of the file in the table (qualified name) for the columns (escaped names, file order)
+    protected abstract void load(IDatabaseConnection connection, String table, String[] columns, File csv) throws SQLException, IOException;
+
+    protected static String join(final String[] columns) {
+        final StringBuilder joined = new StringBuilder();
+        for (final String column : columns) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+
+    protected boolean supports(final Column column) {
+        return true;
+    }
+
+    protected String nullValue() {
+        return "\\N";
+    }
+
+    // the CSV value (before quoting) of a value already converted to the column type
+    protected String format(final Object value) {
+        if (byte[].class.isInstance(value)) {
+            final byte[] bytes = byte[].class.cast(value);
+            final StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (final byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        return String.valueOf(value); // java.sql date/time types toString() is the JDBC escape format
+    }
+
+    private int write(final ITable table, final Column[] columns, final Column[] dbColumns, final Writer writer) throws DatabaseUnitException, IOException {
+        int row = 0;
+        while (true) {
+            for (int i = 0; i < columns.length; i++) {
+                final Object value;
+                try {
+                    value = table.getValue(row, columns[i].getColumnName());
+                } catch (final RowOutOfBoundsException end) {
+                    return row;
+                }
+                if (i > 0) {
+                    writer.write(',');
+                }
+                final Object converted = value == null || value == ITable.NO_VALUE ? null : dbColumns[i].getDataType().typeCast(value);
+                if (converted == null) {
+                    writer.write(nullValue());
+                } else {
+                    writer.write('"');
+                    writer.write(format(converted).replace("\"", "\"\""));
+                    writer.write('"');
+                }
+            }
+            writer.write('\n');
+            row++;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+
+import java.sql.SQLException;
+
+// how @UsingDataSet data are written in the database, see DbUnitDataSeeder (default), BatchedDataSeeder and BulkDataSeeder
+public interface DataSeeder {
+    void seed(DatabaseConnection connection, IDataSet dataSet, DataSeedStrategy strategy) throws DatabaseUnitException, SQLException;
+}
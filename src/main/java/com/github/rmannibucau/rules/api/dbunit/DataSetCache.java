@@ -0,0 +1,193 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.IDataSet;
+import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// JVM wide cache of parsed datasets, entries are keyed by location + format (descriptor equality)
+// and invalidated when the underlying resource last modified date changes.
+// Concurrent requests of a dataset being parsed (prefetch, see ResourcePrefetcher) wait for it instead of parsing it again.
+// A dataset compiled by DataSetCompiler is read instead of parsing the source when it is up to date.
+//
+// size can be configured with -Drule-them-all.dbunit.dataset-cache.size=xxx (0 to disable the cache)
+public final class DataSetCache {
+    public static final String MAX_SIZE_PROPERTY = "rule-them-all.dbunit.dataset-cache.size";
+
+    private static final DataSetCache INSTANCE = new DataSetCache(Integer.getInteger(MAX_SIZE_PROPERTY, 128));
+
+    private final int maxSize;
+    private final Map<DataSetResourceDescriptor, Entry> entries;
+    private final ConcurrentMap<DataSetResourceDescriptor, FutureTask<IDataSet>> loading = new ConcurrentHashMap<DataSetResourceDescriptor, FutureTask<IDataSet>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loadDuration = new AtomicLong();
+
+    DataSetCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<DataSetResourceDescriptor, Entry>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<DataSetResourceDescriptor, Entry> eldest) {
+                final boolean evict = size() > DataSetCache.this.maxSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+    }
+
+    public static DataSetCache getInstance() {
+        return INSTANCE;
+    }
+
+    public IDataSet get(final DataSetResourceDescriptor descriptor) {
+        if (maxSize <= 0) {
+            return load(descriptor);
+        }
+
+        final long lastModified = lastModified(descriptor.getLocation());
+        synchronized (entries) {
+            final Entry entry = entries.get(descriptor);
+            if (entry != null && entry.lastModified == lastModified) {
+                hits.incrementAndGet();
+                return entry.dataSet;
+            }
+        }
+
+        final FutureTask<IDataSet> task = new FutureTask<IDataSet>(new Callable<IDataSet>() {
+            @Override
+            public IDataSet call() {
+                return load(descriptor);
+            }
+        });
+        final FutureTask<IDataSet> existing = loading.putIfAbsent(descriptor, task);
+        if (existing != null) { // a prefetch (or another thread) is parsing it, wait for it instead of parsing it again
+            hits.incrementAndGet();
+            return await(existing);
+        }
+
+        misses.incrementAndGet();
+        try {
+            task.run();
+            final IDataSet dataSet = await(task);
+            synchronized (entries) {
+                entries.put(descriptor, new Entry(dataSet, lastModified));
+            }
+            return dataSet;
+        } finally {
+            loading.remove(descriptor, task);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    // time spent parsing datasets, average * hits gives an idea of the time saved
+    public long getLoadDuration(final TimeUnit unit) {
+        return unit.convert(loadDuration.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DataSetCache{" +
+            "size=" + size() +
+            ", maxSize=" + maxSize +
+            ", hits=" + hits.get() +
+            ", misses=" + misses.get() +
+            ", evictions=" + evictions.get() +
+            ", loadDuration=" + getLoadDuration(TimeUnit.MILLISECONDS) + "ms" +
+            '}';
+    }
+
+    private static IDataSet await(final FutureTask<IDataSet> task) {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (RuntimeException.class.isInstance(cause)) {
+                throw RuntimeException.class.cast(cause);
+            }
+            if (Error.class.isInstance(cause)) {
+                throw Error.class.cast(cause);
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private IDataSet load(final DataSetResourceDescriptor descriptor) {
+        final long start = System.nanoTime();
+        try {
+            final IDataSet compiled = CompiledDataSet.find(descriptor.getLocation());
+            return compiled != null ? compiled : descriptor.getContent();
+        } finally {
+            loadDuration.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private static long lastModified(final String location) {
+        final URL url = Thread.currentThread().getContextClassLoader().getResource(location);
+        if (url == null) {
+            return -1;
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI()).lastModified();
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                // fallback on the connection
+            }
+        }
+        try {
+            return url.openConnection().getLastModified();
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    private static final class Entry {
+        private final IDataSet dataSet;
+        private final long lastModified;
+
+        private Entry(final IDataSet dataSet, final long lastModified) {
+            this.dataSet = dataSet;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.jboss.arquillian.persistence.core.data.descriptor.Format;
+import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.BIG_DECIMAL;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.BIG_INTEGER;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.BOOLEAN;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.BYTES;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.DATE;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.DOUBLE;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.INTEGER;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.LONG;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.MIXED;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.NULL;
+import static com.github.rmannibucau.rules.api.dbunit.CompiledDataSet.STRING;
+
+// compiles the yml/yaml/xml/json datasets of a classpath root (target/test-classes) to the binary format of
+// CompiledDataSet, the compiled file is written next to the source one which is still the dataset @UsingDataSet references.
+// Bind it to the build after the test resources are copied, ex with exec-maven-plugin (java goal):
+//   <phase>process-test-classes</phase>, <mainClass>com.github.rmannibucau.rules.api.dbunit.DataSetCompiler</mainClass>,
+//   <arguments><argument>${project.build.testOutputDirectory}</argument></arguments>, <classpathScope>test</classpathScope>
+public final class DataSetCompiler {
+    private static final Logger LOGGER = Logger.getLogger(DataSetCompiler.class.getName());
+    private static final String[] EXTENSIONS = { ".yml", ".yaml", ".xml", ".json" };
+
+    private DataSetCompiler() {
+        // no-op
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: DataSetCompiler <classpath root>...");
+        }
+        for (final String root : args) {
+            LOGGER.info("Compiled " + compile(new File(root)) + " datasets in " + root);
+        }
+    }
+
+    // returns the number of compiled datasets, datasets with unsupported values are skipped (parsed at runtime)
+    public static int compile(final File root) throws IOException {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader old = thread.getContextClassLoader();
+        try (final URLClassLoader loader = new URLClassLoader(new URL[]{ root.toURI().toURL() }, old)) {
+            thread.setContextClassLoader(loader); // arquillian loads datasets from the context classloader
+            return compile(root, "");
+        } finally {
+            thread.setContextClassLoader(old);
+        }
+    }
+
+    private static int compile(final File directory, final String prefix) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int compiled = 0;
+        for (final File file : files) {
+            final String location = prefix + file.getName();
+            if (file.isDirectory()) {
+                compiled += compile(file, location + '/');
+            } else if (isDataSet(location)) {
+                final IDataSet dataSet;
+                try {
+                    dataSet = new DataSetResourceDescriptor(location, Format.inferFromFile(location)).getContent();
+                } catch (final RuntimeException e) { // not a dataset (spring xml...)
+                    LOGGER.fine("Skipping " + location + ": " + e.getMessage());
+                    continue;
+                }
+                final byte[] binary;
+                try {
+                    binary = compile(dataSet, Files.readAllBytes(file.toPath()));
+                } catch (final DataSetException | IllegalArgumentException e) {
+                    LOGGER.warning("Can't compile " + location + ": " + e.getMessage());
+                    continue;
+                }
+                try (final OutputStream out = new FileOutputStream(new File(file.getParentFile(), file.getName() + CompiledDataSet.EXTENSION))) {
+                    out.write(binary);
+                }
+                compiled++;
+            }
+        }
+        return compiled;
+    }
+
+    private static boolean isDataSet(final String location) {
+        for (final String extension : EXTENSIONS) {
+            if (location.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static byte[] compile(final IDataSet dataSet, final byte[] source) throws DataSetException {
+        try {
+            final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            final DataOutputStream header = new DataOutputStream(headerBytes);
+            final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+            final DataOutputStream blocks = new DataOutputStream(blockBytes);
+
+            header.writeInt(CompiledDataSet.MAGIC);
+            header.writeShort(CompiledDataSet.VERSION);
+            header.writeLong(source.length);
+            header.writeLong(CompiledDataSet.checksum(source));
+
+            final ITable[] tables = tables(dataSet);
+            header.writeInt(tables.length);
+            for (final ITable table : tables) {
+                final Column[] columns = table.getTableMetaData().getColumns();
+                final int rows = table.getRowCount();
+                writeString(header, table.getTableMetaData().getTableName());
+                header.writeInt(rows);
+                header.writeInt(columns.length);
+                for (final Column column : columns) {
+                    final Object[] values = new Object[rows];
+                    for (int r = 0; r < rows; r++) {
+                        values[r] = table.getValue(r, column.getColumnName());
+                    }
+                    final byte type = typeOf(values);
+                    writeString(header, column.getColumnName());
+                    header.writeByte(type);
+                    header.writeInt(blocks.size());
+                    writeBlock(blocks, type, values);
+                }
+            }
+
+            header.flush();
+            blocks.flush();
+            blockBytes.writeTo(headerBytes);
+            return headerBytes.toByteArray();
+        } catch (final IOException e) { // in memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ITable[] tables(final IDataSet dataSet) throws DataSetException {
+        final ITableIterator iterator = dataSet.iterator();
+        final List<ITable> tables = new ArrayList<ITable>();
+        while (iterator.next()) {
+            tables.add(iterator.getTable());
+        }
+        return tables.toArray(new ITable[tables.size()]);
+    }
+
+    private static void writeBlock(final DataOutputStream out, final byte type, final Object[] values) throws IOException {
+        if (type == NULL) {
+            return;
+        }
+
+        final byte[] nulls = new byte[(values.length + 7) / 8];
+        for (int r = 0; r < values.length; r++) {
+            if (values[r] == null) {
+                nulls[r >> 3] |= 1 << (r & 7);
+            }
+        }
+        out.write(nulls);
+
+        final int width = CompiledDataSet.width(type);
+        if (width > 0) {
+            for (final Object value : values) {
+                if (value == null) {
+                    out.write(new byte[width]);
+                } else {
+                    writeFixed(out, type, value);
+                }
+            }
+            return;
+        }
+
+        final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(payloadBytes);
+        out.writeInt(0);
+        for (final Object value : values) {
+            if (value != null) {
+                if (type == MIXED) {
+                    final byte valueType = typeOf(value);
+                    payload.writeByte(valueType);
+                    if (CompiledDataSet.width(valueType) > 0) {
+                        writeFixed(payload, valueType, value);
+                    } else {
+                        payload.write(variable(valueType, value));
+                    }
+                } else {
+                    payload.write(variable(type, value));
+                }
+            }
+            out.writeInt(payload.size());
+        }
+        payload.flush();
+        payloadBytes.writeTo(out);
+    }
+
+    private static void writeFixed(final DataOutputStream out, final byte type, final Object value) throws IOException {
+        switch (type) {
+            case INTEGER:
+                out.writeInt(Integer.class.cast(value));
+                break;
+            case LONG:
+                out.writeLong(Long.class.cast(value));
+                break;
+            case DOUBLE:
+                out.writeDouble(Double.class.cast(value));
+                break;
+            case DATE:
+                out.writeLong(Date.class.cast(value).getTime());
+                break;
+            case BOOLEAN:
+                out.writeByte(Boolean.class.cast(value) ? 1 : 0);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private static byte[] variable(final byte type, final Object value) {
+        switch (type) {
+            case STRING:
+                return String.class.cast(value).getBytes(StandardCharsets.UTF_8);
+            case BIG_DECIMAL:
+            case BIG_INTEGER:
+                return value.toString().getBytes(StandardCharsets.US_ASCII);
+            case BYTES:
+                return byte[].class.cast(value);
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private static byte typeOf(final Object[] values) {
+        byte type = NULL;
+        for (final Object value : values) {
+            if (value == null) {
+                continue;
+            }
+            final byte valueType = typeOf(value);
+            if (type == NULL) {
+                type = valueType;
+            } else if (type != valueType) {
+                return MIXED;
+            }
+        }
+        return type;
+    }
+
+    // exact types to get back the values the parser created
+    private static byte typeOf(final Object value) {
+        final Class<?> type = value.getClass();
+        if (type == String.class) {
+            return STRING;
+        }
+        if (type == Integer.class) {
+            return INTEGER;
+        }
+        if (type == Long.class) {
+            return LONG;
+        }
+        if (type == Double.class) {
+            return DOUBLE;
+        }
+        if (type == Boolean.class) {
+            return BOOLEAN;
+        }
+        if (type == Date.class) {
+            return DATE;
+        }
+        if (type == BigDecimal.class) {
+            return BIG_DECIMAL;
+        }
+        if (type == BigInteger.class) {
+            return BIG_INTEGER;
+        }
+        if (type == byte[].class) {
+            return BYTES;
+        }
+        throw new IllegalArgumentException("Unsupported value type " + type.getName());
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
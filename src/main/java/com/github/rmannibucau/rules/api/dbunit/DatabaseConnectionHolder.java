@@ -0,0 +1,209 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// keeps DbUnit connections (schema and config already applied) alive across tests for CLASS and SUITE scopes,
+// a connection is validated (isValid) before being reused and its session state is reset between tests
+final class DatabaseConnectionHolder {
+    private static final int VALIDATION_TIMEOUT = Integer.getInteger("rule-them-all.dbunit.connection.validation-timeout", 2);
+    private static final Map<DataSource, Held> HELD = new IdentityHashMap<DataSource, Held>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                closeAll();
+            }
+        });
+    }
+
+    private DatabaseConnectionHolder() {
+        // no-op
+    }
+
+    static Lease acquire(final DataSource dataSource, final String schema,
+                         final Class<?> testClass, final ConnectionScope scope) throws SQLException, DatabaseUnitException {
+        if (scope == null || scope == ConnectionScope.TEST) {
+            return new Lease(newConnection(dataSource, schema), null);
+        }
+
+        final Collection<Held> toClose = new ArrayList<Held>();
+        Held reused = null;
+        synchronized (HELD) {
+            final Iterator<Held> it = HELD.values().iterator();
+            while (it.hasNext()) { // class scoped connections of other classes are no more needed
+                final Held held = it.next();
+                if (!held.inUse && held.scope == ConnectionScope.CLASS && held.owner != testClass) {
+                    toClose.add(held);
+                    it.remove();
+                }
+            }
+
+            final Held held = HELD.get(dataSource);
+            if (held != null && !held.inUse) {
+                if (held.scope == scope && held.owner == (scope == ConnectionScope.CLASS ? testClass : null) && same(schema, held.schema)) {
+                    held.inUse = true;
+                    reused = held;
+                } else {
+                    toClose.add(held);
+                    HELD.remove(dataSource);
+                }
+            }
+        }
+        for (final Held held : toClose) {
+            held.close();
+        }
+
+        if (reused != null) {
+            if (isValid(reused.connection.getConnection())) {
+                return new Lease(reused.connection, reused);
+            }
+            synchronized (HELD) {
+                HELD.remove(dataSource);
+            }
+            reused.close();
+        }
+
+        final DatabaseConnection connection = newConnection(dataSource, schema);
+        synchronized (HELD) {
+            if (HELD.containsKey(dataSource)) { // concurrent usage of the same datasource, don't share this one
+                return new Lease(connection, null);
+            }
+            final Held held = new Held(connection, schema, scope, scope == ConnectionScope.CLASS ? testClass : null);
+            held.inUse = true;
+            HELD.put(dataSource, held);
+            return new Lease(connection, held);
+        }
+    }
+
+    static void closeAll() {
+        final Collection<Held> toClose;
+        synchronized (HELD) {
+            toClose = new ArrayList<Held>(HELD.values());
+            HELD.clear();
+        }
+        for (final Held held : toClose) {
+            held.close();
+        }
+    }
+
+    private static DatabaseConnection newConnection(final DataSource dataSource, final String schema) throws SQLException, DatabaseUnitException {
+        return DatabaseMetaDataCache.getInstance().newConnection(dataSource, dataSource.getConnection(), schema);
+    }
+
+    private static boolean isValid(final Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT);
+        } catch (final SQLException | AbstractMethodError e) {
+            return false;
+        }
+    }
+
+    private static boolean same(final String s1, final String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    static final class Lease {
+        private final DatabaseConnection connection;
+        private final Held held;
+
+        private Lease(final DatabaseConnection connection, final Held held) {
+            this.connection = connection;
+            this.held = held;
+        }
+
+        DatabaseConnection getConnection() {
+            return connection;
+        }
+
+        void release() {
+            if (held == null) {
+                try {
+                    connection.close();
+                } catch (final SQLException e) {
+                    // no-op
+                }
+                return;
+            }
+
+            try {
+                held.reset();
+            } catch (final SQLException e) { // don't reuse it
+                synchronized (HELD) {
+                    HELD.values().remove(held);
+                }
+                held.close();
+                return;
+            }
+            synchronized (HELD) {
+                held.inUse = false;
+            }
+        }
+    }
+
+    private static final class Held {
+        private final DatabaseConnection connection;
+        private final String schema;
+        private final ConnectionScope scope;
+        private final Class<?> owner;
+
+        // initial session state
+        private final boolean autoCommit;
+        private final boolean readOnly;
+        private final int isolation;
+        private final String catalog;
+
+        private boolean inUse;
+
+        private Held(final DatabaseConnection connection, final String schema, final ConnectionScope scope, final Class<?> owner) throws SQLException {
+            this.connection = connection;
+            this.schema = schema;
+            this.scope = scope;
+            this.owner = owner;
+
+            final Connection c = connection.getConnection();
+            this.autoCommit = c.getAutoCommit();
+            this.readOnly = c.isReadOnly();
+            this.isolation = c.getTransactionIsolation();
+            this.catalog = c.getCatalog();
+        }
+
+        private void reset() throws SQLException {
+            final Connection c = connection.getConnection();
+            if (!c.getAutoCommit()) {
+                c.rollback();
+            }
+            if (c.getAutoCommit() != autoCommit) {
+                c.setAutoCommit(autoCommit);
+            }
+            if (c.isReadOnly() != readOnly) {
+                c.setReadOnly(readOnly);
+            }
+            if (c.getTransactionIsolation() != isolation) {
+                c.setTransactionIsolation(isolation);
+            }
+            if (catalog != null && !catalog.equals(c.getCatalog())) {
+                c.setCatalog(catalog);
+            }
+            c.clearWarnings();
+        }
+
+        private void close() {
+            try {
+                connection.close();
+            } catch (final SQLException e) {
+                // no-op
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.DatabaseDataSet;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.database.IResultSetTableFactory;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.datatype.DefaultDataTypeFactory;
+import org.dbunit.dataset.datatype.IDataTypeFactory;
+import org.dbunit.ext.db2.Db2DataTypeFactory;
+import org.dbunit.ext.h2.H2DataTypeFactory;
+import org.dbunit.ext.hsqldb.HsqldbDataTypeFactory;
+import org.dbunit.ext.mysql.MySqlDataTypeFactory;
+import org.dbunit.ext.oracle.OracleDataTypeFactory;
+import org.dbunit.ext.postgresql.PostgresqlDataTypeFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+// caches per DataSource the product detection, the data type factory and the table metadata
+// DbUnit would otherwise query for each test (each DatabaseConnection).
+// Table metadata are invalidated when a DDL script is executed by the rule, call invalidate() if you change
+// the schema another way.
+public final class DatabaseMetaDataCache {
+    private static final DatabaseMetaDataCache INSTANCE = new DatabaseMetaDataCache();
+    private static final Pattern DDL = Pattern.compile("(^|;|\\s)(create|alter|drop|rename)\\s", Pattern.CASE_INSENSITIVE);
+
+    private final Map<DataSource, Entry> entries = new WeakHashMap<DataSource, Entry>();
+
+    private DatabaseMetaDataCache() {
+        // no-op
+    }
+
+    public static DatabaseMetaDataCache getInstance() {
+        return INSTANCE;
+    }
+
+    public DatabaseConnection newConnection(final DataSource dataSource, final Connection connection, final String schema) throws DatabaseUnitException {
+        final Entry entry = entry(dataSource);
+        final DatabaseConnection databaseConnection = new CachingDatabaseConnection(connection, schema, entry);
+        final IDataTypeFactory dataTypeFactory = entry.dataTypeFactory(connection);
+        if (dataTypeFactory != null) {
+            databaseConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, dataTypeFactory);
+        }
+        return databaseConnection;
+    }
+
+    public String getProduct(final DataSource dataSource) {
+        return entry(dataSource).product;
+    }
+
+    // lower case product name, cached when the connection comes from newConnection()
+    public String getProduct(final IDatabaseConnection connection) throws SQLException {
+        if (CachingDatabaseConnection.class.isInstance(connection)) {
+            final String product = CachingDatabaseConnection.class.cast(connection).entry.product;
+            if (product != null) {
+                return product;
+            }
+        }
+        return connection.getConnection().getMetaData().getDatabaseProductName().toLowerCase(Locale.ENGLISH);
+    }
+
+    // upper case names of the tables the table has a foreign key to
+    public Set<String> getReferencedTables(final DataSource dataSource, final IDatabaseConnection connection, final String table) throws SQLException {
+        final Tables tables = entry(dataSource).tables(connection.getSchema());
+        final String key = table.toUpperCase(Locale.ENGLISH);
+        Set<String> referenced = tables.referencedTables.get(key);
+        if (referenced == null) {
+            referenced = new HashSet<String>();
+            final Connection jdbc = connection.getConnection();
+            try (final ResultSet rs = jdbc.getMetaData().getImportedKeys(jdbc.getCatalog(), connection.getSchema(), table)) {
+                while (rs.next()) {
+                    referenced.add(rs.getString("PKTABLE_NAME").toUpperCase(Locale.ENGLISH));
+                }
+            }
+            referenced = Collections.unmodifiableSet(referenced);
+            tables.referencedTables.putIfAbsent(key, referenced);
+        }
+        return referenced;
+    }
+
+    public void invalidate(final DataSource dataSource) {
+        synchronized (entries) {
+            final Entry entry = entries.get(dataSource);
+            if (entry != null) {
+                entry.schemas.clear();
+            }
+        }
+    }
+
+    public void onScript(final DataSource dataSource, final String script) {
+        if (script != null && DDL.matcher(script).find()) {
+            invalidate(dataSource);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private Entry entry(final DataSource dataSource) {
+        synchronized (entries) {
+            Entry entry = entries.get(dataSource);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(dataSource, entry);
+            }
+            return entry;
+        }
+    }
+
+    private static IDataTypeFactory dataTypeFactory(final String product) {
+        if (product.contains("h2")) {
+            return new H2DataTypeFactory();
+        } else if (product.contains("mysql")) {
+            return new MySqlDataTypeFactory();
+        } else if (product.contains("oracle")) {
+            return new OracleDataTypeFactory();
+        } else if (product.contains("hsql")) {
+            return new HsqldbDataTypeFactory();
+        } else if (product.contains("postgre")) {
+            return new PostgresqlDataTypeFactory();
+        } else if (product.contains("db2")) {
+            return new Db2DataTypeFactory();
+        }
+        return new DefaultDataTypeFactory();
+    }
+
+    private static final class Entry {
+        private volatile String product;
+        private volatile IDataTypeFactory dataTypeFactory;
+        private final ConcurrentMap<String, Tables> schemas = new ConcurrentHashMap<String, Tables>();
+
+        private IDataTypeFactory dataTypeFactory(final Connection connection) {
+            if (dataTypeFactory == null) {
+                try {
+                    product = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ENGLISH);
+                    dataTypeFactory = DatabaseMetaDataCache.dataTypeFactory(product);
+                } catch (final SQLException e) {
+                    return null; // retry next time
+                }
+            }
+            return dataTypeFactory;
+        }
+
+        private Tables tables(final String schema) {
+            final String key = schema == null ? "" : schema;
+            Tables tables = schemas.get(key);
+            if (tables == null) {
+                tables = new Tables();
+                final Tables existing = schemas.putIfAbsent(key, tables);
+                if (existing != null) {
+                    tables = existing;
+                }
+            }
+            return tables;
+        }
+    }
+
+    private static final class Tables {
+        private volatile String[] names;
+        private final ConcurrentMap<String, ITableMetaData> metaData = new ConcurrentHashMap<String, ITableMetaData>();
+        private final ConcurrentMap<String, Set<String>> referencedTables = new ConcurrentHashMap<String, Set<String>>();
+    }
+
+    private static final class CachingDatabaseConnection extends DatabaseConnection {
+        private final Entry entry;
+        private final String schema;
+        private CachingDatabaseDataSet dataSet;
+
+        private CachingDatabaseConnection(final Connection connection, final String schema, final Entry entry) throws DatabaseUnitException {
+            super(connection, schema);
+            this.entry = entry;
+            this.schema = schema;
+        }
+
+        @Override
+        public IDataSet createDataSet() throws SQLException {
+            final Tables tables = entry.tables(schema);
+            if (dataSet == null || dataSet.tables != tables) { // invalidated, the connection can be reused across tests
+                dataSet = new CachingDatabaseDataSet(this, tables);
+            }
+            return dataSet;
+        }
+    }
+
+    private static final class CachingDatabaseDataSet extends DatabaseDataSet {
+        private final IDatabaseConnection connection;
+        private final Tables tables;
+        private final boolean caseSensitive;
+
+        private CachingDatabaseDataSet(final IDatabaseConnection connection, final Tables tables) throws SQLException {
+            this(connection, tables, Boolean.TRUE.equals(connection.getConfig().getProperty(DatabaseConfig.FEATURE_CASE_SENSITIVE_TABLE_NAMES)));
+        }
+
+        private CachingDatabaseDataSet(final IDatabaseConnection connection, final Tables tables, final boolean caseSensitive) throws SQLException {
+            super(connection, caseSensitive);
+            this.connection = connection;
+            this.tables = tables;
+            this.caseSensitive = caseSensitive;
+        }
+
+        @Override
+        public String[] getTableNames() throws DataSetException {
+            String[] names = tables.names;
+            if (names == null) {
+                names = super.getTableNames();
+                tables.names = names;
+            }
+            return names.clone();
+        }
+
+        @Override
+        public ITableMetaData getTableMetaData(final String tableName) throws DataSetException {
+            final String key = caseSensitive ? tableName : tableName.toUpperCase(Locale.ENGLISH);
+            ITableMetaData metaData = tables.metaData.get(key);
+            if (metaData == null) {
+                metaData = super.getTableMetaData(tableName);
+                // resolve it now since it is lazy and bound to the connection otherwise
+                metaData.getColumns();
+                metaData.getPrimaryKeys();
+                tables.metaData.putIfAbsent(key, metaData);
+            }
+            return metaData;
+        }
+
+        @Override
+        public ITable getTable(final String tableName) throws DataSetException {
+            final ITableMetaData metaData = getTableMetaData(tableName);
+            final IResultSetTableFactory factory = IResultSetTableFactory.class.cast(
+                connection.getConfig().getProperty(DatabaseConfig.PROPERTY_RESULTSET_TABLE_FACTORY));
+            try {
+                return factory.createTable(metaData, connection);
+            } catch (final SQLException e) {
+                throw new DataSetException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+// copies a seeded database to run each test on its own clone instead of seeding the database before each test,
+// see H2DatabaseTemplate and PostgresDatabaseTemplate
+public interface DatabaseTemplate {
+    // freezes the current content of the source database under the template name,
+    // the rule doesn't hold any connection to the source when calling it
+    void createTemplate(DataSource source, String template) throws SQLException;
+
+    // a new database initialized from the template, expected to cost the same whatever the template size
+    DataSource createClone(String template, String clone) throws SQLException;
+
+    // drops a clone or a template
+    void drop(String database) throws SQLException;
+}
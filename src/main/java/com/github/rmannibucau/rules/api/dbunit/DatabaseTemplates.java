@@ -0,0 +1,104 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import javax.sql.DataSource;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// templates created per DatabaseTemplate type, source DataSource and fixture (datasets, scripts and seed strategy),
+// the rule (so the DatabaseTemplate) is often instantiated per test so the instance which created a template clones it.
+// Templates are dropped when the JVM exits.
+final class DatabaseTemplates {
+    private static final Logger LOGGER = Logger.getLogger(DatabaseTemplates.class.getName());
+    private static final String PREFIX = "rta_" + Integer.toString(new SecureRandom().nextInt() & Integer.MAX_VALUE, 36) + '_'; // shared servers
+    private static final AtomicInteger IDS = new AtomicInteger();
+    private static final Map<List<Object>, Created> TEMPLATES = new HashMap<List<Object>, Created>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                synchronized (TEMPLATES) {
+                    for (final Created created : TEMPLATES.values()) {
+                        drop(created.template, created.name);
+                    }
+                    TEMPLATES.clear();
+                }
+            }
+        });
+    }
+
+    private DatabaseTemplates() {
+        // no-op
+    }
+
+    static Created find(final DatabaseTemplate template, final DataSource source, final String fixture) {
+        synchronized (TEMPLATES) {
+            return TEMPLATES.get(Arrays.<Object>asList(template.getClass(), source, fixture));
+        }
+    }
+
+    static Created create(final DatabaseTemplate template, final DataSource source, final String fixture) throws SQLException {
+        final List<Object> key = Arrays.<Object>asList(template.getClass(), source, fixture);
+        synchronized (TEMPLATES) {
+            final Created existing = TEMPLATES.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            final String name = PREFIX + "tpl_" + IDS.incrementAndGet();
+            template.createTemplate(source, name);
+            final Created created = new Created(template, name);
+            TEMPLATES.put(key, created);
+            return created;
+        }
+    }
+
+    private static void drop(final DatabaseTemplate template, final String database) {
+        try {
+            template.drop(database);
+        } catch (final SQLException e) {
+            LOGGER.log(Level.WARNING, "Can't drop " + database, e);
+        }
+    }
+
+    static final class Clone {
+        private final DatabaseTemplate template;
+        private final String name;
+        private final DataSource dataSource;
+
+        private Clone(final DatabaseTemplate template, final String name, final DataSource dataSource) {
+            this.template = template;
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        DataSource getDataSource() {
+            return dataSource;
+        }
+
+        void drop() {
+            DatabaseTemplates.drop(template, name);
+        }
+    }
+
+    static final class Created {
+        private final DatabaseTemplate template;
+        private final String name;
+
+        private Created(final DatabaseTemplate template, final String name) {
+            this.template = template;
+            this.name = name;
+        }
+
+        Clone newClone() throws SQLException {
+            final String clone = PREFIX + "clone_" + IDS.incrementAndGet();
+            return new Clone(template, clone, template.createClone(name, clone));
+        }
+    }
+}
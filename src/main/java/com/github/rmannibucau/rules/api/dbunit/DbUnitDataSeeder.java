@@ -0,0 +1,23 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitDataSeedStrategyProvider;
+
+import java.sql.SQLException;
+
+// plain DbUnit operations, what arquillian persistence does
+public class DbUnitDataSeeder implements DataSeeder {
+    private final boolean useIdentityInsert;
+
+    public DbUnitDataSeeder(final boolean useIdentityInsert) {
+        this.useIdentityInsert = useIdentityInsert;
+    }
+
+    @Override
+    public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException, SQLException {
+        strategy.provide(new DBUnitDataSeedStrategyProvider(useIdentityInsert)).execute(connection, dataSet);
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// random values matching the column type and size: numbers, lower case words, dates in the ten years after 2000-01-01
+// and bytes. Primary keys are the row index + 1 (or its text for textual columns), never null.
+public class DefaultRowGenerator implements RowGenerator {
+    private static final long EPOCH = 946684800000L; // 2000-01-01T00:00:00Z
+    private static final long TEN_YEARS = TimeUnit.DAYS.toMillis(3652);
+    private static final int MAX_TEXT = 32;
+
+    @Override
+    public Object generate(final GeneratedColumn column, final int row, final Random random) {
+        if (column.isPrimaryKey()) {
+            return key(column, row);
+        }
+        switch (column.getSqlType()) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return random.nextBoolean();
+            case Types.TINYINT:
+                return random.nextInt(Byte.MAX_VALUE);
+            case Types.SMALLINT:
+                return random.nextInt(Short.MAX_VALUE);
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return random.nextInt(1000000);
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                final int scale = Math.max(0, Math.min(column.getScale(), 4));
+                final int digits = Math.max(1, Math.min(column.getSize() - scale, 9));
+                return BigDecimal.valueOf(random.nextInt(BigInteger.TEN.pow(digits).intValue()), scale);
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return random.nextDouble() * 1000;
+            case Types.DATE:
+                return new Date(EPOCH + TimeUnit.DAYS.toMillis(random.nextInt(3652)));
+            case Types.TIME:
+                return new Time(TimeUnit.SECONDS.toMillis(random.nextInt(86400)));
+            case Types.TIMESTAMP:
+                return new Timestamp(EPOCH + (long) (random.nextDouble() * TEN_YEARS));
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                final byte[] bytes = new byte[column.getSize() > 0 ? Math.min(column.getSize(), 16) : 16];
+                random.nextBytes(bytes);
+                return bytes;
+            default: // textual and what the database converts from a string
+                return word(column, random);
+        }
+    }
+
+    protected Object key(final GeneratedColumn column, final int row) {
+        switch (column.getSqlType()) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return row + 1;
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return row + 1L;
+            default:
+                return Integer.toString(row + 1);
+        }
+    }
+
+    protected String word(final GeneratedColumn column, final Random random) {
+        final int max = column.getSize() > 0 ? Math.min(column.getSize(), MAX_TEXT) : MAX_TEXT;
+        final int length = column.getSqlType() == Types.CHAR || column.getSqlType() == Types.NCHAR ? max : 1 + random.nextInt(max);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitConfiguration;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// tables written by some SQL, statements are matched with a simple pattern (no real parsing) so
+// calls to procedures are considered as unknown writes and the caller falls back on a full cleanup.
+// Also keeps per database the tables still holding seeded data (pending) the next test using it needs to clean
+// and, when they hold exactly a fixture, the fixture and their checksums to let a test with the same fixture reuse them.
+// Tables still pending when the JVM stops are cleaned by a shutdown hook.
+final class DirtyTables {
+    private static final String IDENTIFIER = "(?:[\\w$#]+|\"[^\"]+\"|`[^`]+`|\\[[^\\]]+\\])";
+    private static final Pattern WRITE = Pattern.compile(
+        "(?:^|[\\s;(])(?:insert\\s+(?:ignore\\s+)?into|replace\\s+into|merge\\s+into|update|delete\\s+from|delete|truncate\\s+table|truncate)\\s+" +
+            "(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")*)",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern CALL = Pattern.compile("^\\s*(?:\\{\\s*(?:\\?\\s*=\\s*)?call|call|exec|execute)\\s", Pattern.CASE_INSENSITIVE);
+    private static final Map<Target, Pending> PENDING = new HashMap<Target, Pending>();
+    private static final Map<Target, Seeded> SEEDED = new HashMap<Target, Seeded>();
+    private static boolean flushOnShutdown;
+
+    private final Set<String> tables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean unknown;
+
+    void onSql(final String sql) {
+        if (sql == null) {
+            return;
+        }
+        if (CALL.matcher(sql).find()) {
+            unknown = true;
+            return;
+        }
+        final Matcher matcher = WRITE.matcher(sql);
+        while (matcher.find()) {
+            tables.add(normalize(matcher.group(1)));
+        }
+    }
+
+    void onUnknownWrite() {
+        unknown = true;
+    }
+
+    void add(final String... names) {
+        for (final String name : names) {
+            tables.add(normalize(name));
+        }
+    }
+
+    boolean isUnknown() {
+        return unknown;
+    }
+
+    // upper case names
+    Set<String> getTables() {
+        return tables;
+    }
+
+    // the connection (its current schema) and configuration are the ones to clean the tables at shutdown
+    static void addPending(final Target target, final Connection connection, final DBUnitConfiguration configuration, final Collection<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+        synchronized (PENDING) {
+            SEEDED.remove(target); // pending tables don't hold a single fixture anymore
+            Pending pending = PENDING.get(target);
+            if (pending == null) {
+                pending = new Pending();
+                PENDING.put(target, pending);
+            }
+            pending.dataSource = target.dataSource;
+            pending.schema = target.schema;
+            pending.sessionSchema = SchemaPool.current(connection, target.schema);
+            pending.configuration = configuration;
+            pending.tables.addAll(names);
+
+            if (!flushOnShutdown) {
+                flushOnShutdown = true;
+                Runtime.getRuntime().addShutdownHook(new Thread("rule-them-all-dbunit-pending-cleanup") {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+        }
+    }
+
+    static Set<String> takePending(final Target target) {
+        synchronized (PENDING) {
+            SEEDED.remove(target);
+            final Pending pending = PENDING.remove(target);
+            return pending == null ? Collections.<String>emptySet() : pending.tables;
+        }
+    }
+
+    // cleans all pending tables with new connections, errors are ignored (database already stopped for instance)
+    static void flush() {
+        final Collection<Pending> pendings;
+        synchronized (PENDING) {
+            pendings = new ArrayList<Pending>(PENDING.values());
+            PENDING.clear();
+            SEEDED.clear();
+        }
+        for (final Pending pending : pendings) {
+            try (final Connection connection = pending.dataSource.getConnection()) {
+                if (pending.sessionSchema != null && !pending.sessionSchema.equals(SchemaPool.current(connection, null))) {
+                    SchemaPool.use(connection, pending.sessionSchema);
+                }
+                new DirtyTablesCleanupStrategyExecutor(
+                    DatabaseMetaDataCache.getInstance().newConnection(pending.dataSource, connection, pending.schema), pending.tables, pending.configuration)
+                    .cleanupDatabase(pending.configuration.getExcludeTablesFromCleanup());
+            } catch (final SQLException | DatabaseUnitException | RuntimeException e) {
+                // no-op
+            }
+        }
+    }
+
+    // the pending tables (and only them) hold fixture, checksums are the TableChecksum ones
+    static void seeded(final Target target, final String fixture, final Map<String, String> checksums) {
+        synchronized (PENDING) {
+            final Pending pending = PENDING.get(target);
+            if (pending != null && pending.tables.equals(checksums.keySet())) {
+                SEEDED.put(target, new Seeded(fixture, new HashMap<String, String>(checksums)));
+            }
+        }
+    }
+
+    // the checksums of the pending tables when they hold fixture, pending tables are left as they are
+    static Map<String, String> findSeeded(final Target target, final String fixture) {
+        synchronized (PENDING) {
+            final Seeded seeded = SEEDED.get(target);
+            return seeded != null && seeded.fixture.equals(fixture) ? seeded.checksums : null;
+        }
+    }
+
+    static String normalize(final String name) {
+        String table = name;
+        final int dot = table.lastIndexOf('.'); // schema is handled by the connection
+        if (dot >= 0) {
+            table = table.substring(dot + 1);
+        }
+        table = table.trim();
+        if (table.length() > 1 && "\"`[".indexOf(table.charAt(0)) >= 0) {
+            table = table.substring(1, table.length() - 1);
+        }
+        return table.toUpperCase(Locale.ENGLISH);
+    }
+
+    // the database and schema of a DataSource: DataSource instances are often created per test class so the database
+    // is identified by its JDBC URL and user, or by the DataSource itself when the driver doesn't give the URL,
+    // schema is the DbUnit one (leased one with a SchemaPool)
+    static final class Target {
+        private final DataSource dataSource;
+        private final String url;
+        private final String user;
+        private final String schema;
+
+        private Target(final DataSource dataSource, final String url, final String user, final String schema) {
+            this.dataSource = dataSource;
+            this.url = url;
+            this.user = user;
+            this.schema = schema;
+        }
+
+        static Target of(final DataSource dataSource, final Connection connection, final String schema) throws SQLException {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            return new Target(dataSource, metaData.getURL(), metaData.getUserName(), schema);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Target target = Target.class.cast(o);
+            if (schema == null ? target.schema != null : !schema.equals(target.schema)) {
+                return false;
+            }
+            if (url == null || target.url == null) {
+                return dataSource == target.dataSource;
+            }
+            return url.equals(target.url) && (user == null ? target.user == null : user.equals(target.user));
+        }
+
+        @Override
+        public int hashCode() {
+            final int database = url == null ? System.identityHashCode(dataSource) : 31 * url.hashCode() + (user == null ? 0 : user.hashCode());
+            return 31 * database + (schema == null ? 0 : schema.hashCode());
+        }
+    }
+
+    private static final class Pending {
+        private final Set<String> tables = new HashSet<String>();
+        private DataSource dataSource; // the last one
+        private String schema; // DbUnit one
+        private String sessionSchema;
+        private DBUnitConfiguration configuration;
+    }
+
+    private static final class Seeded {
+        private final String fixture;
+        private final Map<String, String> checksums;
+
+        private Seeded(final String fixture, final Map<String, String> checksums) {
+            this.fixture = fixture;
+            this.checksums = checksums;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.FilteredDataSet;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.filter.ExcludeTableFilter;
+import org.dbunit.dataset.filter.SequenceTableFilter;
+import org.dbunit.operation.DatabaseOperation;
+import org.jboss.arquillian.persistence.dbunit.cleanup.CleanupStrategyExecutor;
+import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitConfiguration;
+import org.jboss.arquillian.persistence.dbunit.filter.TableFilterResolver;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+
+// same as the STRICT cleanup but only for the given tables
+final class DirtyTablesCleanupStrategyExecutor implements CleanupStrategyExecutor {
+    private final DatabaseConnection connection;
+    private final Collection<String> tables;
+    private final DBUnitConfiguration dbUnitConfiguration;
+
+    DirtyTablesCleanupStrategyExecutor(final DatabaseConnection connection, final Collection<String> tables,
+                                       final DBUnitConfiguration dbUnitConfiguration) {
+        this.connection = connection;
+        this.tables = tables;
+        this.dbUnitConfiguration = dbUnitConfiguration;
+    }
+
+    @Override
+    public void cleanupDatabase(final String... excludeTables) {
+        if (tables.isEmpty()) {
+            return;
+        }
+        try {
+            final IDataSet database = connection.createDataSet();
+            final Collection<String> names = new ArrayList<String>(tables.size());
+            for (final String name : database.getTableNames()) { // keep database case and order
+                if (tables.contains(name.toUpperCase(Locale.ENGLISH))) {
+                    names.add(name);
+                }
+            }
+            if (names.isEmpty()) {
+                return;
+            }
+
+            IDataSet dataSet = new FilteredDataSet(new SequenceTableFilter(names.toArray(new String[names.size()])), database);
+            if (excludeTables != null && excludeTables.length > 0) {
+                dataSet = new FilteredDataSet(new ExcludeTableFilter(excludeTables), dataSet);
+            }
+            if (dbUnitConfiguration.isFilterTables()) {
+                dataSet = new FilteredDataSet(new TableFilterResolver(dbUnitConfiguration).resolve().provide(connection, dataSet.getTableNames()), dataSet);
+            }
+            DatabaseOperation.DELETE_ALL.execute(connection, dataSet);
+        } catch (final DatabaseUnitException | SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+// JDBC metadata of a @GeneratedDataSet column
+public final class GeneratedColumn {
+    private final String table;
+    private final String name;
+    private final int sqlType;
+    private final int size;
+    private final int scale;
+    private final boolean nullable;
+    private final boolean primaryKey;
+
+    GeneratedColumn(final String table, final String name, final int sqlType, final int size, final int scale,
+                    final boolean nullable, final boolean primaryKey) {
+        this.table = table;
+        this.name = name;
+        this.sqlType = sqlType;
+        this.size = size;
+        this.scale = scale;
+        this.nullable = nullable;
+        this.primaryKey = primaryKey;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // java.sql.Types
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    // length for textual/binary columns, precision for numeric ones
+    public int getSize() {
+        return size;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public boolean isNullable() {
+        return nullable;
+    }
+
+    public boolean isPrimaryKey() {
+        return primaryKey;
+    }
+
+    @Override
+    public String toString() {
+        return "GeneratedColumn{" + table + '.' + name + ", sqlType=" + sqlType + ", size=" + size + '}';
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+// seeds rows computed from the table metadata instead of a file: values come from the generator and foreign keys
+// reference rows of the tables generated before (or existing rows). A row only depends on the seed and its index
+// so the same data are generated at each run. Use @GeneratedDataSets for several tables (parents first).
+// Seeded after @UsingDataSet and @StreamingDataSet datasets with the rule DataSeeder (default to BatchedDataSeeder),
+// the method annotations override the class ones.
+@Target({ TYPE, METHOD })
+@Retention(RUNTIME)
+public @interface GeneratedDataSet {
+    String table();
+
+    int rows();
+
+    Class<? extends RowGenerator> generator() default DefaultRowGenerator.class;
+
+    long seed() default 0;
+}
@@ -0,0 +1,14 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+@Target({ TYPE, METHOD })
+@Retention(RUNTIME)
+public @interface GeneratedDataSets {
+    GeneratedDataSet[] value();
+}
@@ -0,0 +1,314 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.AmbiguousTableNameException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.AbstractTable;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.util.QualifiedTableName;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// a @GeneratedDataSet table: rows are computed when read (only the last one is kept) from a random seeded for the row
+// so they can be read in any order and several times with the same values.
+// Foreign keys pick a random row of the referenced table: computed if it is generated too, else read once from the database.
+final class GeneratedTable extends AbstractTable {
+    private final ITableMetaData metaData;
+    private final GeneratedColumn[] columns;
+    private final RowGenerator generator;
+    private final int rows;
+    private final long seed;
+    private final Reference[] references; // by column index, a multi-column foreign key is on its first column only
+    private final boolean[] referencing; // columns filled by a reference
+    private int row = -1;
+    private Object[] values;
+
+    private GeneratedTable(final ITableMetaData metaData, final GeneratedColumn[] columns, final RowGenerator generator,
+                           final int rows, final long seed, final Reference[] references) {
+        this.metaData = metaData;
+        this.columns = columns;
+        this.generator = generator;
+        this.rows = rows;
+        this.seed = seed;
+        this.references = references;
+        this.referencing = new boolean[columns.length];
+        for (final Reference reference : references) {
+            if (reference != null) {
+                for (final int column : reference.columns) {
+                    referencing[column] = true;
+                }
+            }
+        }
+    }
+
+    static IDataSet dataSet(final IDatabaseConnection connection, final GeneratedDataSet... definitions) throws DataSetException, SQLException {
+        final Connection jdbc = connection.getConnection();
+        final DatabaseMetaData databaseMetaData = jdbc.getMetaData();
+        final String catalog = jdbc.getCatalog();
+        final String schema = connection.getSchema();
+
+        final Map<String, GeneratedTable> generated = new HashMap<String, GeneratedTable>();
+        final DefaultDataSet dataSet = new DefaultDataSet();
+        for (final GeneratedDataSet definition : definitions) {
+            if (definition.rows() < 0) {
+                throw new IllegalArgumentException("rows should be >= 0 for " + definition.table());
+            }
+            final String table = tableName(databaseMetaData, catalog, schema, definition.table());
+
+            final Set<String> primaryKeys = new HashSet<String>();
+            try (final ResultSet rs = databaseMetaData.getPrimaryKeys(catalog, schema, table)) {
+                while (rs.next()) {
+                    primaryKeys.add(rs.getString("COLUMN_NAME"));
+                }
+            }
+            final List<GeneratedColumn> columns = new ArrayList<GeneratedColumn>();
+            try (final ResultSet rs = databaseMetaData.getColumns(catalog, schema, table, null)) {
+                while (rs.next()) {
+                    final String name = rs.getString("COLUMN_NAME");
+                    columns.add(new GeneratedColumn(
+                        table, name, rs.getInt("DATA_TYPE"), rs.getInt("COLUMN_SIZE"), rs.getInt("DECIMAL_DIGITS"),
+                        rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls, primaryKeys.contains(name)));
+                }
+            }
+
+            final Column[] dbUnitColumns = new Column[columns.size()];
+            final Collection<Column> dbUnitPrimaryKeys = new ArrayList<Column>();
+            final Map<String, Integer> indices = new HashMap<String, Integer>();
+            for (int i = 0; i < dbUnitColumns.length; i++) {
+                final GeneratedColumn column = columns.get(i);
+                dbUnitColumns[i] = new Column(column.getName(), DataType.UNKNOWN);
+                indices.put(column.getName(), i);
+                if (column.isPrimaryKey()) {
+                    dbUnitPrimaryKeys.add(dbUnitColumns[i]);
+                }
+            }
+
+            final Reference[] references = new Reference[dbUnitColumns.length];
+            for (final Map.Entry<String, List<String[]>> foreignKey : foreignKeys(databaseMetaData, catalog, schema, table).entrySet()) {
+                final List<String[]> mapping = foreignKey.getValue(); // fk column, referenced table, referenced column
+                final int[] local = new int[mapping.size()];
+                for (int i = 0; i < local.length; i++) {
+                    local[i] = indices.get(mapping.get(i)[0]);
+                }
+                final String referencedTable = mapping.get(0)[1];
+                final GeneratedTable parent = generated.get(referencedTable.toUpperCase(Locale.ENGLISH));
+                if (parent != null) {
+                    final int[] remote = new int[local.length];
+                    for (int i = 0; i < remote.length; i++) {
+                        remote[i] = parent.indexOf(mapping.get(i)[2]);
+                        if (!parent.columns[remote[i]].isPrimaryKey()) { // other values depend on the whole row
+                            throw new IllegalArgumentException(table + " references " + referencedTable + " generated rows by another column than its primary key");
+                        }
+                    }
+                    references[local[0]] = new GeneratedReference(local, parent, remote);
+                } else {
+                    references[local[0]] = new ExistingReference(local, existingKeys(connection, referencedTable, mapping));
+                }
+            }
+
+            final RowGenerator generator;
+            try {
+                generator = definition.generator().newInstance();
+            } catch (final InstantiationException | IllegalAccessException e) {
+                throw new IllegalArgumentException("Can't create " + definition.generator().getName(), e);
+            }
+
+            final GeneratedTable generatedTable = new GeneratedTable(
+                new DefaultTableMetaData(table, dbUnitColumns, dbUnitPrimaryKeys.toArray(new Column[dbUnitPrimaryKeys.size()])),
+                columns.toArray(new GeneratedColumn[columns.size()]), generator, definition.rows(),
+                definition.seed() ^ table.toUpperCase(Locale.ENGLISH).hashCode(), references);
+            generated.put(table.toUpperCase(Locale.ENGLISH), generatedTable);
+            try {
+                dataSet.addTable(generatedTable);
+            } catch (final AmbiguousTableNameException e) {
+                throw new IllegalArgumentException(table + " is generated twice", e);
+            }
+        }
+        return dataSet;
+    }
+
+    @Override
+    public ITableMetaData getTableMetaData() {
+        return metaData;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public Object getValue(final int row, final String column) throws DataSetException {
+        assertValidRowIndex(row);
+        if (row != this.row) {
+            values = compute(row);
+            this.row = row;
+        }
+        return values[getColumnIndex(column)];
+    }
+
+    private Object[] compute(final int row) {
+        final Random random = random(row);
+        final Object[] computed = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (references[i] != null) {
+                references[i].fill(computed, random);
+            } else if (!referencing[i]) {
+                computed[i] = generator.generate(columns[i], row, random);
+            }
+        }
+        return computed;
+    }
+
+    // a primary key value, doesn't touch the current row since the referencing table can be seeded concurrently
+    private Object key(final int column, final int row) {
+        return generator.generate(columns[column], row, random(row));
+    }
+
+    private Random random(final int row) { // splitmix64 to decorrelate the rows
+        long z = seed + (row + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    private int indexOf(final String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].getName().equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No column " + column + " in " + metaData.getTableName());
+    }
+
+    @Override
+    public String toString() {
+        return "GeneratedTable{" + metaData.getTableName() + ", rows=" + rows + ", generator=" + generator.getClass().getName() + '}';
+    }
+
+    // the name as stored by the database (unquoted identifiers can be upper or lower case)
+    private static String tableName(final DatabaseMetaData metaData, final String catalog, final String schema, final String table) throws SQLException {
+        for (final String name : new String[]{ table, table.toUpperCase(Locale.ENGLISH), table.toLowerCase(Locale.ENGLISH) }) {
+            try (final ResultSet rs = metaData.getTables(catalog, schema, name, null)) {
+                if (rs.next()) {
+                    return rs.getString("TABLE_NAME");
+                }
+            }
+        }
+        throw new IllegalArgumentException("No table " + table + " to generate");
+    }
+
+    private static Map<String, List<String[]>> foreignKeys(final DatabaseMetaData metaData, final String catalog,
+                                                           final String schema, final String table) throws SQLException {
+        final Map<String, List<String[]>> foreignKeys = new LinkedHashMap<String, List<String[]>>();
+        try (final ResultSet rs = metaData.getImportedKeys(catalog, schema, table)) { // ordered by referenced table and KEY_SEQ
+            while (rs.next()) {
+                final String name = rs.getString("PKTABLE_NAME") + '|' + rs.getString("FK_NAME");
+                List<String[]> columns = foreignKeys.get(name);
+                if (columns == null) {
+                    columns = new ArrayList<String[]>();
+                    foreignKeys.put(name, columns);
+                }
+                columns.add(new String[]{ rs.getString("FKCOLUMN_NAME"), rs.getString("PKTABLE_NAME"), rs.getString("PKCOLUMN_NAME") });
+            }
+        }
+        return foreignKeys;
+    }
+
+    private static List<Object[]> existingKeys(final IDatabaseConnection connection, final String table, final List<String[]> mapping) throws SQLException {
+        final String escapePattern = (String) connection.getConfig().getProperty(DatabaseConfig.PROPERTY_ESCAPE_PATTERN);
+        final StringBuilder sql = new StringBuilder("select distinct ");
+        for (int i = 0; i < mapping.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(new QualifiedTableName(mapping.get(i)[2], null, escapePattern).getQualifiedName());
+        }
+        sql.append(" from ").append(new QualifiedTableName(table, connection.getSchema(), escapePattern).getQualifiedNameIfEnabled(connection.getConfig()));
+
+        final List<Object[]> keys = new ArrayList<Object[]>();
+        try (final Statement statement = connection.getConnection().createStatement();
+             final ResultSet rs = statement.executeQuery(sql.toString())) {
+            while (rs.next()) {
+                final Object[] key = new Object[mapping.size()];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = rs.getObject(i + 1);
+                }
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private abstract static class Reference {
+        protected final int[] columns;
+
+        protected Reference(final int[] columns) {
+            this.columns = columns;
+        }
+
+        abstract void fill(Object[] row, Random random);
+    }
+
+    private static final class GeneratedReference extends Reference {
+        private final GeneratedTable parent;
+        private final int[] parentColumns;
+
+        private GeneratedReference(final int[] columns, final GeneratedTable parent, final int[] parentColumns) {
+            super(columns);
+            this.parent = parent;
+            this.parentColumns = parentColumns;
+        }
+
+        @Override
+        void fill(final Object[] row, final Random random) {
+            if (parent.rows == 0) { // nullable or it will fail as it would with an empty referenced table
+                return;
+            }
+            final int parentRow = random.nextInt(parent.rows);
+            for (int i = 0; i < columns.length; i++) {
+                row[columns[i]] = parent.key(parentColumns[i], parentRow);
+            }
+        }
+    }
+
+    private static final class ExistingReference extends Reference {
+        private final List<Object[]> keys;
+
+        private ExistingReference(final int[] columns, final List<Object[]> keys) {
+            super(columns);
+            this.keys = keys;
+        }
+
+        @Override
+        void fill(final Object[] row, final Random random) {
+            if (keys.isEmpty()) {
+                return;
+            }
+            final Object[] key = keys.get(random.nextInt(keys.size()));
+            for (int i = 0; i < columns.length; i++) {
+                row[columns[i]] = key[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// INSERT ... SELECT FROM CSVREAD, the file is read by the database so a server must run on the same machine
+public class H2BulkLoader extends CsvBulkLoader {
+    @Override
+    public boolean supports(final String product) {
+        return product.contains("h2");
+    }
+
+    @Override
+    protected String nullValue() { // CSVREAD reads an unquoted empty value as null
+        return "";
+    }
+
+    @Override
+    protected void load(final IDatabaseConnection connection, final String table, final String[] columns, final File csv) throws SQLException {
+        final StringBuilder fileColumns = new StringBuilder(); // the file has no header, names only matter to CSVREAD
+        for (int i = 0; i < columns.length; i++) {
+            fileColumns.append(i > 0 ? "," : "").append('C').append(i);
+        }
+        try (final Statement statement = connection.getConnection().createStatement()) {
+            statement.executeUpdate("insert into " + table + " (" + join(columns) + ") select * from csvread('"
+                + csv.getAbsolutePath().replace("'", "''") + "', '" + fileColumns + "', 'charset=UTF-8')");
+        }
+    }
+}
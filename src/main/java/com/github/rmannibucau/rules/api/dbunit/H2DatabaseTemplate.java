@@ -0,0 +1,108 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// the template is a compacted file database built from a SCRIPT of the seeded one (memory or file),
+// clones are file copies of it
+public class H2DatabaseTemplate implements DatabaseTemplate {
+    private static final String[] SUFFIXES = { ".mv.db", ".h2.db", ".trace.db" };
+
+    private final String user;
+    private final String password;
+    private File directory;
+
+    public H2DatabaseTemplate() {
+        this(null, "SA", "");
+    }
+
+    // directory defaults to a temporary one, user/password are the credentials of the clones
+    public H2DatabaseTemplate(final File directory, final String user, final String password) {
+        this.directory = directory;
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public void createTemplate(final DataSource source, final String template) throws SQLException {
+        final File script = new File(getDirectory(), template + ".sql");
+        try {
+            try (final Connection connection = source.getConnection(); final Statement statement = connection.createStatement()) {
+                statement.execute("SCRIPT TO '" + escape(script.getAbsolutePath()) + "'");
+            }
+            try (final Connection connection = DriverManager.getConnection(url(template), user, password);
+                 final Statement statement = connection.createStatement()) {
+                statement.execute("RUNSCRIPT FROM '" + escape(script.getAbsolutePath()) + "'");
+                statement.execute("SHUTDOWN COMPACT");
+            }
+        } finally {
+            if (!script.delete() && script.exists()) {
+                script.deleteOnExit();
+            }
+        }
+    }
+
+    @Override
+    public DataSource createClone(final String template, final String clone) throws SQLException {
+        final File dir = getDirectory();
+        boolean copied = false;
+        for (final String suffix : SUFFIXES) {
+            final File from = new File(dir, template + suffix);
+            if (!from.isFile() || suffix.equals(".trace.db")) {
+                continue;
+            }
+            try {
+                Files.copy(from.toPath(), new File(dir, clone + suffix).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                copied = true;
+            } catch (final IOException e) {
+                throw new SQLException("Can't copy " + from, e);
+            }
+        }
+        if (!copied) {
+            throw new SQLException("No template " + template + " in " + dir);
+        }
+        return new DriverManagerDataSource(url(clone), user, password);
+    }
+
+    @Override
+    public void drop(final String database) throws SQLException {
+        final File dir = getDirectory();
+        for (final String suffix : SUFFIXES) {
+            final File file = new File(dir, database + suffix);
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (final IOException e) {
+                throw new SQLException("Can't delete " + file, e);
+            }
+        }
+    }
+
+    private String url(final String database) {
+        return "jdbc:h2:file:" + new File(getDirectory(), database).getAbsolutePath() + ";TRACE_LEVEL_FILE=0";
+    }
+
+    private synchronized File getDirectory() {
+        if (directory == null) {
+            try {
+                directory = Files.createTempDirectory("rule-them-all-templates").toFile();
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+            directory.deleteOnExit(); // after the templates are dropped
+        } else if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Can't create " + directory);
+        }
+        return directory;
+    }
+
+    private static String escape(final String value) {
+        return value.replace("'", "''");
+    }
+}
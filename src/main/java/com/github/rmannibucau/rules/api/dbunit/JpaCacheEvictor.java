@@ -0,0 +1,244 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.jboss.arquillian.persistence.JpaCacheEviction;
+import org.jboss.arquillian.persistence.JpaCacheEvictionStrategy;
+import org.jboss.arquillian.persistence.TestExecutionPhase;
+import org.jboss.arquillian.persistence.jpa.cache.FullCacheEvictionStrategy;
+import org.jboss.arquillian.persistence.jpa.cache.JpaCacheEvictionConfiguration;
+
+import javax.persistence.Cache;
+import javax.persistence.CollectionTable;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.JoinTable;
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import javax.persistence.SecondaryTable;
+import javax.persistence.SecondaryTables;
+import javax.persistence.Table;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.sql.DataSource;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// @JpaCacheEviction without the arquillian runtime: the default strategy only evicts the entities mapped
+// (@Table, @SecondaryTable or entity name) to the tables written since the last eviction,
+// by the rule (cleanup, scripts, seeding) or by the test when its writes are tracked (trackDirtyTables).
+// Unknown writes (untracked test, full cleanup, procedures), unmapped tables and tables holding collections
+// (join, collection or element tables: Cache can't evict collections) evict everything, a custom strategy is called as before.
+abstract class JpaCacheEvictor {
+    private static final Map<DataSource, Set<String>> WRITTEN = new WeakHashMap<DataSource, Set<String>>(); // null value: unknown
+    private static final Map<EntityManagerFactory, Mapping> MAPPINGS = new WeakHashMap<EntityManagerFactory, Mapping>();
+
+    private final JpaCacheEviction eviction;
+    private final TestExecutionPhase phase;
+    private final Class<? extends JpaCacheEvictionStrategy> strategy;
+    private final String defaultEntityManager;
+
+    JpaCacheEvictor(final JpaCacheEvictionConfiguration configuration, final Class<?> testClass, final Method method) {
+        final JpaCacheEviction methodEviction = method.getAnnotation(JpaCacheEviction.class);
+        eviction = methodEviction != null ? methodEviction : testClass.getAnnotation(JpaCacheEviction.class);
+        if (eviction == null) {
+            phase = null;
+            strategy = null;
+            defaultEntityManager = null;
+        } else {
+            phase = eviction.phase() == TestExecutionPhase.DEFAULT ? configuration.getDefaultPhase() : eviction.phase();
+            strategy = eviction.strategy() == JpaCacheEviction.DefaultJpaCacheEvictionStrategy.class ? configuration.getDefaultStrategy() : eviction.strategy();
+            defaultEntityManager = configuration.getDefaultEntityManager();
+        }
+    }
+
+    protected abstract EntityManager lookup(String name);
+
+    // upper case names
+    static void written(final DataSource dataSource, final Collection<String> tables) {
+        if (tables.isEmpty()) {
+            return;
+        }
+        synchronized (WRITTEN) {
+            final Set<String> written = WRITTEN.get(dataSource);
+            if (written != null) {
+                written.addAll(tables);
+            } else if (!WRITTEN.containsKey(dataSource)) {
+                WRITTEN.put(dataSource, new HashSet<String>(tables));
+            }
+        }
+    }
+
+    static void written(final DataSource dataSource, final DirtyTables tables) {
+        if (tables.isUnknown()) {
+            writtenUnknown(dataSource);
+        } else {
+            written(dataSource, tables.getTables());
+        }
+    }
+
+    static void writtenUnknown(final DataSource dataSource) {
+        synchronized (WRITTEN) {
+            WRITTEN.put(dataSource, null);
+        }
+    }
+
+    void evict(final TestExecutionPhase current, final DataSource dataSource) {
+        if (eviction == null || phase != current) {
+            return;
+        }
+
+        final Set<String> tables;
+        synchronized (WRITTEN) {
+            tables = WRITTEN.containsKey(dataSource) ? WRITTEN.remove(dataSource) : new HashSet<String>();
+        }
+        for (final String name : eviction.entityManager()) {
+            final EntityManager entityManager = lookup(name.isEmpty() && defaultEntityManager != null ? defaultEntityManager : name);
+            if (strategy != FullCacheEvictionStrategy.class) {
+                try {
+                    strategy.newInstance().evictCache(entityManager);
+                } catch (final InstantiationException | IllegalAccessException e) {
+                    throw new IllegalStateException("Can't create " + strategy.getName(), e);
+                }
+                continue;
+            }
+
+            final Cache cache = entityManager.getEntityManagerFactory().getCache();
+            if (cache == null) {
+                continue;
+            }
+            if (tables == null) {
+                cache.evictAll();
+                continue;
+            }
+            final Mapping mapping = mapping(entityManager.getEntityManagerFactory());
+            if (!mapping.isEvictable(tables)) {
+                cache.evictAll();
+                continue;
+            }
+            for (final String table : tables) {
+                for (final Class<?> type : mapping.entities.get(table)) {
+                    cache.evict(type);
+                }
+            }
+        }
+    }
+
+    private static Mapping mapping(final EntityManagerFactory factory) {
+        synchronized (MAPPINGS) {
+            Mapping mapping = MAPPINGS.get(factory);
+            if (mapping == null) {
+                mapping = new Mapping(factory.getMetamodel());
+                MAPPINGS.put(factory, mapping);
+            }
+            return mapping;
+        }
+    }
+
+    // tables of the entity and its parents (joined or single table inheritance) with their secondary tables
+    private static Collection<String> tables(final Class<?> entity, final String name) {
+        final Collection<String> tables = new HashSet<String>();
+        for (Class<?> type = entity; type != null && type != Object.class; type = type.getSuperclass()) {
+            final Entity entityAnnotation = type.getAnnotation(Entity.class);
+            final Table table = type.getAnnotation(Table.class);
+            if (table != null && !table.name().isEmpty()) {
+                tables.add(table.name());
+            } else if (entityAnnotation != null) {
+                tables.add(type == entity ? name : entityAnnotation.name().isEmpty() ? type.getSimpleName() : entityAnnotation.name());
+            }
+
+            final SecondaryTable secondaryTable = type.getAnnotation(SecondaryTable.class);
+            if (secondaryTable != null) {
+                tables.add(secondaryTable.name());
+            }
+            final SecondaryTables secondaryTables = type.getAnnotation(SecondaryTables.class);
+            if (secondaryTables != null) {
+                for (final SecondaryTable t : secondaryTables.value()) {
+                    tables.add(t.name());
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static String primaryTable(final EntityType<?> type) {
+        final Table table = type.getJavaType().getAnnotation(Table.class);
+        return table != null && !table.name().isEmpty() ? table.name() : type.getName();
+    }
+
+    // upper case table names
+    private static final class Mapping {
+        private final Map<String, Collection<Class<?>>> entities = new HashMap<String, Collection<Class<?>>>();
+        private final Set<String> collections = new HashSet<String>();
+
+        private Mapping(final Metamodel metamodel) {
+            final Map<Class<?>, EntityType<?>> types = new HashMap<Class<?>, EntityType<?>>();
+            final Map<Class<?>, Collection<String>> tables = new HashMap<Class<?>, Collection<String>>();
+            for (final EntityType<?> type : metamodel.getEntities()) {
+                final Class<?> entity = type.getJavaType();
+                final Collection<String> entityTables = new ArrayList<String>();
+                for (final String table : tables(entity, type.getName())) {
+                    final String key = DirtyTables.normalize(table);
+                    entityTables.add(key);
+                    Collection<Class<?>> mapped = entities.get(key);
+                    if (mapped == null) {
+                        mapped = new ArrayList<Class<?>>();
+                        entities.put(key, mapped);
+                    }
+                    mapped.add(entity);
+                }
+                types.put(entity, type);
+                tables.put(entity, entityTables);
+            }
+
+            for (final EntityType<?> type : metamodel.getEntities()) {
+                for (final PluralAttribute<?, ?, ?> attribute : type.getPluralAttributes()) {
+                    final Member member = attribute.getJavaMember();
+                    final AnnotatedElement annotated = AnnotatedElement.class.isInstance(member) ? AnnotatedElement.class.cast(member) : null;
+                    final EntityType<?> element = types.get(attribute.getElementType().getJavaType());
+                    if (element == null) { // basic or embeddable values
+                        final CollectionTable collectionTable = annotated == null ? null : annotated.getAnnotation(CollectionTable.class);
+                        collections.add(DirtyTables.normalize(collectionTable != null && !collectionTable.name().isEmpty() ?
+                            collectionTable.name() : type.getName() + '_' + attribute.getName()));
+                        continue;
+                    }
+
+                    collections.addAll(tables.get(element.getJavaType())); // foreign key of a one to many
+                    final JoinTable joinTable = annotated == null ? null : annotated.getAnnotation(JoinTable.class);
+                    if (joinTable != null && !joinTable.name().isEmpty()) {
+                        collections.add(DirtyTables.normalize(joinTable.name()));
+                    } else if (!isMappedBy(annotated)) { // default join table, the other side names it when mapped by
+                        collections.add(DirtyTables.normalize(primaryTable(type) + '_' + primaryTable(element)));
+                    }
+                }
+            }
+        }
+
+        private static boolean isMappedBy(final AnnotatedElement annotated) {
+            if (annotated == null) {
+                return false;
+            }
+            final OneToMany oneToMany = annotated.getAnnotation(OneToMany.class);
+            final ManyToMany manyToMany = annotated.getAnnotation(ManyToMany.class);
+            return (oneToMany != null && !oneToMany.mappedBy().isEmpty()) || (manyToMany != null && !manyToMany.mappedBy().isEmpty());
+        }
+
+        // only mapped entity tables can be evicted per entity
+        private boolean isEvictable(final Collection<String> tables) {
+            for (final String table : tables) {
+                if (collections.contains(table) || !entities.containsKey(table)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
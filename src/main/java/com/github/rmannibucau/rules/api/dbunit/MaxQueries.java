@@ -0,0 +1,17 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+// fails the test when it executes more queries through getDataSource() (or a @UnitInject DataSource field):
+// each execution is a query, a batch counts once. Seeding, scripts and verification are not counted.
+// The method annotation overrides the class one, see QueryStatistics.
+@Target({ TYPE, METHOD })
+@Retention(RUNTIME)
+public @interface MaxQueries {
+    int value();
+}
@@ -0,0 +1,16 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+// fails the test when it reads more rows (ResultSet.next()) through getDataSource() (or a @UnitInject DataSource field).
+// Seeding, scripts and verification are not counted. The method annotation overrides the class one, see QueryStatistics.
+@Target({ TYPE, METHOD })
+@Retention(RUNTIME)
+public @interface MaxRowsFetched {
+    long value();
+}
@@ -0,0 +1,47 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.Column;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+// LOAD DATA LOCAL INFILE, needs allowLoadLocalInfile (or allowLocalInfile depending the driver) on the connection.
+// Binary columns are not supported (the fallback seeds these tables).
+public class MySqlBulkLoader extends CsvBulkLoader {
+    @Override
+    public boolean supports(final String product) {
+        return product.contains("mysql") || product.contains("mariadb");
+    }
+
+    @Override
+    protected boolean supports(final Column column) {
+        final int type = column.getDataType().getSqlType();
+        return type != Types.BINARY && type != Types.VARBINARY && type != Types.LONGVARBINARY && type != Types.BLOB;
+    }
+
+    @Override
+    protected String nullValue() { // without escape character \N is not recognized
+        return "NULL";
+    }
+
+    @Override
+    protected String format(final Object value) {
+        if (Boolean.class.isInstance(value)) {
+            return Boolean.TRUE.equals(value) ? "1" : "0";
+        }
+        return super.format(value);
+    }
+
+    @Override
+    protected void load(final IDatabaseConnection connection, final String table, final String[] columns, final File csv) throws SQLException {
+        try (final Statement statement = connection.getConnection().createStatement()) {
+            statement.executeUpdate("LOAD DATA LOCAL INFILE '" + csv.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'") + "'"
+                + " INTO TABLE " + table + " CHARACTER SET utf8"
+                + " FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''"
+                + " LINES TERMINATED BY '\\n' (" + join(columns) + ")");
+        }
+    }
+}
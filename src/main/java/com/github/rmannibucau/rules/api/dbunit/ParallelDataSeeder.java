@@ -0,0 +1,261 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.FilteredDataSet;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.filter.SequenceTableFilter;
+import org.dbunit.operation.DatabaseOperation;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// seeds tables in parallel: tables are grouped in levels using the foreign keys (a level only references previous ones),
+// tables of a level are written concurrently by the delegate on up to parallelism connections of the DataSource
+// and the next level starts once the previous one is done.
+// Falls back on the delegate on the rule connection when it is not in autocommit (transactional mode)
+// since other connections wouldn't be part of its transaction.
+public class ParallelDataSeeder implements DataSeeder {
+    private final DataSource dataSource;
+    private final int parallelism;
+    private final DataSeeder delegate;
+
+    public ParallelDataSeeder(final DataSource dataSource, final int parallelism) {
+        this(dataSource, parallelism, new BatchedDataSeeder());
+    }
+
+    public ParallelDataSeeder(final DataSource dataSource, final int parallelism, final DataSeeder delegate) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism should be > 0");
+        }
+        this.dataSource = dataSource;
+        this.parallelism = parallelism;
+        this.delegate = delegate;
+    }
+
+    // for datasets which can't be split per table (streamed ones)
+    DataSeeder getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException, SQLException {
+        if (parallelism == 1 || !connection.getConnection().getAutoCommit()) {
+            delegate.seed(connection, dataSet, strategy);
+            return;
+        }
+
+        final List<List<String>> levels = levels(connection, dataSet);
+        final DataSeedStrategy tableStrategy;
+        if (strategy == DataSeedStrategy.CLEAN_INSERT) { // delete children first so do it once for all tables
+            final List<String> ordered = new ArrayList<String>();
+            for (final List<String> level : levels) {
+                ordered.addAll(level);
+            }
+            DatabaseOperation.DELETE_ALL.execute(connection, new FilteredDataSet(new SequenceTableFilter(ordered.toArray(new String[ordered.size()])), dataSet));
+            tableStrategy = DataSeedStrategy.INSERT;
+        } else {
+            tableStrategy = strategy;
+        }
+
+        int width = 0;
+        for (final List<String> level : levels) {
+            width = Math.max(width, level.size());
+        }
+        final int workers = Math.min(parallelism, width);
+        if (workers <= 1) {
+            delegate.seed(connection, dataSet, tableStrategy);
+            return;
+        }
+
+        final BlockingQueue<DatabaseConnection> connections = new ArrayBlockingQueue<DatabaseConnection>(workers);
+        final ExecutorService pool = Executors.newFixedThreadPool(workers, new SeederThreadFactory());
+        try {
+            for (int i = 0; i < workers; i++) {
+                connections.add(newConnection(connection));
+            }
+
+            for (final List<String> level : levels) {
+                if (level.size() == 1) { // no need to switch of thread
+                    delegate.seed(connection, new DefaultDataSet(dataSet.getTable(level.get(0))), tableStrategy);
+                    continue;
+                }
+
+                final Collection<Future<?>> futures = new ArrayList<Future<?>>(level.size());
+                for (final String table : level) {
+                    futures.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            final DatabaseConnection c = connections.take();
+                            try {
+                                delegate.seed(c, new DefaultDataSet(dataSet.getTable(table)), tableStrategy);
+                                if (!c.getConnection().getAutoCommit()) {
+                                    c.getConnection().commit();
+                                }
+                            } finally {
+                                connections.add(c);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                await(futures); // barrier, next level can reference these tables
+            }
+        } finally {
+            shutdown(pool);
+            for (final DatabaseConnection c : connections) {
+                try {
+                    c.close();
+                } catch (final SQLException e) {
+                    // no-op
+                }
+            }
+        }
+    }
+
+    private DatabaseConnection newConnection(final DatabaseConnection source) throws SQLException, DatabaseUnitException {
+        return newConnection(dataSource, dataSource.getConnection(), source);
+    }
+
+    // a connection with the same schema and configuration than source
+    static DatabaseConnection newConnection(final DataSource dataSource, final Connection jdbc,
+                                            final DatabaseConnection source) throws SQLException, DatabaseUnitException {
+        final String current = SchemaPool.current(source.getConnection(), source.getSchema());
+        if (current != null && !current.equals(SchemaPool.current(jdbc, null))) { // unqualified statements go to the leased schema for instance
+            SchemaPool.use(jdbc, current);
+        }
+        final DatabaseConnection connection = DatabaseMetaDataCache.getInstance().newConnection(dataSource, jdbc, source.getSchema());
+        final DatabaseConfig from = source.getConfig();
+        final DatabaseConfig to = connection.getConfig();
+        for (final DatabaseConfig.ConfigProperty property : DatabaseConfig.ALL_PROPERTIES) {
+            final Object value = from.getProperty(property.getProperty());
+            if (value != null) {
+                to.setProperty(property.getProperty(), value);
+            }
+        }
+        return connection;
+    }
+
+    private List<List<String>> levels(final DatabaseConnection connection, final IDataSet dataSet) throws DatabaseUnitException, SQLException {
+        final IDataSet database = connection.createDataSet();
+        final Map<String, String> names = new HashMap<String, String>(); // upper case -> dataset name
+        for (final String table : dataSet.getTableNames()) {
+            names.put(table.toUpperCase(Locale.ENGLISH), table);
+        }
+
+        final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+        for (final String table : dataSet.getTableNames()) {
+            final Set<String> referenced = new HashSet<String>(DatabaseMetaDataCache.getInstance().getReferencedTables(
+                dataSource, connection, database.getTableMetaData(table).getTableName()));
+            referenced.retainAll(names.keySet()); // other ones are not seeded
+            referenced.remove(table.toUpperCase(Locale.ENGLISH)); // rows of a table are inserted in order
+            dependencies.put(table.toUpperCase(Locale.ENGLISH), referenced);
+        }
+
+        final List<List<String>> levels = new ArrayList<List<String>>();
+        final Set<String> done = new HashSet<String>();
+        while (done.size() < names.size()) {
+            final List<String> level = new ArrayList<String>();
+            for (final String table : dataSet.getTableNames()) {
+                final String key = table.toUpperCase(Locale.ENGLISH);
+                if (!done.contains(key) && done.containsAll(dependencies.get(key))) {
+                    level.add(table);
+                }
+            }
+            if (level.isEmpty()) { // cycle, let the database handle the remaining ones in dataset order
+                for (final String table : dataSet.getTableNames()) {
+                    if (!done.contains(table.toUpperCase(Locale.ENGLISH))) {
+                        final List<String> single = new ArrayList<String>(1);
+                        single.add(table);
+                        levels.add(single);
+                        done.add(table.toUpperCase(Locale.ENGLISH));
+                    }
+                }
+                break;
+            }
+            for (final String table : level) {
+                done.add(table.toUpperCase(Locale.ENGLISH));
+            }
+            levels.add(level);
+        }
+        return levels;
+    }
+
+    // waits for all the tasks, even after a failure since the other ones still use a connection, then rethrows the first failure
+    static void await(final Collection<Future<?>> futures) throws DatabaseUnitException, SQLException {
+        Throwable failure = null;
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e); // shutdown() waits for the running tasks
+            } catch (final ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure == null) {
+            return;
+        }
+        if (DatabaseUnitException.class.isInstance(failure)) {
+            throw DatabaseUnitException.class.cast(failure);
+        }
+        if (SQLException.class.isInstance(failure)) {
+            throw SQLException.class.cast(failure);
+        }
+        if (RuntimeException.class.isInstance(failure)) {
+            throw RuntimeException.class.cast(failure);
+        }
+        throw new IllegalStateException(failure);
+    }
+
+    // running tasks give their connection back when they end, wait for them before closing the queued connections
+    static void shutdown(final ExecutorService pool) {
+        pool.shutdownNow();
+        final boolean interrupted = Thread.interrupted();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class SeederThreadFactory implements ThreadFactory {
+        private static final AtomicInteger ID = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "rule-them-all-dbunit-seeder-" + ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
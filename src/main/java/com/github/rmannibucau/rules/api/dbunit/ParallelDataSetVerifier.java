@@ -0,0 +1,141 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.FilteredDataSet;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.filter.ExcludeTableFilter;
+import org.dbunit.dataset.filter.IColumnFilter;
+import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.core.test.AssertionErrorCollector;
+import org.jboss.arquillian.persistence.dbunit.DataSetComparator;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// verifies the expected tables concurrently, each one on one of up to parallelism read-only connections
+// of the test DataSource: the streaming comparison first then DataSetComparator to detail the differences.
+// Differences are collected per table and reported in the expected dataset table order.
+final class ParallelDataSetVerifier {
+    private final DataSource dataSource; // the one of the rule connection, for DatabaseMetaDataCache
+    private final TestDataSource connections;
+    private final int parallelism;
+
+    ParallelDataSetVerifier(final DataSource dataSource, final TestDataSource connections, final int parallelism) {
+        this.dataSource = dataSource;
+        this.connections = connections;
+        this.parallelism = parallelism;
+    }
+
+    void verify(final DatabaseConnection source, final IDataSet expected, final ShouldMatchDataSet config,
+                final Set<Class<? extends IColumnFilter>> columnFilters, final String[] excludeTables,
+                final AssertionErrorCollector errorCollector) throws DatabaseUnitException, SQLException {
+        final String[] tables = expected.getTableNames();
+        final int workers = Math.min(parallelism, tables.length);
+
+        final BlockingQueue<DatabaseConnection> pool = new ArrayBlockingQueue<DatabaseConnection>(workers);
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, new VerifierThreadFactory());
+        try {
+            for (int i = 0; i < workers; i++) {
+                final Connection connection = connections.plainConnection();
+                try {
+                    connection.setReadOnly(true);
+                    pool.add(ParallelDataSeeder.newConnection(dataSource, connection, source));
+                } catch (final SQLException | DatabaseUnitException | RuntimeException e) {
+                    connection.close();
+                    throw e;
+                }
+            }
+
+            final List<Future<?>> futures = new ArrayList<Future<?>>(tables.length);
+            final List<TableErrors> errors = new ArrayList<TableErrors>(tables.length);
+            for (final String table : tables) {
+                final TableErrors tableErrors = new TableErrors();
+                errors.add(tableErrors);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final DatabaseConnection connection = pool.take();
+                        try {
+                            verifyTable(connection, new DefaultDataSet(expected.getTable(table)), config, columnFilters, excludeTables, tableErrors);
+                        } finally {
+                            pool.add(connection);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            ParallelDataSeeder.await(futures); // all tables even if one fails, they hold a read-only connection
+
+            for (final TableErrors tableErrors : errors) {
+                for (final String error : tableErrors.errors) {
+                    errorCollector.collect(error);
+                }
+            }
+        } finally {
+            ParallelDataSeeder.shutdown(executor); // running ones give back their connection
+            for (final DatabaseConnection connection : pool) {
+                try {
+                    connection.getConnection().setReadOnly(false); // can be pooled
+                    connection.close();
+                } catch (final SQLException e) {
+                    // no-op
+                }
+            }
+        }
+    }
+
+    private static void verifyTable(final DatabaseConnection connection, final IDataSet expected, final ShouldMatchDataSet config,
+                                    final Set<Class<? extends IColumnFilter>> columnFilters, final String[] excludeTables,
+                                    final AssertionErrorCollector errorCollector) throws DatabaseUnitException, SQLException {
+        if (columnFilters.isEmpty()) {
+            try {
+                if (new StreamingDataSetComparator(config.orderBy(), config.excludeColumns(), excludeTables).matches(connection, expected)) {
+                    return;
+                }
+            } catch (final DatabaseUnitException | SQLException e) {
+                // let DataSetComparator report it
+            }
+        }
+
+        IDataSet current = connection.createDataSet();
+        if (excludeTables.length != 0) {
+            current = new FilteredDataSet(new ExcludeTableFilter(excludeTables), current);
+        }
+        new DataSetComparator(config.orderBy(), config.excludeColumns(), columnFilters).compare(current, expected, errorCollector);
+    }
+
+    private static final class TableErrors extends AssertionErrorCollector {
+        private final Collection<String> errors = new ArrayList<String>();
+
+        @Override
+        public void collect(final String error) {
+            errors.add(error);
+        }
+    }
+
+    private static final class VerifierThreadFactory implements ThreadFactory {
+        private static final AtomicInteger ID = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "rule-them-all-dbunit-verifier-" + ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
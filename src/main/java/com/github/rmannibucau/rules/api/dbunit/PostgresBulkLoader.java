@@ -0,0 +1,47 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// COPY FROM STDIN through the driver CopyManager (looked up by reflection to not depend on the driver)
+public class PostgresBulkLoader extends CsvBulkLoader {
+    @Override
+    public boolean supports(final String product) {
+        return product.contains("postgre");
+    }
+
+    @Override
+    protected String format(final Object value) {
+        if (byte[].class.isInstance(value)) {
+            return "\\x" + super.format(value);
+        }
+        return super.format(value);
+    }
+
+    @Override
+    protected void load(final IDatabaseConnection connection, final String table, final String[] columns, final File csv) throws SQLException, IOException {
+        final Connection jdbc = connection.getConnection();
+        try (final Reader reader = new InputStreamReader(Files.newInputStream(csv.toPath()), StandardCharsets.UTF_8)) {
+            final Class<?> pgConnection = jdbc.getClass().getClassLoader().loadClass("org.postgresql.PGConnection");
+            final Object copyManager = pgConnection.getMethod("getCopyAPI").invoke(jdbc.unwrap(pgConnection));
+            copyManager.getClass().getMethod("copyIn", String.class, Reader.class).invoke(copyManager,
+                "COPY " + table + " (" + join(columns) + ") FROM STDIN WITH (FORMAT csv, NULL '" + nullValue() + "')", reader);
+        } catch (final InvocationTargetException e) {
+            if (SQLException.class.isInstance(e.getCause())) {
+                throw SQLException.class.cast(e.getCause());
+            }
+            throw new SQLException(e.getCause());
+        } catch (final ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw new SQLException("PostgreSQL driver CopyManager not available", e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// templates and clones are CREATE DATABASE ... TEMPLATE ... (file level copy on the server side),
+// the user needs the CREATEDB privilege and the source database must not have other sessions
+// (a pool of the source DataSource must not keep idle connections) when the template is created
+public class PostgresDatabaseTemplate implements DatabaseTemplate {
+    private static final Pattern URL = Pattern.compile("^(jdbc:postgresql:(?://[^/]*/)?)([^?]*)(.*)$");
+
+    private final String user;
+    private final String password;
+    private final String maintenanceDatabase;
+    private final ConcurrentMap<String, String> urls = new ConcurrentHashMap<String, String>();
+
+    public PostgresDatabaseTemplate(final String user, final String password) {
+        this(user, password, "postgres");
+    }
+
+    public PostgresDatabaseTemplate(final String user, final String password, final String maintenanceDatabase) {
+        this.user = user;
+        this.password = password;
+        this.maintenanceDatabase = maintenanceDatabase;
+    }
+
+    @Override
+    public void createTemplate(final DataSource source, final String template) throws SQLException {
+        final String url;
+        final String database;
+        try (final Connection connection = source.getConnection()) {
+            url = connection.getMetaData().getURL();
+            database = connection.getCatalog();
+        }
+        execute(url, "CREATE DATABASE " + quote(template) + " TEMPLATE " + quote(database));
+        urls.put(template, url);
+    }
+
+    @Override
+    public DataSource createClone(final String template, final String clone) throws SQLException {
+        final String url = urls.get(template);
+        if (url == null) {
+            throw new SQLException("No template " + template);
+        }
+        execute(url, "CREATE DATABASE " + quote(clone) + " TEMPLATE " + quote(template));
+        urls.put(clone, url);
+        return new DriverManagerDataSource(withDatabase(url, clone), user, password);
+    }
+
+    @Override
+    public void drop(final String database) throws SQLException {
+        final String url = urls.remove(database);
+        if (url != null) {
+            execute(url, "DROP DATABASE IF EXISTS " + quote(database));
+        }
+    }
+
+    // CREATE/DROP DATABASE can't run connected to the databases they use
+    private void execute(final String url, final String sql) throws SQLException {
+        try (final Connection connection = DriverManager.getConnection(withDatabase(url, maintenanceDatabase), user, password);
+             final Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static String withDatabase(final String url, final String database) {
+        final Matcher matcher = URL.matcher(url);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported url: " + url);
+        }
+        return matcher.group(1) + database + matcher.group(3);
+    }
+
+    private static String quote(final String name) {
+        return '"' + name.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,197 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// EXPLAIN of the statements a test executed, one per SQL shape with the parameters of its first execution,
+// to flag the full scans of tables holding more rows than a threshold (typically a missing index).
+// Only SELECT, UPDATE and DELETE are explained, the scanned tables are read from the plan format of each database.
+abstract class QueryPlan {
+    private static final QueryPlan[] DIALECTS = { new H2(), new Postgres(), new MySql() };
+    private static final Pattern EXPLAINABLE = Pattern.compile("^\\s*(?:select|with|update|delete)\\b", Pattern.CASE_INSENSITIVE);
+
+    static QueryPlan find(final String product) {
+        for (final QueryPlan plan : DIALECTS) {
+            if (plan.supports(product)) {
+                return plan;
+            }
+        }
+        return null;
+    }
+
+    static boolean isExplainable(final String sql) {
+        return sql != null && EXPLAINABLE.matcher(sql).find();
+    }
+
+    protected abstract boolean supports(String product);
+
+    // the plan text, the names of the fully scanned tables are added to scanned
+    protected abstract String read(ResultSet rs, Collection<String> scanned) throws SQLException;
+
+    // run before the cleanup to get the plans of the seeded data, a failing EXPLAIN is kept as the plan
+    void explain(final Connection connection, final QueryStatistics statistics, final long threshold) throws SQLException {
+        final Map<String, Long> counts = new HashMap<String, Long>();
+        for (final QueryStatistics.Shape shape : statistics.getShapes()) {
+            final String sql = shape.getSampleSql();
+            if (sql == null) {
+                continue;
+            }
+
+            final Collection<String> scanned = new LinkedHashSet<String>();
+            final String plan;
+            final Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint(); // don't break a transaction
+            try (final PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                for (final Object[] parameter : shape.getSampleParameters()) {
+                    Method.class.cast(parameter[0]).invoke(statement, Object[].class.cast(parameter[1]));
+                }
+                try (final ResultSet rs = statement.executeQuery()) {
+                    plan = read(rs, scanned);
+                }
+            } catch (final SQLException | IllegalAccessException | InvocationTargetException e) {
+                if (savepoint != null) {
+                    connection.rollback(savepoint);
+                }
+                final Throwable cause = InvocationTargetException.class.isInstance(e) ? e.getCause() : e;
+                shape.plan("Can't explain: " + cause.getMessage(), new LinkedHashMap<String, Long>());
+                continue;
+            }
+
+            final Map<String, Long> fullScans = new LinkedHashMap<String, Long>();
+            for (final String table : scanned) {
+                Long count = counts.get(table);
+                if (count == null) {
+                    count = count(connection, table);
+                    counts.put(table, count);
+                }
+                if (count > threshold) {
+                    fullScans.put(table, count);
+                }
+            }
+            shape.plan(plan, fullScans);
+        }
+    }
+
+    // directory/<test class>.<test method>.txt
+    static void report(final File directory, final Class<?> testClass, final String method, final QueryStatistics statistics) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        try (final Writer writer = new OutputStreamWriter(
+            new FileOutputStream(new File(directory, testClass.getName() + '.' + method + ".txt")), StandardCharsets.UTF_8)) {
+            writer.write(statistics.toString());
+            writer.write('\n');
+            for (final QueryStatistics.Shape shape : statistics.getShapes()) {
+                writer.write("\n" + shape + '\n');
+                for (final Map.Entry<String, Long> scan : shape.getFullScans().entrySet()) {
+                    writer.write("  full scan of " + scan.getKey() + " (" + scan.getValue() + " rows)\n");
+                }
+                if (shape.getPlan() != null) {
+                    writer.write("  " + shape.getPlan().replace("\n", "\n  ") + '\n');
+                }
+            }
+        }
+    }
+
+    // -1 when the name of the plan is not a table (alias, derived table)
+    private static long count(final Connection connection, final String table) throws SQLException {
+        final Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+        try (final Statement statement = connection.createStatement();
+             final ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : -1;
+        } catch (final SQLException e) {
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+            return -1;
+        }
+    }
+
+    private static String lines(final ResultSet rs, final Pattern scan, final Collection<String> scanned) throws SQLException {
+        final StringBuilder plan = new StringBuilder();
+        while (rs.next()) {
+            final String line = rs.getString(1);
+            if (plan.length() > 0) {
+                plan.append('\n');
+            }
+            plan.append(line);
+            final Matcher matcher = scan.matcher(line);
+            while (matcher.find()) {
+                scanned.add(matcher.group(1));
+            }
+        }
+        return plan.toString();
+    }
+
+    private static final class H2 extends QueryPlan {
+        private static final Pattern TABLE_SCAN = Pattern.compile("/\\*\\s*([^\\s/*]+)\\.tableScan\\b");
+
+        @Override
+        protected boolean supports(final String product) {
+            return product.contains("h2");
+        }
+
+        @Override
+        protected String read(final ResultSet rs, final Collection<String> scanned) throws SQLException {
+            return lines(rs, TABLE_SCAN, scanned);
+        }
+    }
+
+    private static final class Postgres extends QueryPlan {
+        private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\S+)");
+
+        @Override
+        protected boolean supports(final String product) {
+            return product.contains("postgre");
+        }
+
+        @Override
+        protected String read(final ResultSet rs, final Collection<String> scanned) throws SQLException {
+            return lines(rs, SEQ_SCAN, scanned);
+        }
+    }
+
+    private static final class MySql extends QueryPlan {
+        @Override
+        protected boolean supports(final String product) {
+            return product.contains("mysql") || product.contains("mariadb");
+        }
+
+        @Override
+        protected String read(final ResultSet rs, final Collection<String> scanned) throws SQLException { // tabular plan
+            final ResultSetMetaData metaData = rs.getMetaData();
+            final StringBuilder plan = new StringBuilder();
+            while (rs.next()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    plan.append(i > 1 ? ", " : "").append(metaData.getColumnLabel(i)).append('=').append(rs.getString(i));
+                }
+                if ("ALL".equalsIgnoreCase(rs.getString("type")) && rs.getString("table") != null) {
+                    scanned.add(rs.getString("table"));
+                }
+            }
+            return plan.toString();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// what the test executed through getDataSource() (or a @UnitInject DataSource field) grouped by SQL shape
+// (literals replaced by ?, IN lists collapsed and whitespaces normalized): queries (executions, a batch counts once),
+// statements (each batched statement counts), fetched rows and time spent in executions and ResultSet.next().
+// When sampling, the first execution of each shape is kept to get its plan (see QueryPlan).
+public final class QueryStatistics {
+    private static final Pattern STRING = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER = Pattern.compile("(?<![\\w$#.])-?\\d+(?:\\.\\d+)?(?![\\w$#])");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final ConcurrentMap<String, Shape> shapes = new ConcurrentHashMap<String, Shape>();
+    private final ConcurrentMap<String, Shape> bySql = new ConcurrentHashMap<String, Shape>(); // avoids to normalize again
+    private final boolean sampling;
+
+    public QueryStatistics() {
+        this(false);
+    }
+
+    QueryStatistics(final boolean sampling) {
+        this.sampling = sampling;
+    }
+
+    boolean isSampling() {
+        return sampling;
+    }
+
+    Shape shapeOf(final String sql) {
+        final String raw = sql == null ? "" : sql;
+        Shape shape = bySql.get(raw);
+        if (shape == null) {
+            final String normalized = normalize(raw);
+            shape = shapes.get(normalized);
+            if (shape == null) {
+                final Shape created = new Shape(normalized);
+                final Shape existing = shapes.putIfAbsent(normalized, created);
+                shape = existing != null ? existing : created;
+            }
+            bySql.putIfAbsent(raw, shape);
+        }
+        return shape;
+    }
+
+    public long getQueries() {
+        long total = 0;
+        for (final Shape shape : shapes.values()) {
+            total += shape.getQueries();
+        }
+        return total;
+    }
+
+    public long getStatements() {
+        long total = 0;
+        for (final Shape shape : shapes.values()) {
+            total += shape.getStatements();
+        }
+        return total;
+    }
+
+    public long getRowsFetched() {
+        long total = 0;
+        for (final Shape shape : shapes.values()) {
+            total += shape.getRowsFetched();
+        }
+        return total;
+    }
+
+    public long getTime(final TimeUnit unit) {
+        long total = 0;
+        for (final Shape shape : shapes.values()) {
+            total += shape.nanos.get();
+        }
+        return unit.convert(total, TimeUnit.NANOSECONDS);
+    }
+
+    // the most executed first
+    public List<Shape> getShapes() {
+        final List<Shape> list = new ArrayList<Shape>(shapes.values());
+        Collections.sort(list, new Comparator<Shape>() {
+            @Override
+            public int compare(final Shape o1, final Shape o2) {
+                final int queries = Long.compare(o2.getQueries(), o1.getQueries());
+                return queries != 0 ? queries : Long.compare(o2.getRowsFetched(), o1.getRowsFetched());
+            }
+        });
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder()
+            .append(getQueries()).append(" queries, ").append(getStatements()).append(" statements, ")
+            .append(getRowsFetched()).append(" rows fetched in ").append(getTime(TimeUnit.MILLISECONDS)).append("ms");
+        for (final Shape shape : getShapes()) {
+            builder.append("\n  ").append(shape);
+        }
+        return builder.toString();
+    }
+
+    static String normalize(final String sql) {
+        String shape = STRING.matcher(sql).replaceAll("?");
+        shape = NUMBER.matcher(shape).replaceAll("?");
+        shape = IN_LIST.matcher(shape).replaceAll("(?)");
+        return SPACES.matcher(shape).replaceAll(" ").trim();
+    }
+
+    public static final class Shape {
+        private final String sql;
+        private final AtomicLong queries = new AtomicLong();
+        private final AtomicLong statements = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicBoolean sampled = new AtomicBoolean();
+        private volatile String sampleSql;
+        private volatile List<Object[]> sampleParameters; // {PreparedStatement setter, its arguments}
+        private volatile String plan;
+        private volatile Map<String, Long> fullScans = new LinkedHashMap<String, Long>();
+
+        private Shape(final String sql) {
+            this.sql = sql;
+        }
+
+        void onExecution(final long statements, final long nanos) {
+            this.queries.incrementAndGet();
+            this.statements.addAndGet(statements);
+            this.nanos.addAndGet(nanos);
+        }
+
+        void onNext(final boolean row, final long nanos) {
+            if (row) {
+                rows.incrementAndGet();
+            }
+            this.nanos.addAndGet(nanos);
+        }
+
+        // true for the first execution only
+        boolean needsSample() {
+            return sampled.compareAndSet(false, true);
+        }
+
+        void sample(final String sql, final List<Object[]> parameters) {
+            this.sampleParameters = parameters;
+            this.sampleSql = sql;
+        }
+
+        String getSampleSql() {
+            return sampleSql;
+        }
+
+        List<Object[]> getSampleParameters() {
+            return sampleParameters;
+        }
+
+        void plan(final String plan, final Map<String, Long> fullScans) {
+            this.plan = plan;
+            this.fullScans = fullScans;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getQueries() {
+            return queries.get();
+        }
+
+        public long getStatements() {
+            return statements.get();
+        }
+
+        public long getRowsFetched() {
+            return rows.get();
+        }
+
+        public long getTime(final TimeUnit unit) {
+            return unit.convert(nanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        // EXPLAIN output of the first execution, null if not explained
+        public String getPlan() {
+            return plan;
+        }
+
+        // row count of the tables the plan fully scans above the threshold
+        public Map<String, Long> getFullScans() {
+            return Collections.unmodifiableMap(fullScans);
+        }
+
+        @Override
+        public String toString() {
+            return queries.get() + "x " + sql + " (" + rows.get() + " rows, " + getTime(TimeUnit.MILLISECONDS) + "ms)";
+        }
+    }
+}
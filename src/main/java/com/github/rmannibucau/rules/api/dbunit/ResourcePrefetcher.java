@@ -0,0 +1,178 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.jboss.arquillian.persistence.core.configuration.PersistenceConfiguration;
+import org.jboss.arquillian.persistence.core.metadata.MetadataExtractor;
+import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionFeatureResolver;
+import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionScriptingFeatureResolver;
+import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitConfiguration;
+import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
+import org.jboss.arquillian.persistence.dbunit.data.provider.DataSetProvider;
+import org.jboss.arquillian.persistence.dbunit.data.provider.ExpectedDataSetProvider;
+import org.jboss.arquillian.persistence.script.configuration.ScriptingConfiguration;
+import org.jboss.arquillian.persistence.script.data.descriptor.SqlScriptResourceDescriptor;
+import org.jboss.arquillian.persistence.script.data.provider.SqlScriptProvider;
+import org.jboss.arquillian.test.spi.TestClass;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// when the first test of a class starts, reads the datasets (@UsingDataSet, @ShouldMatchDataSet) and scripts
+// (@ApplyScriptBefore, @CleanupUsingScript) of all its test methods and parses them in parallel on a fork-join pool
+// while the test gets its connection, next tests find them in DataSetCache and the SqlScriptExecutor split cache.
+// Failures are ignored, the test using the resource reports them.
+// It reads the annotations with its own MetadataExtractor, the one of TestClassMetadata is in use by the tests meanwhile.
+final class ResourcePrefetcher extends RecursiveAction {
+    private final ClassLoader loader; // resources are looked up from the context classloader
+    private final Class<?> testClass;
+    private final Method first;
+    private final PersistenceConfiguration persistenceConfiguration;
+    private final ScriptingConfiguration scriptingConfiguration;
+    private final DBUnitConfiguration dbUnitConfiguration;
+
+    private ResourcePrefetcher(final Class<?> testClass, final Method first,
+                               final PersistenceConfiguration persistenceConfiguration, final ScriptingConfiguration scriptingConfiguration,
+                               final DBUnitConfiguration dbUnitConfiguration) {
+        this.loader = Thread.currentThread().getContextClassLoader();
+        this.testClass = testClass;
+        this.first = first;
+        this.persistenceConfiguration = persistenceConfiguration;
+        this.scriptingConfiguration = scriptingConfiguration;
+        this.dbUnitConfiguration = dbUnitConfiguration;
+    }
+
+    // the resources of first are loaded first since its test is waiting for them
+    static ForkJoinTask<Void> start(final Class<?> testClass, final Method first,
+                                    final PersistenceConfiguration persistenceConfiguration, final ScriptingConfiguration scriptingConfiguration,
+                                    final DBUnitConfiguration dbUnitConfiguration) {
+        return Pool.INSTANCE.submit(new ResourcePrefetcher(
+            testClass, first, persistenceConfiguration, scriptingConfiguration, dbUnitConfiguration));
+    }
+
+    @Override
+    protected void compute() {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader old = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            prefetch();
+        } finally {
+            thread.setContextClassLoader(old);
+        }
+    }
+
+    private void prefetch() {
+        final List<Method> methods = new ArrayList<Method>();
+        methods.add(first);
+        for (final Method method : testClass.getMethods()) {
+            if (method.isAnnotationPresent(Test.class) && !method.equals(first)) {
+                methods.add(method);
+            }
+        }
+
+        final TestClass arquillianTestClass = new TestClass(testClass);
+        final MetadataExtractor metadataExtractor = new MetadataExtractor(arquillianTestClass);
+        final DataSetProvider dataSetProvider = new DataSetProvider(metadataExtractor, dbUnitConfiguration);
+        final ExpectedDataSetProvider expectedDataSetProvider = new ExpectedDataSetProvider(metadataExtractor, dbUnitConfiguration);
+        final Collection<Object> seen = new HashSet<Object>();
+        final Collection<RecursiveAction> loads = new ArrayList<RecursiveAction>();
+        for (final Method method : methods) {
+            try {
+                final PersistenceExtensionFeatureResolver featureResolver = new PersistenceExtensionFeatureResolver(
+                    method, metadataExtractor, persistenceConfiguration);
+                final Collection<DataSetResourceDescriptor> dataSets = new ArrayList<DataSetResourceDescriptor>();
+                if (featureResolver.shouldSeedData()) {
+                    dataSets.addAll(dataSetProvider.getDescriptorsDefinedFor(method));
+                }
+                if (featureResolver.shouldVerifyDataAfterTest()) {
+                    dataSets.addAll(expectedDataSetProvider.getDescriptorsDefinedFor(method));
+                }
+                for (final DataSetResourceDescriptor dataSet : dataSets) {
+                    if (seen.add(dataSet)) {
+                        loads.add(new DataSetLoad(loader, dataSet));
+                    }
+                }
+
+                final PersistenceExtensionScriptingFeatureResolver scriptingFeatureResolver = new PersistenceExtensionScriptingFeatureResolver(
+                    method, metadataExtractor, scriptingConfiguration);
+                final Collection<SqlScriptResourceDescriptor> scripts = new ArrayList<SqlScriptResourceDescriptor>();
+                if (featureResolver.shouldCustomScriptBeAppliedBeforeTestRequested()) {
+                    scripts.addAll(SqlScriptProvider.createProviderForScriptsToBeAppliedBeforeTest(arquillianTestClass, scriptingConfiguration)
+                        .getDescriptorsDefinedFor(method));
+                }
+                if (scriptingFeatureResolver.shouldCleanupUsingScriptBefore() || scriptingFeatureResolver.shouldCleanupUsingScriptAfter()) {
+                    scripts.addAll(SqlScriptProvider.createProviderForCleanupScripts(arquillianTestClass, scriptingConfiguration)
+                        .getDescriptorsDefinedFor(method));
+                }
+                for (final SqlScriptResourceDescriptor script : scripts) {
+                    if (seen.add(script.getLocation())) {
+                        loads.add(new ScriptLoad(loader, scriptingConfiguration, script));
+                    }
+                }
+            } catch (final RuntimeException e) {
+                // the test reports it
+            }
+        }
+        invokeAll(loads);
+    }
+
+    private static final class DataSetLoad extends RecursiveAction {
+        private final ClassLoader loader;
+        private final DataSetResourceDescriptor descriptor;
+
+        private DataSetLoad(final ClassLoader loader, final DataSetResourceDescriptor descriptor) {
+            this.loader = loader;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        protected void compute() {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader old = thread.getContextClassLoader();
+            thread.setContextClassLoader(loader);
+            try {
+                DataSetCache.getInstance().get(descriptor);
+            } catch (final RuntimeException e) {
+                // the test reports it
+            } finally {
+                thread.setContextClassLoader(old);
+            }
+        }
+    }
+
+    private static final class ScriptLoad extends RecursiveAction {
+        private final ClassLoader loader;
+        private final ScriptingConfiguration configuration;
+        private final SqlScriptResourceDescriptor descriptor;
+
+        private ScriptLoad(final ClassLoader loader, final ScriptingConfiguration configuration, final SqlScriptResourceDescriptor descriptor) {
+            this.loader = loader;
+            this.configuration = configuration;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        protected void compute() {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader old = thread.getContextClassLoader();
+            thread.setContextClassLoader(loader);
+            try {
+                SqlScriptExecutor.prepare(configuration, descriptor.getLocation(), descriptor.getContent());
+            } catch (final RuntimeException e) {
+                // the test reports it
+            } finally {
+                thread.setContextClassLoader(old);
+            }
+        }
+    }
+
+    private static final class Pool { // lazy, worker threads are daemons
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+// wraps the seeding and the test in a transaction (or a savepoint if the connection is already in a transaction)
+// which is rolled back at the end of the test instead of cleaning up the database
+final class RollbackTransaction {
+    private final Connection connection;
+    private final boolean autoCommit;
+    private final Savepoint start;
+    private Savepoint fixture;
+
+    RollbackTransaction(final Connection connection) throws SQLException {
+        this.connection = connection;
+        this.autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+            start = null;
+        } else {
+            start = connection.setSavepoint();
+        }
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    // marks the end of the seeding, a rollback() from the test only reverts to this point
+    void seeded() throws SQLException {
+        fixture = connection.setSavepoint();
+    }
+
+    void rollbackToFixture() throws SQLException {
+        if (fixture != null) {
+            connection.rollback(fixture);
+            fixture = connection.setSavepoint();
+        } else {
+            rollback();
+        }
+    }
+
+    void rollback() throws SQLException {
+        try {
+            if (start == null) {
+                connection.rollback();
+            } else {
+                connection.rollback(start);
+            }
+        } finally {
+            if (autoCommit) {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.util.Random;
+
+// values of a @GeneratedDataSet table (foreign keys excepted), needs a public no-arg constructor.
+// The random is seeded for the row so using only it (and the row) keeps the data reproducible.
+// Primary key values must only depend on the row: references to the table are computed from the row index.
+public interface RowGenerator {
+    Object generate(GeneratedColumn column, int row, Random random);
+}
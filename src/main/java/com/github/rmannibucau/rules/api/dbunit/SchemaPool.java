@@ -0,0 +1,187 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.jboss.arquillian.persistence.script.configuration.ScriptingConfiguration;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// leases a schema per running test to execute DbUnit tests in parallel (threads or forks) on the same database.
+// Schemas are created and migrated (migration scripts are classpath resources) the first time they are leased
+// then reused, when all of them are leased the next test waits for one.
+// Share the pool between the rule instances (static field).
+public class SchemaPool {
+    // surefire only exposes its fork number if forwarded, ex: <rule-them-all.dbunit.fork>${surefire.forkNumber}</rule-them-all.dbunit.fork>
+    private static final String FORK = System.getProperty("rule-them-all.dbunit.fork", System.getProperty("surefire.forkNumber", "1"));
+
+    private final String prefix;
+    private final int size;
+    private final String[] migrations;
+    private final Map<DataSource, Schemas> schemas = new IdentityHashMap<DataSource, Schemas>();
+
+    public SchemaPool(final int size, final String... migrations) {
+        this("RTA_" + FORK + "_", size, migrations);
+    }
+
+    public SchemaPool(final String prefix, final int size, final String... migrations) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size should be > 0");
+        }
+        this.prefix = prefix;
+        this.size = size;
+        this.migrations = migrations;
+    }
+
+    Lease acquire(final DataSource dataSource, final ScriptingConfiguration configuration) throws SQLException {
+        final Schemas pool;
+        synchronized (schemas) {
+            Schemas existing = schemas.get(dataSource);
+            if (existing == null) {
+                existing = new Schemas();
+                schemas.put(dataSource, existing);
+            }
+            pool = existing;
+        }
+
+        final String name;
+        synchronized (pool) {
+            while (pool.free.isEmpty() && pool.created == size) {
+                try {
+                    pool.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (!pool.free.isEmpty()) {
+                return new Lease(pool, pool.free.pop());
+            }
+            name = prefix + pool.created++;
+        }
+
+        try { // outside the lock to create the schemas of the workers concurrently
+            create(dataSource, name, configuration);
+        } catch (final SQLException | RuntimeException | Error e) {
+            synchronized (pool) {
+                pool.created--;
+                pool.notifyAll();
+            }
+            throw e;
+        }
+        return new Lease(pool, name);
+    }
+
+    // override it for databases without CREATE SCHEMA IF NOT EXISTS
+    protected void createSchema(final Connection connection, final String schema) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+        }
+    }
+
+    private void create(final DataSource dataSource, final String schema, final ScriptingConfiguration configuration) throws SQLException {
+        try (final Connection connection = dataSource.getConnection()) {
+            createSchema(connection, schema);
+            use(connection, schema);
+
+            final SqlScriptExecutor executor = new SqlScriptExecutor(connection, configuration);
+            for (final String migration : migrations) {
+                final String script = read(migration);
+                try {
+                    executor.execute(migration, script);
+                } finally {
+                    DatabaseMetaDataCache.getInstance().onScript(dataSource, script);
+                }
+            }
+        }
+    }
+
+    // Connection.setSchema() is JDBC 4.1, fallback on the SQL statement of the database for older drivers
+    static void use(final Connection connection, final String schema) throws SQLException {
+        try {
+            connection.setSchema(schema);
+            return;
+        } catch (final AbstractMethodError | SQLFeatureNotSupportedException e) {
+            // no-op
+        }
+
+        final String product = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ENGLISH);
+        final String sql;
+        if (product.contains("postgres")) {
+            sql = "SET search_path TO " + schema;
+        } else if (product.contains("mysql") || product.contains("mariadb")) {
+            sql = "USE " + schema;
+        } else if (product.contains("oracle")) {
+            sql = "ALTER SESSION SET CURRENT_SCHEMA = " + schema;
+        } else {
+            sql = "SET SCHEMA " + schema;
+        }
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    // fallback when the driver doesn't support Connection.getSchema() (JDBC 4.1)
+    static String current(final Connection connection, final String fallback) {
+        try {
+            final String schema = connection.getSchema();
+            return schema != null ? schema : fallback;
+        } catch (final AbstractMethodError | SQLException e) {
+            return fallback;
+        }
+    }
+
+    private static String read(final String resource) {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try (final InputStream stream = (loader != null ? loader : SchemaPool.class.getClassLoader()).getResourceAsStream(resource)) {
+            if (stream == null) {
+                throw new IllegalArgumentException("No migration script " + resource);
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Lease {
+        private final Schemas pool;
+        private final String schema;
+
+        private Lease(final Schemas pool, final String schema) {
+            this.pool = pool;
+            this.schema = schema;
+        }
+
+        String getSchema() {
+            return schema;
+        }
+
+        void release() {
+            synchronized (pool) {
+                pool.free.push(schema);
+                pool.notifyAll();
+            }
+        }
+    }
+
+    private static final class Schemas {
+        private final Deque<String> free = new ArrayDeque<String>();
+        private int created;
+    }
+}
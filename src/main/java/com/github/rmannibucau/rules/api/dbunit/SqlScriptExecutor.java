@@ -0,0 +1,135 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.jboss.arquillian.persistence.core.exception.ScriptExecutionException;
+import org.jboss.arquillian.persistence.script.configuration.ScriptingConfiguration;
+import org.jboss.arquillian.persistence.script.splitter.DefaultStatementSplitter;
+import org.jboss.arquillian.persistence.script.splitter.StatementSplitterResolver;
+import org.jboss.arquillian.persistence.spi.script.StatementSplitter;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+// replaces arquillian ScriptExecutor: split statements are cached per script location and dialect
+// (the content is still compared to pick up changes) and consecutive DML statements are sent as a JDBC batch
+final class SqlScriptExecutor {
+    private static final Logger LOGGER = Logger.getLogger(SqlScriptExecutor.class.getName());
+    private static final Pattern DML = Pattern.compile("^\\s*(insert|update|delete|merge)\\s", Pattern.CASE_INSENSITIVE);
+    private static final ConcurrentMap<String, SplitScript> CACHE = new ConcurrentHashMap<String, SplitScript>();
+
+    private final Connection connection;
+    private final ScriptingConfiguration configuration;
+    private StatementSplitter splitter; // lazy since only needed on cache misses
+    private Boolean batchSupported;
+
+    SqlScriptExecutor(final Connection connection, final ScriptingConfiguration configuration) {
+        this.connection = connection;
+        this.configuration = configuration;
+    }
+
+    // fills the split cache, no connection needed
+    static void prepare(final ScriptingConfiguration configuration, final String location, final String script) {
+        new SqlScriptExecutor(null, configuration).split(location, script);
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    void execute(final String location, final String script) throws SQLException {
+        final long start = System.nanoTime();
+        final List<String> statements = split(location, script);
+
+        final List<String> batch = new ArrayList<String>();
+        for (final String statement : statements) {
+            if (configuration.isShowSql()) {
+                LOGGER.info("Executing SQL statement: " + statement);
+            }
+            if (DML.matcher(statement).find() && isBatchSupported()) {
+                batch.add(statement);
+                continue;
+            }
+            flush(batch);
+            executeStatement(statement);
+        }
+        flush(batch);
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Executed " + (location.equals(script) ? "inline script" : location) + " (" + statements.size() + " statements) in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        }
+    }
+
+    private List<String> split(final String location, final String script) {
+        final String key = configuration.getSqlDialect() + '|' + configuration.getSqlStatementDelimiter() + '|' + location;
+        final SplitScript cached = CACHE.get(key);
+        if (cached != null && cached.content.equals(script)) {
+            return cached.statements;
+        }
+        final List<String> statements = Collections.unmodifiableList(new ArrayList<String>(getSplitter().splitStatements(script)));
+        CACHE.put(key, new SplitScript(script, statements));
+        return statements;
+    }
+
+    private StatementSplitter getSplitter() {
+        if (splitter == null) {
+            // spi is done through SW so handle default manually
+            splitter = "default".equalsIgnoreCase(configuration.getSqlDialect()) ?
+                new DefaultStatementSplitter() : new StatementSplitterResolver(configuration).resolve();
+        }
+        return splitter;
+    }
+
+    private boolean isBatchSupported() throws SQLException {
+        if (batchSupported == null) {
+            batchSupported = connection.getMetaData().supportsBatchUpdates();
+        }
+        return batchSupported;
+    }
+
+    private void flush(final List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            executeStatement(batch.get(0));
+        } else {
+            try (final Statement statement = connection.createStatement()) {
+                for (final String sql : batch) {
+                    statement.addBatch(sql);
+                }
+                statement.executeBatch();
+            } catch (final SQLException e) {
+                throw new ScriptExecutionException("Unable to execute statements: " + batch, e);
+            }
+        }
+        batch.clear();
+    }
+
+    private void executeStatement(final String sql) {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (final SQLException e) {
+            throw new ScriptExecutionException("Unable to execute statement: " + sql, e);
+        }
+    }
+
+    private static final class SplitScript {
+        private final String content;
+        private final List<String> statements;
+
+        private SplitScript(final String content, final List<String> statements) {
+            this.content = content;
+            this.statements = statements;
+        }
+    }
+}
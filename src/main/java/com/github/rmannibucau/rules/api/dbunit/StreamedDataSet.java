@@ -0,0 +1,531 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.AbstractDataSet;
+import org.dbunit.dataset.AbstractTable;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.RowOutOfBoundsException;
+import org.dbunit.dataset.datatype.DataType;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// a dataset parsed while it is iterated, only the current row is in memory so it can only be read forward
+// (no reverse iteration nor random table access, getTableNames() is a full pass).
+// Rows are read as records (table, columns, values): a table starts with the columns of its first record
+// and is split in another table when a record has a column it doesn't have, missing columns are null.
+// Formats:
+// - flat xml (.xml): <dataset><table column="value"/></dataset>, a DTD is ignored
+// - yaml (.yml/.yaml): the arquillian persistence structure (table: list of rows)
+// - csv (.csv): one table named as the file, the first line is the header and an unquoted null is a null value
+final class StreamedDataSet extends AbstractDataSet implements Closeable {
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final String location;
+    private final ClassLoader loader;
+    private final Collection<String> streamedTables = new LinkedHashSet<String>();
+    private RecordReader reader;
+
+    StreamedDataSet(final String location) {
+        super(false);
+        this.location = location;
+        this.loader = Thread.currentThread().getContextClassLoader();
+    }
+
+    // tables iterated so far, avoids a pass to know what was seeded
+    Collection<String> getStreamedTableNames() {
+        return streamedTables;
+    }
+
+    @Override
+    protected ITableIterator createIterator(final boolean reversed) throws DataSetException {
+        if (reversed) {
+            throw new UnsupportedOperationException(location + " is streamed, it can't be iterated in reverse order");
+        }
+        close();
+        reader = open();
+        return new Tables(new Segments(reader));
+    }
+
+    // AbstractDataSet would load all tables to index them (and rejects split tables)
+    @Override
+    public String[] getTableNames() throws DataSetException {
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        final ITableIterator iterator = createIterator(false);
+        while (iterator.next()) {
+            final String name = iterator.getTableMetaData().getTableName();
+            final String key = name.toUpperCase(Locale.ENGLISH);
+            if (!names.containsKey(key)) {
+                names.put(key, name);
+            }
+        }
+        return names.values().toArray(new String[names.size()]);
+    }
+
+    @Override
+    public ITableMetaData getTableMetaData(final String tableName) {
+        throw new UnsupportedOperationException(location + " is streamed, use iterator()");
+    }
+
+    @Override
+    public ITable getTable(final String tableName) {
+        throw new UnsupportedOperationException(location + " is streamed, use iterator()");
+    }
+
+    @Override
+    public void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (final IOException e) {
+                // no-op
+            }
+            reader = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StreamedDataSet{" + location + '}';
+    }
+
+    private RecordReader open() throws DataSetException {
+        final String extension = location.substring(location.lastIndexOf('.') + 1).toLowerCase(Locale.ENGLISH);
+        if (!"xml".equals(extension) && !"yml".equals(extension) && !"yaml".equals(extension) && !"csv".equals(extension)) {
+            throw new DataSetException("Unsupported streamed dataset format: " + location);
+        }
+
+        final InputStream stream = loader.getResourceAsStream(location);
+        if (stream == null) {
+            throw new DataSetException("Can't find " + location);
+        }
+        try {
+            switch (extension) {
+                case "xml":
+                    return new FlatXmlReader(stream);
+                case "csv":
+                    final String name = location.substring(location.lastIndexOf('/') + 1);
+                    return new CsvReader(location, name.substring(0, name.length() - ".csv".length()), stream);
+                default:
+                    return new YamlReader(stream);
+            }
+        } catch (final XMLStreamException | IOException | RuntimeException e) {
+            try {
+                stream.close();
+            } catch (final IOException ignored) {
+                // no-op
+            }
+            throw new DataSetException("Can't read " + location, e);
+        }
+    }
+
+    private final class Tables implements ITableIterator {
+        private final Segments segments;
+        private StreamedTable current;
+
+        private Tables(final Segments segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public boolean next() throws DataSetException {
+            if (current != null) {
+                current.skip();
+            }
+            final ITableMetaData metaData = segments.nextTable();
+            if (metaData == null) {
+                current = null;
+                close();
+                return false;
+            }
+            streamedTables.add(metaData.getTableName());
+            current = new StreamedTable(metaData, segments);
+            return true;
+        }
+
+        @Override
+        public ITableMetaData getTableMetaData() {
+            return current.getTableMetaData();
+        }
+
+        @Override
+        public ITable getTable() {
+            return current;
+        }
+    }
+
+    // only the current row is readable (several times), reading a row after the last one throws RowOutOfBoundsException
+    private static final class StreamedTable extends AbstractTable {
+        private final ITableMetaData metaData;
+        private final Segments segments;
+        private int row = -1;
+        private Object[] values;
+        private boolean end;
+
+        private StreamedTable(final ITableMetaData metaData, final Segments segments) {
+            this.metaData = metaData;
+            this.segments = segments;
+        }
+
+        @Override
+        public ITableMetaData getTableMetaData() {
+            return metaData;
+        }
+
+        @Override
+        public int getRowCount() {
+            throw new UnsupportedOperationException(metaData.getTableName() + " is streamed, its size is unknown");
+        }
+
+        @Override
+        public Object getValue(final int row, final String column) throws DataSetException {
+            if (row < this.row) {
+                throw new UnsupportedOperationException(metaData.getTableName() + " is streamed, row " + row + " was already read");
+            }
+            while (this.row < row) {
+                if (end || (values = segments.nextRow()) == null) {
+                    end = true;
+                    throw new RowOutOfBoundsException(row + " > " + this.row);
+                }
+                this.row++;
+            }
+            return values[getColumnIndex(column)];
+        }
+
+        private void skip() throws DataSetException {
+            while (!end) {
+                end = segments.nextRow() == null;
+            }
+        }
+    }
+
+    // groups consecutive records of a table with compatible columns
+    private static final class Segments {
+        private final RecordReader reader;
+        private boolean pending; // the reader holds a record not consumed yet
+        private boolean first; // the pending record is the first row of the current table
+        private ITableMetaData metaData;
+        private Map<String, Integer> indices;
+
+        private Segments(final RecordReader reader) {
+            this.reader = reader;
+        }
+
+        private ITableMetaData nextTable() throws DataSetException {
+            if (!pending && !reader.read()) {
+                return null;
+            }
+            final Column[] columns = new Column[reader.columns.size()];
+            indices = new HashMap<String, Integer>();
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = new Column(reader.columns.get(i), DataType.UNKNOWN);
+                indices.put(columns[i].getColumnName().toUpperCase(Locale.ENGLISH), i);
+            }
+            metaData = new DefaultTableMetaData(reader.table, columns);
+            pending = columns.length > 0; // else it just declares the table (no row)
+            first = pending;
+            return metaData;
+        }
+
+        private Object[] nextRow() throws DataSetException {
+            if (first) {
+                first = false;
+                pending = false;
+                return toRow();
+            }
+            if (pending || !reader.read()) {
+                return null;
+            }
+            pending = true;
+            if (reader.columns.isEmpty() || !reader.table.equals(metaData.getTableName())) {
+                return null;
+            }
+            for (final String column : reader.columns) {
+                if (!indices.containsKey(column.toUpperCase(Locale.ENGLISH))) {
+                    return null;
+                }
+            }
+            pending = false;
+            return toRow();
+        }
+
+        private Object[] toRow() throws DataSetException {
+            if (reader.values.size() != reader.columns.size()) {
+                throw new DataSetException(reader.table + " record has " + reader.values.size() + " values for " + reader.columns.size() + " columns");
+            }
+            final Object[] row = new Object[indices.size()];
+            for (int i = 0; i < reader.columns.size(); i++) {
+                final Object value = reader.values.get(i);
+                row[indices.get(reader.columns.get(i).toUpperCase(Locale.ENGLISH))] = "[null]".equals(value) ? null : value; // as arquillian
+            }
+            return row;
+        }
+    }
+
+    // fills table/columns/values with the next record, a record without columns declares an empty table
+    private abstract static class RecordReader implements Closeable {
+        protected String table;
+        protected final List<String> columns = new ArrayList<String>();
+        protected final List<Object> values = new ArrayList<Object>();
+
+        protected abstract boolean read() throws DataSetException;
+    }
+
+    private static final class FlatXmlReader extends RecordReader {
+        private final InputStream stream;
+        private final XMLStreamReader xml;
+        private int depth;
+
+        private FlatXmlReader(final InputStream stream) throws XMLStreamException {
+            this.stream = stream;
+            this.xml = XML_FACTORY.createXMLStreamReader(stream);
+        }
+
+        @Override
+        protected boolean read() throws DataSetException {
+            try {
+                while (xml.hasNext()) {
+                    final int event = xml.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    } else if (event == XMLStreamConstants.START_ELEMENT && ++depth == 2) { // depth 1 is <dataset>
+                        table = xml.getLocalName();
+                        columns.clear();
+                        values.clear();
+                        for (int i = 0; i < xml.getAttributeCount(); i++) {
+                            columns.add(xml.getAttributeLocalName(i));
+                            values.add(xml.getAttributeValue(i));
+                        }
+                        return true;
+                    }
+                }
+                return false;
+            } catch (final XMLStreamException e) {
+                throw new DataSetException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                xml.close();
+            } catch (final XMLStreamException e) {
+                // no-op
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private static final class YamlReader extends RecordReader {
+        private final Reader source;
+        private final Iterator<Event> events;
+        private final ScalarConstructor constructor = new ScalarConstructor();
+        private boolean inTable; // in the row list of table
+        private int rows;
+
+        private YamlReader(final InputStream stream) {
+            this.source = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            this.events = new Yaml().parse(source).iterator();
+        }
+
+        @Override
+        protected boolean read() throws DataSetException {
+            while (events.hasNext()) {
+                final Event event = events.next();
+                if (!inTable) {
+                    if (!event.is(Event.ID.Scalar) || !events.hasNext()) { // stream, document and root mapping events
+                        continue;
+                    }
+                    table = ScalarEvent.class.cast(event).getValue();
+                    final Event rowList = events.next();
+                    if (rowList.is(Event.ID.SequenceStart)) {
+                        inTable = true;
+                        rows = 0;
+                    } else if (rowList.is(Event.ID.Scalar)) { // "table:" without rows
+                        columns.clear();
+                        values.clear();
+                        return true;
+                    } else {
+                        throw new DataSetException("Expected a list of rows for " + table + ", got " + rowList);
+                    }
+                } else if (event.is(Event.ID.SequenceEnd)) {
+                    inTable = false;
+                    if (rows == 0) {
+                        columns.clear();
+                        values.clear();
+                        return true;
+                    }
+                } else if (event.is(Event.ID.MappingStart)) {
+                    columns.clear();
+                    values.clear();
+                    Event column;
+                    while (!(column = events.next()).is(Event.ID.MappingEnd)) {
+                        final Event value = events.next();
+                        if (!column.is(Event.ID.Scalar) || !value.is(Event.ID.Scalar)) {
+                            throw new DataSetException("Only scalar columns are supported in " + table + ", got " + column + ": " + value);
+                        }
+                        columns.add(ScalarEvent.class.cast(column).getValue());
+                        values.add(constructor.construct(ScalarEvent.class.cast(value)));
+                    }
+                    rows++;
+                    return true;
+                } else {
+                    throw new DataSetException("Expected a row of " + table + ", got " + event);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    // same typing as Yaml.load() but without keeping track of constructed nodes as it does for a whole document
+    private static final class ScalarConstructor extends SafeConstructor {
+        private final Resolver resolver = new Resolver();
+
+        private Object construct(final ScalarEvent event) {
+            final Tag tag = event.getTag() == null || "!".equals(event.getTag()) ?
+                resolver.resolve(NodeId.scalar, event.getValue(), event.getImplicit().canOmitTagInPlainScalar()) : new Tag(event.getTag());
+            final ScalarNode node = new ScalarNode(tag, event.getValue(), null, null, event.getStyle());
+            return getConstructor(node).construct(node);
+        }
+    }
+
+    private static final class CsvReader extends RecordReader {
+        private final String location;
+        private final Reader source;
+        private final StringBuilder field = new StringBuilder();
+        private final int size;
+        private long line = 1;
+        private boolean declared; // the table was returned at least once
+
+        private CsvReader(final String location, final String table, final InputStream stream) throws IOException {
+            this.location = location;
+            this.table = table;
+            this.source = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            final List<Object> header = new ArrayList<Object>();
+            if (parse(header)) {
+                for (final Object column : header) {
+                    columns.add(String.valueOf(column).trim());
+                }
+            }
+            this.size = columns.size();
+        }
+
+        @Override
+        protected boolean read() throws DataSetException {
+            values.clear();
+            final boolean read;
+            try {
+                read = parse(values);
+            } catch (final IOException e) {
+                throw new DataSetException(e);
+            }
+            if (!read) {
+                if (declared) {
+                    return false;
+                }
+                declared = true; // no row, still declare the table
+                columns.clear();
+                return true;
+            }
+            if (values.size() != size) {
+                throw new DataSetException(location + ":" + line + " has " + values.size() + " values but the header has " + size + " columns");
+            }
+            declared = true;
+            return true;
+        }
+
+        // RFC 4180: quoted values can contain separators, new lines and doubled quotes
+        private boolean parse(final List<Object> out) throws IOException {
+            int c = source.read();
+            while (c == '\n' || c == '\r') { // blank lines
+                if (c == '\n') {
+                    line++;
+                }
+                c = source.read();
+            }
+            if (c < 0) {
+                return false;
+            }
+
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c < 0) {
+                        throw new IOException("Unterminated quoted value in " + location + ":" + line);
+                    }
+                    if (c == '"') {
+                        c = source.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    } else if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && field.length() == 0 && !wasQuoted) {
+                    quoted = true;
+                    wasQuoted = true;
+                } else if (c == ',' || c == '\n' || c < 0) {
+                    final String value = field.toString();
+                    out.add(!wasQuoted && "null".equals(value) ? null : value);
+                    field.setLength(0);
+                    wasQuoted = false;
+                    if (c != ',') {
+                        line++;
+                        return true;
+                    }
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = source.read();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
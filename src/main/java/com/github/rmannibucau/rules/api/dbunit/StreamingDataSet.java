@@ -0,0 +1,17 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+// datasets (locations) read while they are seeded instead of being loaded in memory, for fixtures too big for the heap.
+// Supports flat xml (.xml), yaml (.yml/.yaml) and csv (.csv, see StreamedDataSet) and uses the @SeedDataUsing strategy.
+// They are seeded after @UsingDataSet ones, the method annotation overrides the class one.
+@Target({ TYPE, METHOD })
+@Retention(RUNTIME)
+public @interface StreamingDataSet {
+    String[] value();
+}
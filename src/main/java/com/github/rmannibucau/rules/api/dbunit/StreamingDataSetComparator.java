@@ -0,0 +1,200 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.NoSuchColumnException;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.util.QualifiedTableName;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+// checks the database matches the expected dataset selecting only the expected tables/columns,
+// sorting in SQL and comparing rows while iterating the cursor. Tables TableChecksum supports are only compared
+// through their checksum (a single aggregate query) instead. It only says if it matches:
+// on mismatch (or when it can't be used) the caller uses DataSetComparator to get the detailed differences.
+final class StreamingDataSetComparator {
+    private static final int FETCH_SIZE = Integer.getInteger("rule-them-all.dbunit.verification.fetch-size", 100);
+    private static final boolean CHECKSUM = Boolean.parseBoolean(System.getProperty("rule-them-all.dbunit.verification.checksum", "true"));
+
+    private final String[] orderBy;
+    private final String[] excludeColumns;
+    private final Collection<String> excludeTables = new HashSet<String>();
+
+    StreamingDataSetComparator(final String[] orderBy, final String[] excludeColumns, final String[] excludeTables) {
+        this.orderBy = orderBy;
+        this.excludeColumns = excludeColumns;
+        for (final String table : excludeTables) {
+            this.excludeTables.add(table.toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    boolean matches(final DatabaseConnection connection, final IDataSet expected) throws DatabaseUnitException, SQLException {
+        final String[] tables = expected.getTableNames();
+        if (tables.length == 0) { // means the whole database should be empty
+            return false;
+        }
+
+        final IDataSet database = connection.createDataSet();
+        final TableChecksum checksum = CHECKSUM ? TableChecksum.find(DatabaseMetaDataCache.getInstance().getProduct(connection)) : null;
+        for (final String table : tables) {
+            if (excludeTables.contains(table.toUpperCase(Locale.ENGLISH))) {
+                return false;
+            }
+            if (!matches(connection, checksum, database.getTableMetaData(table), expected.getTable(table))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(final DatabaseConnection connection, final TableChecksum checksum,
+                            final ITableMetaData metaData, final ITable expected) throws DatabaseUnitException, SQLException {
+        final String table = metaData.getTableName();
+
+        // compared columns: the expected ones minus excluded ones, with their database type
+        final List<Column> columns = new ArrayList<Column>();
+        for (final Column column : expected.getTableMetaData().getColumns()) {
+            if (isListed(excludeColumns, table, column.getColumnName())) {
+                continue;
+            }
+            try {
+                columns.add(metaData.getColumns()[metaData.getColumnIndex(column.getColumnName())]);
+            } catch (final NoSuchColumnException e) {
+                return false;
+            }
+        }
+
+        final DatabaseConfig config = connection.getConfig();
+        final String escapePattern = (String) config.getProperty(DatabaseConfig.PROPERTY_ESCAPE_PATTERN);
+        final String qualifiedTable = new QualifiedTableName(table, connection.getSchema(), escapePattern).getQualifiedNameIfEnabled(config);
+
+        if (checksum != null && TableChecksum.supports(columns)) { // the order doesn't matter, a difference is detailed by DataSetComparator
+            final List<String> quoted = new ArrayList<String>(columns.size());
+            for (final Column column : columns) {
+                quoted.add(quote(column.getColumnName(), escapePattern));
+            }
+            return checksum.matches(connection.getConnection(), qualifiedTable, quoted, expected, columns);
+        }
+
+        // same sorting as DataSetComparator: orderBy columns first then the other compared ones
+        final List<Column> sort = new ArrayList<Column>(columns.size());
+        for (final Column column : columns) {
+            if (isListed(orderBy, table, column.getColumnName())) {
+                sort.add(column);
+            }
+        }
+        for (final Column column : columns) {
+            if (!sort.contains(column)) {
+                sort.add(column);
+            }
+        }
+
+        final Object[][] expectedRows = sortedRows(expected, columns, sort);
+
+        final StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(quote(columns.get(i).getColumnName(), escapePattern));
+        }
+        sql.append(" FROM ").append(qualifiedTable);
+        if (!sort.isEmpty()) {
+            sql.append(" ORDER BY ");
+            for (int i = 0; i < sort.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(quote(sort.get(i).getColumnName(), escapePattern));
+            }
+        }
+
+        try (final PreparedStatement statement = connection.getConnection().prepareStatement(sql.toString())) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                int row = 0;
+                while (resultSet.next()) {
+                    if (row == expectedRows.length) {
+                        return false;
+                    }
+                    final Object[] values = expectedRows[row++];
+                    for (int i = 0; i < columns.size(); i++) {
+                        final DataType type = columns.get(i).getDataType();
+                        if (type.compare(values[i], type.getSqlValue(i + 1, resultSet)) != 0) {
+                            return false;
+                        }
+                    }
+                }
+                return row == expectedRows.length;
+            }
+        }
+    }
+
+    private static Object[][] sortedRows(final ITable expected, final List<Column> columns, final List<Column> sort) throws DatabaseUnitException {
+        final Object[][] rows = new Object[expected.getRowCount()][];
+        for (int r = 0; r < rows.length; r++) {
+            final Object[] values = new Object[columns.size()];
+            for (int i = 0; i < values.length; i++) {
+                final Column column = columns.get(i);
+                values[i] = column.getDataType().typeCast(expected.getValue(r, column.getColumnName()));
+            }
+            rows[r] = values;
+        }
+
+        final int[] sortIndexes = new int[sort.size()];
+        for (int i = 0; i < sortIndexes.length; i++) {
+            sortIndexes[i] = columns.indexOf(sort.get(i));
+        }
+        final DatabaseUnitException[] error = new DatabaseUnitException[1];
+        Arrays.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(final Object[] o1, final Object[] o2) {
+                for (final int i : sortIndexes) {
+                    try {
+                        final int c = columns.get(i).getDataType().compare(o1[i], o2[i]);
+                        if (c != 0) {
+                            return c;
+                        }
+                    } catch (final DatabaseUnitException e) {
+                        error[0] = e;
+                        return 0;
+                    }
+                }
+                return 0;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return rows;
+    }
+
+    // "column" or "table.column" as in @ShouldMatchDataSet
+    private static boolean isListed(final String[] columns, final String table, final String column) {
+        for (final String c : columns) {
+            final int dot = c.indexOf('.');
+            if (dot < 0 ? c.equalsIgnoreCase(column) : c.substring(0, dot).equalsIgnoreCase(table) && c.substring(dot + 1).equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String quote(final String column, final String escapePattern) {
+        return new QualifiedTableName(column, null, escapePattern).getQualifiedName();
+    }
+}
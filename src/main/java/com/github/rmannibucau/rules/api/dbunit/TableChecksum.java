@@ -0,0 +1,197 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+
+// order independent checksum of a table computed by the database in a single query: the row count and the sum
+// of a 56 bits hash of each row text (compared values prefixed by their length, N for null).
+// Only integer and varchar columns are supported since their text is the same in SQL and in java,
+// checksum() compares the database with itself so any column the database can cast to text is fine.
+abstract class TableChecksum {
+    private static final TableChecksum[] DIALECTS = { new H2(), new Postgres(), new MySql() };
+
+    static TableChecksum find(final String product) {
+        for (final TableChecksum checksum : DIALECTS) {
+            if (checksum.supports(product)) {
+                return checksum;
+            }
+        }
+        return null;
+    }
+
+    static boolean supports(final List<Column> columns) {
+        if (columns.isEmpty()) {
+            return false;
+        }
+        for (final Column column : columns) {
+            switch (column.getDataType().getSqlType()) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.VARCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.LONGNVARCHAR:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    protected abstract boolean supports(String product);
+
+    // MessageDigest algorithm of hash()
+    protected abstract String algorithm();
+
+    // SQL expression of the first 7 bytes of the digest of the UTF-8 text as a number
+    protected abstract String hash(String text);
+
+    protected String toText(final String expression) {
+        return "CAST(" + expression + " AS VARCHAR)";
+    }
+
+    // columns are the quoted names of the columns, in the same order as the values read from expected
+    boolean matches(final Connection connection, final String table, final List<String> columns,
+                    final ITable expected, final List<Column> expectedColumns) throws DataSetException, SQLException {
+        final BigInteger[] expectedChecksum = checksum(expected, expectedColumns);
+        try (final Statement statement = connection.createStatement();
+             final ResultSet rs = statement.executeQuery(query(table, columns))) {
+            if (!rs.next()) {
+                return false;
+            }
+            final BigDecimal sum = rs.getBigDecimal(2);
+            return expectedChecksum[0].longValue() == rs.getLong(1)
+                && expectedChecksum[1].equals(sum == null ? BigInteger.ZERO : sum.toBigIntegerExact());
+        }
+    }
+
+    // current checksum of the table to compare with a later one of the same table, changes done by any connection change it
+    String checksum(final Connection connection, final String table, final List<String> columns) throws SQLException {
+        try (final Statement statement = connection.createStatement();
+             final ResultSet rs = statement.executeQuery(query(table, columns))) {
+            if (!rs.next()) {
+                return null;
+            }
+            final BigDecimal sum = rs.getBigDecimal(2);
+            return rs.getLong(1) + ":" + (sum == null ? "0" : sum.toPlainString());
+        }
+    }
+
+    private String query(final String table, final List<String> columns) {
+        final StringBuilder row = new StringBuilder("CONCAT(");
+        for (int i = 0; i < columns.size(); i++) {
+            final String text = toText(columns.get(i));
+            if (i > 0) {
+                row.append(", ");
+            }
+            row.append("CASE WHEN ").append(columns.get(i)).append(" IS NULL THEN 'N;' ELSE CONCAT('V', ")
+                .append(toText("CHAR_LENGTH(" + text + ")")).append(", ':', ").append(text).append(", ';') END");
+        }
+        row.append(')');
+        return "SELECT COUNT(*), SUM(" + hash(row.toString()) + ") FROM " + table;
+    }
+
+    private BigInteger[] checksum(final ITable expected, final List<Column> columns) throws DataSetException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final int rows = expected.getRowCount();
+        BigInteger sum = BigInteger.ZERO;
+        final StringBuilder text = new StringBuilder();
+        for (int r = 0; r < rows; r++) {
+            text.setLength(0);
+            for (final Column column : columns) {
+                final Object value = column.getDataType().typeCast(expected.getValue(r, column.getColumnName()));
+                if (value == null) {
+                    text.append("N;");
+                } else {
+                    final String string = value.toString();
+                    text.append('V').append(string.codePointCount(0, string.length())).append(':').append(string).append(';');
+                }
+            }
+            final byte[] hash = digest.digest(text.toString().getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 7; i++) {
+                value = (value << 8) | (hash[i] & 0xFF);
+            }
+            sum = sum.add(BigInteger.valueOf(value));
+        }
+        return new BigInteger[]{ BigInteger.valueOf(rows), sum };
+    }
+
+    private static final class H2 extends TableChecksum {
+        @Override
+        protected boolean supports(final String product) {
+            return product.contains("h2");
+        }
+
+        @Override
+        protected String algorithm() {
+            return "SHA-256";
+        }
+
+        @Override
+        protected String hash(final String text) { // binary from hex then bigint from binary
+            return "CAST(CAST(SUBSTRING(CAST(HASH('SHA256', STRINGTOUTF8(" + text + "), 1) AS VARCHAR), 1, 14) AS BINARY) AS BIGINT)";
+        }
+    }
+
+    private static final class Postgres extends TableChecksum {
+        @Override
+        protected boolean supports(final String product) {
+            return product.contains("postgre");
+        }
+
+        @Override
+        protected String algorithm() {
+            return "MD5";
+        }
+
+        @Override
+        protected String hash(final String text) {
+            return "('x' || SUBSTR(MD5(" + text + "), 1, 14))::bit(56)::bigint";
+        }
+    }
+
+    private static final class MySql extends TableChecksum {
+        @Override
+        protected boolean supports(final String product) {
+            return product.contains("mysql") || product.contains("mariadb");
+        }
+
+        @Override
+        protected String algorithm() {
+            return "MD5";
+        }
+
+        @Override
+        protected String hash(final String text) { // MD5 of the connection charset bytes, utf8 is expected
+            return "CAST(CONV(SUBSTRING(MD5(" + text + "), 1, 14), 16, 10) AS UNSIGNED)";
+        }
+
+        @Override
+        protected String toText(final String expression) {
+            return "CAST(" + expression + " AS CHAR)";
+        }
+    }
+}
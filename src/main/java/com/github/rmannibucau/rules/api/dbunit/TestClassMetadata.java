@@ -0,0 +1,332 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.jboss.arquillian.persistence.core.configuration.PersistenceConfiguration;
+import org.jboss.arquillian.persistence.core.metadata.MetadataExtractor;
+import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionEnabler;
+import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionFeatureResolver;
+import org.jboss.arquillian.persistence.core.metadata.PersistenceExtensionScriptingFeatureResolver;
+import org.jboss.arquillian.persistence.dbunit.api.CustomColumnFilter;
+import org.jboss.arquillian.persistence.dbunit.configuration.DBUnitConfiguration;
+import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
+import org.jboss.arquillian.persistence.dbunit.data.provider.DataSetProvider;
+import org.jboss.arquillian.persistence.dbunit.data.provider.ExpectedDataSetProvider;
+import org.jboss.arquillian.persistence.script.configuration.ScriptingConfiguration;
+import org.jboss.arquillian.test.spi.TestClass;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+// what the rule needs to know about a test class, computed once per class:
+// arquillian metadata, @DbUnitInstance accessors (by name) resolved as method handles and per method feature resolvers/datasets
+final class TestClassMetadata {
+    private static final ClassValue<TestClassMetadata> METADATA = new ClassValue<TestClassMetadata>() {
+        @Override
+        protected TestClassMetadata computeValue(final Class<?> type) {
+            return new TestClassMetadata(type);
+        }
+    };
+
+    private final MetadataExtractor metadataExtractor;
+    private final boolean persistenceEnabled;
+    private final BootstrapScript bootstrapScript;
+    private final StreamingDataSet streamingDataSet;
+    private final GeneratedDataSet[] generatedDataSets;
+    private final MaxQueries maxQueries;
+    private final MaxRowsFetched maxRowsFetched;
+    private final Map<String, Accessor> dataSources;
+    private final Map<String, Accessor> entityManagers;
+    private final ConcurrentMap<String, Method> methods = new ConcurrentHashMap<String, Method>();
+    private final ConcurrentMap<Method, MethodMetadata> methodMetadata = new ConcurrentHashMap<Method, MethodMetadata>();
+    private final AtomicReference<ForkJoinTask<Void>> prefetch = new AtomicReference<ForkJoinTask<Void>>();
+
+    private TestClassMetadata(final Class<?> type) {
+        metadataExtractor = populate(new MetadataExtractor(new TestClass(type)));
+        bootstrapScript = type.getAnnotation(BootstrapScript.class);
+        streamingDataSet = type.getAnnotation(StreamingDataSet.class);
+        generatedDataSets = generatedDataSets(type);
+        maxQueries = type.getAnnotation(MaxQueries.class);
+        maxRowsFetched = type.getAnnotation(MaxRowsFetched.class);
+        persistenceEnabled = new PersistenceExtensionEnabler(metadataExtractor).shouldPersistenceExtensionBeActivated() || hasRuleFeature(type);
+
+        final Map<String, Accessor> ds = new LinkedHashMap<String, Accessor>(); // declaration order for the default one
+        final Map<String, Accessor> em = new HashMap<String, Accessor>();
+        Class<?> c = type;
+        while (c != null && c != Object.class) { // first wins so children override parents
+            for (final Field f : c.getDeclaredFields()) {
+                final DbUnitInstance annotation = f.getAnnotation(DbUnitInstance.class);
+                if (annotation == null) {
+                    continue;
+                }
+                if (f.getType() == DataSource.class && !ds.containsKey(annotation.value())) {
+                    ds.put(annotation.value(), new Accessor(f, Modifier.isStatic(f.getModifiers())));
+                } else if (f.getType() == EntityManager.class && !em.containsKey(annotation.value())) {
+                    em.put(annotation.value(), new Accessor(f, Modifier.isStatic(f.getModifiers())));
+                }
+            }
+            for (final Method m : c.getDeclaredMethods()) {
+                final DbUnitInstance annotation = m.getAnnotation(DbUnitInstance.class);
+                if (annotation == null || m.getParameterTypes().length != 0) {
+                    continue;
+                }
+                if (m.getReturnType() == DataSource.class && !ds.containsKey(annotation.value())) {
+                    ds.put(annotation.value(), new Accessor(m, Modifier.isStatic(m.getModifiers())));
+                } else if (m.getReturnType() == EntityManager.class && !em.containsKey(annotation.value())) {
+                    em.put(annotation.value(), new Accessor(m, Modifier.isStatic(m.getModifiers())));
+                }
+            }
+            c = c.getSuperclass();
+        }
+        dataSources = Collections.unmodifiableMap(ds);
+        entityManagers = Collections.unmodifiableMap(em);
+    }
+
+    // the extractor registers its inspectors lazily in a plain HashMap, register the ones the rule, the feature resolvers
+    // and the providers use before the metadata are published so concurrent tests of the class only read it
+    private static MetadataExtractor populate(final MetadataExtractor extractor) {
+        extractor.dataSource();
+        extractor.dataSeedStrategy();
+        extractor.usingDataSet();
+        extractor.shouldMatchDataSet();
+        extractor.applyScriptBefore();
+        extractor.applyScriptAfter();
+        extractor.cleanup();
+        extractor.cleanupUsingScript();
+        extractor.jpaCacheEviction();
+        extractor.createSchema();
+        extractor.using(CustomColumnFilter.class);
+        return extractor;
+    }
+
+    // datasets and budgets arquillian doesn't know about
+    private static boolean hasRuleFeature(final Class<?> type) {
+        if (hasRuleFeature((AnnotatedElement) type)) {
+            return true;
+        }
+        for (final Method m : type.getMethods()) {
+            if (hasRuleFeature(m)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRuleFeature(final AnnotatedElement element) {
+        return element.isAnnotationPresent(StreamingDataSet.class) || generatedDataSets(element).length > 0
+            || element.isAnnotationPresent(MaxQueries.class) || element.isAnnotationPresent(MaxRowsFetched.class);
+    }
+
+    private static GeneratedDataSet[] generatedDataSets(final AnnotatedElement element) {
+        final GeneratedDataSet single = element.getAnnotation(GeneratedDataSet.class);
+        final GeneratedDataSets multiple = element.getAnnotation(GeneratedDataSets.class);
+        if (multiple == null) {
+            return single == null ? new GeneratedDataSet[0] : new GeneratedDataSet[]{ single };
+        }
+        if (single == null) {
+            return multiple.value();
+        }
+        final GeneratedDataSet[] all = Arrays.copyOf(multiple.value(), multiple.value().length + 1);
+        all[all.length - 1] = single;
+        return all;
+    }
+
+    static TestClassMetadata of(final Class<?> type) {
+        return METADATA.get(type);
+    }
+
+    MetadataExtractor getMetadataExtractor() {
+        return metadataExtractor;
+    }
+
+    boolean isPersistenceEnabled() {
+        return persistenceEnabled;
+    }
+
+    BootstrapScript getBootstrapScript() {
+        return bootstrapScript;
+    }
+
+    Method getMethod(final Class<?> type, final String name) throws NoSuchMethodException {
+        Method method = methods.get(name);
+        if (method == null) {
+            method = type.getMethod(name);
+            methods.putIfAbsent(name, method);
+        }
+        return method;
+    }
+
+    // once per class, see ResourcePrefetcher
+    void prefetch(final Class<?> type, final Method first, final PersistenceConfiguration persistenceConfiguration,
+                  final ScriptingConfiguration scriptingConfiguration, final DBUnitConfiguration dbUnitConfiguration) {
+        if (prefetch.get() == null) {
+            synchronized (prefetch) {
+                if (prefetch.get() == null) {
+                    prefetch.set(ResourcePrefetcher.start(type, first, persistenceConfiguration, scriptingConfiguration, dbUnitConfiguration));
+                }
+            }
+        }
+    }
+
+    // reused while the rule uses the same configuration instances (shared defaults in general)
+    MethodMetadata getMethodMetadata(final Method method, final PersistenceConfiguration persistenceConfiguration,
+                                     final ScriptingConfiguration scriptingConfiguration, final DBUnitConfiguration dbUnitConfiguration) {
+        final MethodMetadata existing = methodMetadata.get(method);
+        if (existing != null && existing.persistenceConfiguration == persistenceConfiguration
+            && existing.scriptingConfiguration == scriptingConfiguration && existing.dbUnitConfiguration == dbUnitConfiguration) {
+            return existing;
+        }
+        final MethodMetadata metadata = new MethodMetadata(metadataExtractor, method, streamingDataSet, generatedDataSets, maxQueries, maxRowsFetched, persistenceConfiguration, scriptingConfiguration, dbUnitConfiguration);
+        methodMetadata.put(method, metadata);
+        return metadata;
+    }
+
+    // the named one, without name the unnamed one or the first one found (subclass first) as before named datasources
+    DataSource findDataSource(final String name, final Object instance) {
+        if ((name == null || name.isEmpty()) && !dataSources.containsKey("") && !dataSources.isEmpty()) {
+            return DataSource.class.cast(dataSources.values().iterator().next().get(instance));
+        }
+        return DataSource.class.cast(find(dataSources, name, instance));
+    }
+
+    EntityManager findEntityManager(final String name, final Object instance) {
+        return EntityManager.class.cast(find(entityManagers, name, instance));
+    }
+
+    private static Object find(final Map<String, Accessor> accessors, final String name, final Object instance) {
+        Accessor accessor = accessors.get(name == null ? "" : name);
+        if (accessor == null && (name == null || name.isEmpty()) && accessors.size() == 1) {
+            accessor = accessors.values().iterator().next();
+        }
+        return accessor == null ? null : accessor.get(instance);
+    }
+
+    static final class MethodMetadata {
+        private final MetadataExtractor metadataExtractor;
+        private final Method method;
+        private final PersistenceConfiguration persistenceConfiguration;
+        private final ScriptingConfiguration scriptingConfiguration;
+        private final DBUnitConfiguration dbUnitConfiguration;
+        private final PersistenceExtensionFeatureResolver featureResolver;
+        private final PersistenceExtensionScriptingFeatureResolver scriptingFeatureResolver;
+        private final BootstrapScript bootstrapScript;
+        private final String[] streamingDataSets;
+        private final GeneratedDataSet[] generatedDataSets;
+        private final MaxQueries maxQueries;
+        private final MaxRowsFetched maxRowsFetched;
+        private volatile Collection<DataSetResourceDescriptor> initialDataSets;
+        private volatile Collection<DataSetResourceDescriptor> expectedDataSets;
+
+        private MethodMetadata(final MetadataExtractor metadataExtractor, final Method method, final StreamingDataSet classStreamingDataSet,
+                               final GeneratedDataSet[] classGeneratedDataSets, final MaxQueries classMaxQueries, final MaxRowsFetched classMaxRowsFetched,
+                               final PersistenceConfiguration persistenceConfiguration, final ScriptingConfiguration scriptingConfiguration,
+                               final DBUnitConfiguration dbUnitConfiguration) {
+            this.metadataExtractor = metadataExtractor;
+            this.method = method;
+            this.persistenceConfiguration = persistenceConfiguration;
+            this.scriptingConfiguration = scriptingConfiguration;
+            this.dbUnitConfiguration = dbUnitConfiguration;
+            this.featureResolver = new PersistenceExtensionFeatureResolver(method, metadataExtractor, persistenceConfiguration);
+            this.scriptingFeatureResolver = new PersistenceExtensionScriptingFeatureResolver(method, metadataExtractor, scriptingConfiguration);
+            this.bootstrapScript = method.getAnnotation(BootstrapScript.class);
+
+            final StreamingDataSet streamingDataSet = method.getAnnotation(StreamingDataSet.class);
+            this.streamingDataSets = streamingDataSet != null ? streamingDataSet.value() :
+                (classStreamingDataSet != null ? classStreamingDataSet.value() : new String[0]);
+            final GeneratedDataSet[] methodGeneratedDataSets = generatedDataSets(method);
+            this.generatedDataSets = methodGeneratedDataSets.length > 0 ? methodGeneratedDataSets : classGeneratedDataSets;
+            final MaxQueries methodMaxQueries = method.getAnnotation(MaxQueries.class);
+            this.maxQueries = methodMaxQueries != null ? methodMaxQueries : classMaxQueries;
+            final MaxRowsFetched methodMaxRowsFetched = method.getAnnotation(MaxRowsFetched.class);
+            this.maxRowsFetched = methodMaxRowsFetched != null ? methodMaxRowsFetched : classMaxRowsFetched;
+        }
+
+        PersistenceExtensionFeatureResolver getFeatureResolver() {
+            return featureResolver;
+        }
+
+        PersistenceExtensionScriptingFeatureResolver getScriptingFeatureResolver() {
+            return scriptingFeatureResolver;
+        }
+
+        BootstrapScript getBootstrapScript() {
+            return bootstrapScript;
+        }
+
+        String[] getStreamingDataSets() {
+            return streamingDataSets;
+        }
+
+        GeneratedDataSet[] getGeneratedDataSets() {
+            return generatedDataSets;
+        }
+
+        MaxQueries getMaxQueries() {
+            return maxQueries;
+        }
+
+        MaxRowsFetched getMaxRowsFetched() {
+            return maxRowsFetched;
+        }
+
+        Collection<DataSetResourceDescriptor> getInitialDataSets() {
+            if (initialDataSets == null) {
+                initialDataSets = new DataSetProvider(metadataExtractor, dbUnitConfiguration).getDescriptorsDefinedFor(method);
+            }
+            return initialDataSets;
+        }
+
+        Collection<DataSetResourceDescriptor> getExpectedDataSets() {
+            if (expectedDataSets == null) {
+                expectedDataSets = new ExpectedDataSetProvider(metadataExtractor, dbUnitConfiguration).getDescriptorsDefinedFor(method);
+            }
+            return expectedDataSets;
+        }
+    }
+
+    private static final class Accessor {
+        private final MethodHandle handle;
+        private final boolean isStatic;
+
+        private Accessor(final AccessibleObject member, final boolean isStatic) {
+            this.isStatic = isStatic;
+            if (!member.isAccessible()) {
+                member.setAccessible(true);
+            }
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                this.handle = Field.class.isInstance(member) ? lookup.unreflectGetter(Field.class.cast(member)) : lookup.unreflect(Method.class.cast(member));
+            } catch (final IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Object get(final Object instance) {
+            if (!isStatic && instance == null) {
+                return null;
+            }
+            try {
+                return isStatic ? handle.invoke() : handle.invoke(instance);
+            } catch (final RuntimeException | Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+// the datasource the test sees: delegates to the real one except when the rule shares its own connection
+// (transactional mode) where the transaction demarcation of the test is neutralized to keep the rollback possible.
+// When a DirtyTables is tracking, the statements are captured to know which tables the test wrote
+// and while QueryStatistics are recording, executions and fetched rows are counted (and sampled to be explained).
+// With a DatabaseTemplate connections are redirected to the clone of the test and with a SchemaPool they use the leased schema.
+final class TestDataSource implements DataSource {
+    private final DataSource delegate;
+    private volatile RollbackTransaction transaction;
+    private volatile DirtyTables dirtyTables;
+    private volatile QueryStatistics statistics;
+    private volatile DataSource clone;
+    private volatile String schema;
+
+    TestDataSource(final DataSource delegate) {
+        this.delegate = delegate;
+    }
+
+    DataSource getDelegate() {
+        return delegate;
+    }
+
+    void share(final RollbackTransaction transaction) {
+        this.transaction = transaction;
+    }
+
+    void release() {
+        this.transaction = null;
+    }
+
+    void track(final DirtyTables dirtyTables) {
+        this.dirtyTables = dirtyTables;
+    }
+
+    void untrack() {
+        this.dirtyTables = null;
+    }
+
+    void record(final QueryStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    void stopRecording() {
+        this.statistics = null;
+    }
+
+    void redirect(final DataSource clone) {
+        this.clone = clone;
+    }
+
+    void restore() {
+        this.clone = null;
+    }
+
+    void useSchema(final String schema) {
+        this.schema = schema;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return tracked(recorded(plainConnection()));
+    }
+
+    // what the test would get but neither tracked nor recorded
+    Connection plainConnection() throws SQLException {
+        final RollbackTransaction tx = transaction;
+        if (tx != null) {
+            return shared(tx);
+        }
+        final DataSource target = clone;
+        return inSchema((target != null ? target : delegate).getConnection());
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        final RollbackTransaction tx = transaction;
+        if (tx != null) {
+            return tracked(recorded(shared(tx)));
+        }
+        final DataSource target = clone;
+        return tracked(recorded(inSchema((target != null ? target : delegate).getConnection(username, password))));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    private Connection inSchema(final Connection connection) throws SQLException {
+        final String current = schema;
+        if (current != null) {
+            try {
+                SchemaPool.use(connection, current);
+            } catch (final SQLException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    private Connection tracked(final Connection connection) {
+        final DirtyTables tracker = dirtyTables;
+        if (tracker == null) {
+            return connection;
+        }
+        return Connection.class.cast(Proxy.newProxyInstance(
+            TestDataSource.class.getClassLoader(), new Class<?>[]{ Connection.class }, new TrackingHandler(connection, tracker)));
+    }
+
+    private Connection recorded(final Connection connection) {
+        if (statistics == null) {
+            return connection;
+        }
+        return Connection.class.cast(Proxy.newProxyInstance(
+            TestDataSource.class.getClassLoader(), new Class<?>[]{ Connection.class }, new RecordingHandler(this, connection, null)));
+    }
+
+    private static Connection shared(final RollbackTransaction tx) {
+        return Connection.class.cast(Proxy.newProxyInstance(
+            TestDataSource.class.getClassLoader(), new Class<?>[]{ Connection.class }, new SharedConnectionHandler(tx)));
+    }
+
+    private static final class SharedConnectionHandler implements InvocationHandler {
+        private final RollbackTransaction transaction;
+        private boolean closed;
+
+        private SharedConnectionHandler(final RollbackTransaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            final int params = method.getParameterTypes().length;
+            if ("close".equals(name) && params == 0) {
+                closed = true;
+                return null;
+            }
+            if ("isClosed".equals(name) && params == 0) {
+                return closed;
+            }
+            if (("commit".equals(name) || "setAutoCommit".equals(name) || "releaseSavepoint".equals(name))) {
+                return null; // owned by the rule
+            }
+            if ("getAutoCommit".equals(name)) {
+                return false;
+            }
+            if ("rollback".equals(name) && params == 0) {
+                transaction.rollbackToFixture();
+                return null;
+            }
+            if ("equals".equals(name) && params == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name) && params == 0) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return method.invoke(transaction.getConnection(), args);
+            } catch (final InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        }
+    }
+
+    // wraps connections and statements to capture the SQL writing data
+    private static final class TrackingHandler implements InvocationHandler {
+        private final Object delegate;
+        private final DirtyTables tracker;
+
+        private TrackingHandler(final Object delegate, final DirtyTables tracker) {
+            this.delegate = delegate;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (args != null && args.length > 0 && String.class.isInstance(args[0])) {
+                if ("prepareCall".equals(name)) {
+                    tracker.onUnknownWrite();
+                } else if ("prepareStatement".equals(name) || name.startsWith("execute") || "addBatch".equals(name)) {
+                    tracker.onSql(String.class.cast(args[0]));
+                }
+            }
+
+            final Object result;
+            try {
+                result = method.invoke(delegate, args);
+            } catch (final InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+
+            // statement types are interfaces so proxy them too
+            final Class<?> returnType = method.getReturnType();
+            if (result != null && Statement.class.isAssignableFrom(returnType)) {
+                return Proxy.newProxyInstance(
+                    TestDataSource.class.getClassLoader(), new Class<?>[]{ returnType }, new TrackingHandler(result, tracker));
+            }
+            return result;
+        }
+    }
+
+    // wraps connections, statements and result sets to count executions and fetched rows per SQL shape,
+    // only while the datasource is recording (the test body) even if the connection is kept longer
+    private static final class RecordingHandler implements InvocationHandler {
+        private final TestDataSource dataSource;
+        private final Object delegate;
+        private final String sql; // of the prepared statement or of the query for a result set
+        private final Collection<String> batch = new ArrayList<String>();
+        private final Map<Integer, Object[]> parameters = new TreeMap<Integer, Object[]>(); // null value: can't be set again
+        private volatile String lastSql; // for getResultSet()
+
+        private RecordingHandler(final TestDataSource dataSource, final Object delegate, final String sql) {
+            this.dataSource = dataSource;
+            this.delegate = delegate;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final QueryStatistics statistics = dataSource.statistics;
+            final String name = method.getName();
+            final String argSql = args != null && args.length > 0 && String.class.isInstance(args[0]) ? String.class.cast(args[0]) : null;
+            if ("addBatch".equals(name)) {
+                batch.add(argSql != null ? argSql : sql);
+            } else if (statistics != null && statistics.isSampling() && name.startsWith("set") && args != null && args.length >= 2
+                && Integer.class.isInstance(args[0]) && PreparedStatement.class.isInstance(delegate)) {
+                parameters.put(Integer.class.cast(args[0]), isReplayable(args) ? new Object[]{ method, args } : null);
+            } else if ("clearParameters".equals(name)) {
+                parameters.clear();
+            }
+
+            final boolean execution = name.startsWith("execute");
+            final boolean next = "next".equals(name) && ResultSet.class.isInstance(delegate);
+            final long start = execution || next ? System.nanoTime() : 0;
+            final Object result;
+            try {
+                result = method.invoke(delegate, args);
+            } catch (final InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+
+            final String executed = execution ? (argSql != null ? argSql : sql) : (lastSql != null ? lastSql : sql);
+            if (execution) {
+                lastSql = name.endsWith("Batch") && !batch.isEmpty() ? batch.iterator().next() : executed;
+            }
+            if (statistics != null && execution) {
+                final long duration = System.nanoTime() - start;
+                if (name.endsWith("Batch")) {
+                    if (!batch.isEmpty()) {
+                        statistics.shapeOf(batch.iterator().next()).onExecution(batch.size(), duration);
+                    }
+                } else {
+                    final QueryStatistics.Shape shape = statistics.shapeOf(executed);
+                    shape.onExecution(1, duration);
+                    if (statistics.isSampling() && QueryPlan.isExplainable(executed) && shape.needsSample()
+                        && (argSql != null || !parameters.containsValue(null))) {
+                        shape.sample(executed, argSql != null ? Collections.<Object[]>emptyList() : new ArrayList<Object[]>(parameters.values()));
+                    }
+                }
+            } else if (statistics != null && next) {
+                statistics.shapeOf(sql).onNext(Boolean.TRUE.equals(result), System.nanoTime() - start);
+            }
+            if (name.endsWith("Batch") && (execution || "clearBatch".equals(name))) {
+                batch.clear();
+            }
+
+            // statement and result set types are interfaces so proxy them too
+            final Class<?> returnType = method.getReturnType();
+            if (result != null && (Statement.class.isAssignableFrom(returnType) || ResultSet.class.isAssignableFrom(returnType))) {
+                final String resultSql = Statement.class.isAssignableFrom(returnType) ? argSql : executed;
+                return Proxy.newProxyInstance(
+                    TestDataSource.class.getClassLoader(), new Class<?>[]{ returnType }, new RecordingHandler(dataSource, result, resultSql));
+            }
+            return result;
+        }
+
+        // streams are consumed by the execution
+        private static boolean isReplayable(final Object[] args) {
+            for (final Object arg : args) {
+                if (InputStream.class.isInstance(arg) || Reader.class.isInstance(arg)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
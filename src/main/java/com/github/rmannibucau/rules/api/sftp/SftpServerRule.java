@@ -28,11 +28,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -76,15 +75,13 @@ public class SftpServerRule implements TestRule {
 				final Data d = data.get();
 				d.user = server.user();
 				d.password = server.password();
-				d.files = new ConcurrentHashMap<String, FakeSftpFile>();
+				d.root = FakeSftpFile.root(d.user);
 
 				for (final SftpFile file : server.value()) {
 					final String name = file.name();
 					final String content = file.content();
 					addFile(name, content);
 				}
-				d.files.put("/", new FakeSftpFile("/", null, d.user, false, d.files));
-				d.files.put(".", new FakeSftpFile(".", null, d.user, false, d.files));
 
 				final SshServer ssh = SshServer.setUpDefaultServer();
 				ssh.setPort(server.port());
@@ -103,12 +100,15 @@ public class SftpServerRule implements TestRule {
 					public FileSystemView createFileSystemView(final Session session) throws IOException {
 						return new FileSystemView() {
 							@Override
-							public SshFile getFile(final String file) {
-								return d.files.get(file);
+							public SshFile getFile(final String file) { // relative paths are resolved from the root
+								return d.root.resolve(file);
 							}
 
 							@Override
 							public SshFile getFile(final SshFile baseDir, final String file) {
+								if (FakeSftpFile.class.isInstance(baseDir)) {
+									return FakeSftpFile.class.cast(baseDir).resolve(file);
+								}
 								return getFile(baseDir.getAbsolutePath() + '/' + file);
 							}
 
@@ -145,20 +145,21 @@ public class SftpServerRule implements TestRule {
 	}
 
 	public void addFile(final String name, final String contentOrPath) {
-		final Data d = data.get();
-		final String key = (!name.startsWith("/") ? "/" : "") + name;
-		d.files.put(key, new FakeSftpFile(key, content(contentOrPath), d.user, true, Collections.<String, FakeSftpFile> emptyMap()));
-		final String[] path = key.split("/");
-		final StringBuilder folder = new StringBuilder();
-		for (int i = 0; i < path.length - 1; i++) {
-			if (i > 0) {
-				folder.append('/');
+		FakeSftpFile directory = data.get().root;
+		String last = null;
+		for (final String segment : name.split("/")) {
+			if (segment.isEmpty()) {
+				continue;
 			}
-			folder.append(path[ i ]);
-
-			final String current = folder.toString();
-			d.files.putIfAbsent(current, new FakeSftpFile(current, null, d.user, false, d.files));
+			if (last != null) {
+				directory = directory.directory(last);
+			}
+			last = segment;
+		}
+		if (last == null) {
+			throw new LifecycleUnitException("Invalid file name: " + name);
 		}
+		directory.file(last, content(contentOrPath));
 	}
 
 	private void inject(final SshServer server) throws IllegalAccessException {
@@ -191,52 +192,121 @@ public class SftpServerRule implements TestRule {
 		return content.getBytes();
 	}
 
+	// a node of the fake file system tree: directories index their children by name so a lookup is O(depth)
+	// and a listing O(children), the path is computed from the parents and attributes are only created when requested
 	private static class FakeSftpFile implements SshFile {
-		private final String path;
-		private final boolean isRegular;
-		private final byte[] entry;
+		private final String name;
+		private final FakeSftpFile parent;
 		private final String user;
-		private final Map<String, FakeSftpFile> all;
-		private Map<Attribute, Object> attributes = new HashMap<Attribute, Object>();
-		private long lastModified;
-
-		public FakeSftpFile(final String path, final byte[] content, final String user, final boolean isRegular,
-				final Map<String, FakeSftpFile> files) {
-			this.path = path;
-			this.entry = content;
+		private final byte[] entry; // null for directories
+		private volatile ConcurrentMap<String, FakeSftpFile> children;
+		private volatile Map<Attribute, Object> attributes;
+		private volatile long lastModified;
+
+		private FakeSftpFile(final String name, final FakeSftpFile parent, final String user, final byte[] content) {
+			this.name = name;
+			this.parent = parent;
 			this.user = user;
-			this.isRegular = isRegular;
+			this.entry = content;
 			this.lastModified = System.currentTimeMillis();
-			this.all = files;
+		}
+
+		private static FakeSftpFile root(final String user) {
+			return new FakeSftpFile("/", null, user, null);
+		}
+
+		private FakeSftpFile resolve(final String path) {
+			FakeSftpFile current = this;
+			if (path.startsWith("/")) {
+				while (current.parent != null) {
+					current = current.parent;
+				}
+			}
+			for (final String segment : path.split("/")) {
+				if (segment.isEmpty() || ".".equals(segment)) {
+					continue;
+				}
+				if ("..".equals(segment)) {
+					if (current.parent != null) {
+						current = current.parent;
+					}
+					continue;
+				}
+				final Map<String, FakeSftpFile> currentChildren = current.children;
+				current = currentChildren == null ? null : currentChildren.get(segment);
+				if (current == null) {
+					return null;
+				}
+			}
+			return current;
+		}
 
-			initAttributes();
+		private FakeSftpFile directory(final String name) {
+			final FakeSftpFile existing = children().get(name);
+			if (existing != null) {
+				if (existing.isFile()) {
+					throw new LifecycleUnitException(existing.getAbsolutePath() + " is a file");
+				}
+				return existing;
+			}
+			final FakeSftpFile created = new FakeSftpFile(name, this, user, null);
+			final FakeSftpFile concurrent = children().putIfAbsent(name, created);
+			return concurrent != null ? concurrent : created;
 		}
 
-		private void initAttributes() {
-			this.attributes.put(Attribute.CreationTime, lastModified);
-			this.attributes.put(Attribute.IsDirectory, isDirectory());
-			this.attributes.put(Attribute.IsRegularFile, isFile());
-			this.attributes.put(Attribute.IsSymbolicLink, false);
-			this.attributes.put(Attribute.Size, getSize());
-			this.attributes.put(Attribute.Permissions, EnumSet.allOf(Permission.class));
-			this.attributes.put(Attribute.Owner, getOwner());
-			this.attributes.put(Attribute.Group, getOwner());
-			this.attributes.put(Attribute.LastModifiedTime, getLastModified());
+		private void file(final String name, final byte[] content) {
+			children().put(name, new FakeSftpFile(name, this, user, content));
+		}
+
+		private ConcurrentMap<String, FakeSftpFile> children() {
+			if (children == null) {
+				synchronized (this) {
+					if (children == null) {
+						children = new ConcurrentHashMap<String, FakeSftpFile>(4);
+					}
+				}
+			}
+			return children;
+		}
+
+		private Map<Attribute, Object> attributes() {
+			if (attributes == null) {
+				synchronized (this) {
+					if (attributes == null) {
+						final Map<Attribute, Object> defaults = new HashMap<Attribute, Object>();
+						defaults.put(Attribute.CreationTime, lastModified);
+						defaults.put(Attribute.IsDirectory, isDirectory());
+						defaults.put(Attribute.IsRegularFile, isFile());
+						defaults.put(Attribute.IsSymbolicLink, false);
+						defaults.put(Attribute.Size, getSize());
+						defaults.put(Attribute.Permissions, EnumSet.allOf(Permission.class));
+						defaults.put(Attribute.Owner, getOwner());
+						defaults.put(Attribute.Group, getOwner());
+						defaults.put(Attribute.LastModifiedTime, getLastModified());
+						attributes = defaults;
+					}
+				}
+			}
+			return attributes;
 		}
 
 		@Override
 		public String getAbsolutePath() {
-			return path;
+			if (parent == null) {
+				return name;
+			}
+			final String parentPath = parent.getAbsolutePath();
+			return parentPath.endsWith("/") ? parentPath + name : parentPath + '/' + name;
 		}
 
 		@Override
 		public String getName() {
-			return path;
+			return name;
 		}
 
 		@Override
 		public Map<Attribute, Object> getAttributes(final boolean followLinks) throws IOException {
-			return attributes;
+			return attributes();
 		}
 
 		@Override
@@ -246,12 +316,12 @@ public class SftpServerRule implements TestRule {
 
 		@Override
 		public Object getAttribute(final Attribute attribute, final boolean followLinks) throws IOException {
-			return attributes.get(attribute);
+			return attributes().get(attribute);
 		}
 
 		@Override
 		public void setAttribute(final Attribute attribute, final Object value) throws IOException {
-			attributes.put(attribute, value);
+			attributes().put(attribute, value);
 		}
 
 		@Override
@@ -271,12 +341,12 @@ public class SftpServerRule implements TestRule {
 
 		@Override
 		public boolean isDirectory() {
-			return !isRegular;
+			return entry == null;
 		}
 
 		@Override
 		public boolean isFile() {
-			return isRegular;
+			return entry != null;
 		}
 
 		@Override
@@ -306,7 +376,7 @@ public class SftpServerRule implements TestRule {
 
 		@Override
 		public SshFile getParentFile() {
-			return null;
+			return parent;
 		}
 
 		@Override
@@ -352,18 +422,11 @@ public class SftpServerRule implements TestRule {
 
 		@Override
 		public List<SshFile> listSshFiles() {
-			final List<SshFile> children = new LinkedList<SshFile>();
-			if (!isDirectory()) {
-				return children;
+			final Map<String, FakeSftpFile> currentChildren = children;
+			if (currentChildren == null) {
+				return new ArrayList<SshFile>();
 			}
-
-			for (final Map.Entry<String, FakeSftpFile> entry : all.entrySet()) {
-				final FakeSftpFile value = entry.getValue();
-				if (entry.getKey().startsWith(path) && value != this) {
-					children.add(value);
-				}
-			}
-			return children;
+			return new ArrayList<SshFile>(currentChildren.values());
 		}
 
 		@Override
@@ -385,6 +448,6 @@ public class SftpServerRule implements TestRule {
 	private static class Data {
 		private String user;
 		private String password;
-		private ConcurrentMap<String, FakeSftpFile> files;
+		private FakeSftpFile root;
 	}
 }
@@ -0,0 +1,90 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+import org.jboss.arquillian.persistence.SeedDataUsing;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static java.util.Arrays.asList;
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class BatchedSeedingTest {
+    private static final String INSERT_CLARK = "insert into useraccount(id, firstname, lastname, username, password) values(2, 'C', 'K', 's', 'k')";
+
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).dataSeeder(new BatchedDataSeeder(1));
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + BatchedSeedingTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void insert() throws SQLException {
+        assertEquals(asList("1:John:password", "2:Clark:kryptonite"), users());
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    @SeedDataUsing(DataSeedStrategy.CLEAN_INSERT)
+    @ApplyScriptBefore({ "datasets/user_table.sql", INSERT_CLARK })
+    public void cleanInsert() throws SQLException {
+        assertEquals(asList("1:John:password", "2:Clark:nothing"), users());
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    @SeedDataUsing(DataSeedStrategy.REFRESH)
+    @ApplyScriptBefore({ "datasets/user_table.sql", INSERT_CLARK })
+    public void refresh() throws SQLException {
+        assertEquals(asList("1:John:password", "2:Clark:nothing"), users());
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    @SeedDataUsing(DataSeedStrategy.UPDATE)
+    @ApplyScriptBefore({ "datasets/user_table.sql", INSERT_CLARK })
+    public void update() throws SQLException {
+        assertEquals(asList("2:Clark:nothing"), users());
+    }
+
+    private static Collection<String> users() throws SQLException {
+        final Collection<String> users = new ArrayList<>();
+        try (final Connection c = ds.getConnection()) {
+            try (final PreparedStatement s = c.prepareStatement("select id, firstname, password from useraccount order by id")) {
+                try (final ResultSet r = s.executeQuery()) {
+                    while (r.next()) {
+                        users.add(r.getLong(1) + ":" + r.getString(2) + ":" + r.getString(3));
+                    }
+                }
+            }
+        }
+        return users;
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runners.MethodSorters;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.NONE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Cleanup(phase = NONE)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@BootstrapScript("datasets/bootstrap.sql")
+@ApplyScriptBefore("datasets/bootstrap.sql")
+public class BootstrapScriptTest {
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this);
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + BootstrapScriptTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    public void test1() throws SQLException {
+        assertEquals(1, runs());
+    }
+
+    @Test
+    public void test2() throws SQLException {
+        assertEquals(1, runs());
+
+        // simulate a recreated database
+        try (final Connection c = ds.getConnection(); final Statement s = c.createStatement()) {
+            s.execute("drop table bootstrap_counter");
+        }
+    }
+
+    @Test
+    public void test3() throws SQLException {
+        assertEquals(1, runs());
+    }
+
+    private static int runs() throws SQLException {
+        try (final Connection c = ds.getConnection();
+             final Statement s = c.createStatement();
+             final ResultSet r = s.executeQuery("select count(*) from bootstrap_counter")) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+}
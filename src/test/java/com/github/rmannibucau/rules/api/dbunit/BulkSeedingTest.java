@@ -0,0 +1,107 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+import org.jboss.arquillian.persistence.SeedDataUsing;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class BulkSeedingTest {
+    private static final String INSERT_CLARK = "insert into useraccount(id, firstname, lastname, username, password) values(2, 'C', 'K', 's', 'k')";
+    private static final AtomicInteger FALLBACK_CALLS = new AtomicInteger();
+
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).dataSeeder(new BulkDataSeeder(new DataSeeder() {
+        @Override
+        public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException, SQLException {
+            FALLBACK_CALLS.incrementAndGet();
+            new DbUnitDataSeeder(false).seed(connection, dataSet, strategy);
+        }
+    }));
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + BulkSeedingTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @After // @Before runs after the seeding
+    public void reset() {
+        FALLBACK_CALLS.set(0);
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void insert() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Clark:Kent:kryptonite"), users());
+        assertEquals(0, FALLBACK_CALLS.get());
+    }
+
+    @Test
+    @StreamingDataSet("datasets/streaming/useraccount.csv")
+    public void nullsAndQuotes() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Kent, Clark:null:kryp\"tonite"), users());
+        assertEquals(0, FALLBACK_CALLS.get());
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    @SeedDataUsing(DataSeedStrategy.CLEAN_INSERT)
+    @ApplyScriptBefore({ "datasets/user_table.sql", INSERT_CLARK })
+    public void cleanInsert() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Clark:Kent:nothing"), users());
+        assertEquals(0, FALLBACK_CALLS.get());
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    @SeedDataUsing(DataSeedStrategy.REFRESH)
+    @ApplyScriptBefore({ "datasets/user_table.sql", INSERT_CLARK })
+    public void refreshUsesFallback() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Clark:Kent:nothing"), users());
+        assertEquals(1, FALLBACK_CALLS.get());
+    }
+
+    private static Collection<String> users() throws SQLException {
+        final Collection<String> users = new ArrayList<>();
+        try (final Connection c = ds.getConnection();
+             final PreparedStatement s = c.prepareStatement("select id, firstname, lastname, password from useraccount order by id");
+             final ResultSet r = s.executeQuery()) {
+            while (r.next()) {
+                users.add(r.getLong(1) + ":" + r.getString(2) + ":" + r.getString(3) + ":" + r.getString(4));
+            }
+        }
+        return users;
+    }
+}
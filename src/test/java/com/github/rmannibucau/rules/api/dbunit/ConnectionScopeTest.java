@@ -0,0 +1,71 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+@ApplyScriptBefore("datasets/user_table.sql")
+public class ConnectionScopeTest {
+    private static final AtomicInteger CONNECTIONS = new AtomicInteger();
+
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).connectionScope(ConnectionScope.CLASS);
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                CONNECTIONS.incrementAndGet();
+                return super.getConnection();
+            }
+        };
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + ConnectionScopeTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @AfterClass
+    public static void checkConnections() {
+        assertEquals(1, CONNECTIONS.get());
+        DatabaseConnectionHolder.closeAll();
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    @ShouldMatchDataSet("datasets/users.yml")
+    public void first() {
+        // no-op
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    @ShouldMatchDataSet("datasets/users2.yml")
+    public void second() {
+        // no-op
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    @ShouldMatchDataSet("datasets/users.yml")
+    public void third() {
+        // no-op
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.jboss.arquillian.persistence.core.data.descriptor.Format;
+import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class DataSetCacheTest {
+    @Test
+    public void reuseParsedDataSet() throws DataSetException {
+        final DataSetCache cache = new DataSetCache(10);
+        final IDataSet first = cache.get(new DataSetResourceDescriptor("datasets/users.yml", Format.YAML));
+        final IDataSet second = cache.get(new DataSetResourceDescriptor("datasets/users.yml", Format.YAML));
+        assertSame(first, second);
+        assertEquals(2, second.getTable("useraccount").getRowCount());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evict() {
+        final DataSetCache cache = new DataSetCache(1);
+        final IDataSet users = cache.get(new DataSetResourceDescriptor("datasets/users.yml", Format.YAML));
+        cache.get(new DataSetResourceDescriptor("datasets/users2.yml", Format.YAML));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotSame(users, cache.get(new DataSetResourceDescriptor("datasets/users.yml", Format.YAML)));
+        assertEquals(3, cache.getMisses());
+    }
+}
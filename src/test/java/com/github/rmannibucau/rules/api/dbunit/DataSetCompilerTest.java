@@ -0,0 +1,106 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
+import org.jboss.arquillian.persistence.core.data.descriptor.Format;
+import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DataSetCompilerTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compileClasspathRoot() throws Exception {
+        final File root = folder.newFolder();
+        final File datasets = new File(root, "compiled"); // not datasets to not find test resources first
+        assertTrue(datasets.mkdirs());
+        for (final String name : new String[]{ "users.yml", "library.yml" }) {
+            Files.copy(new File("src/test/resources/datasets", name).toPath(), new File(datasets, name).toPath());
+        }
+
+        assertEquals(2, DataSetCompiler.compile(root));
+        assertTrue(new File(datasets, "users.yml.bin").isFile());
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader old = thread.getContextClassLoader();
+        try (final URLClassLoader loader = new URLClassLoader(new URL[]{ root.toURI().toURL() }, old)) {
+            thread.setContextClassLoader(loader);
+            for (final String name : new String[]{ "compiled/users.yml", "compiled/library.yml" }) {
+                final IDataSet compiled = CompiledDataSet.find(name);
+                assertNotNull(compiled);
+                assertSame(new DataSetResourceDescriptor(name, Format.YAML).getContent(), compiled);
+            }
+
+            // source changed so the compiled one is ignored
+            Files.write(new File(datasets, "users.yml").toPath(), "\n# updated\n".getBytes("UTF-8"), StandardOpenOption.APPEND);
+            assertNull(CompiledDataSet.find("compiled/users.yml"));
+        } finally {
+            thread.setContextClassLoader(old);
+        }
+    }
+
+    @Test
+    public void types() throws Exception {
+        final Column[] columns = {
+            new Column("i", DataType.UNKNOWN), new Column("l", DataType.UNKNOWN), new Column("d", DataType.UNKNOWN),
+            new Column("b", DataType.UNKNOWN), new Column("date", DataType.UNKNOWN), new Column("s", DataType.UNKNOWN),
+            new Column("decimal", DataType.UNKNOWN), new Column("bytes", DataType.UNKNOWN), new Column("mixed", DataType.UNKNOWN),
+            new Column("empty", DataType.UNKNOWN)
+        };
+        final DefaultTable table = new DefaultTable("all", columns);
+        table.addRow(new Object[]{ 1, 2L, 3.5, true, new Date(123456789L), "é", new BigDecimal("1.10"), new byte[]{ 1, 2 }, "a", null });
+        table.addRow(new Object[]{ null, null, null, null, null, null, null, null, 5, null });
+        table.addRow(new Object[]{ -1, Long.MAX_VALUE, -0.25, false, new Date(0), "", new BigDecimal("-3"), new byte[0], null, null });
+
+        final IDataSet compiled = new CompiledDataSet(ByteBuffer.wrap(DataSetCompiler.compile(new DefaultDataSet(table), new byte[0])));
+        final ITable result = compiled.getTable("all");
+        assertEquals(3, result.getRowCount());
+        for (int r = 0; r < 3; r++) {
+            for (final Column column : columns) {
+                final Object expected = table.getValue(r, column.getColumnName());
+                final Object actual = result.getValue(r, column.getColumnName());
+                if (byte[].class.isInstance(expected)) {
+                    assertArrayEquals(byte[].class.cast(expected), byte[].class.cast(actual));
+                } else {
+                    assertEquals(column.getColumnName() + "#" + r, expected, actual);
+                }
+            }
+        }
+    }
+
+    private static void assertSame(final IDataSet expected, final IDataSet actual) throws Exception {
+        assertArrayEquals(expected.getTableNames(), actual.getTableNames());
+        for (final String name : expected.getTableNames()) {
+            final ITable expectedTable = expected.getTable(name);
+            final ITable actualTable = actual.getTable(name);
+            assertEquals(expectedTable.getRowCount(), actualTable.getRowCount());
+            for (final Column column : expectedTable.getTableMetaData().getColumns()) {
+                for (int r = 0; r < expectedTable.getRowCount(); r++) {
+                    assertEquals(expectedTable.getValue(r, column.getColumnName()), actualTable.getValue(r, column.getColumnName()));
+                }
+            }
+        }
+    }
+}
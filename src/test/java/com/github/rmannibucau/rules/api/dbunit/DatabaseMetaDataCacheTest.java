@@ -0,0 +1,60 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.ext.h2.H2DataTypeFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+public class DatabaseMetaDataCacheTest {
+    @Test
+    public void reuseMetaDataAcrossConnections() throws Exception {
+        final JdbcDataSource ds = new JdbcDataSource();
+        ds.setUser("SA");
+        ds.setPassword("");
+        ds.setUrl("jdbc:h2:mem:" + DatabaseMetaDataCacheTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        try (final Connection c = ds.getConnection(); final Statement s = c.createStatement()) {
+            s.execute("create table foo(id int primary key, name varchar(255))");
+        }
+
+        final DatabaseMetaDataCache cache = DatabaseMetaDataCache.getInstance();
+        final ITableMetaData first;
+        {
+            final DatabaseConnection connection = cache.newConnection(ds, ds.getConnection(), null);
+            assertThat(connection.getConfig().getProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY), instanceOf(H2DataTypeFactory.class));
+            first = connection.createDataSet().getTableMetaData("foo");
+            assertEquals(1, first.getPrimaryKeys().length);
+            connection.close();
+        }
+        {
+            final DatabaseConnection connection = cache.newConnection(ds, ds.getConnection(), null);
+            assertSame(first, connection.createDataSet().getTableMetaData("FOO"));
+            connection.close();
+        }
+
+        cache.onScript(ds, "insert into foo(id, name) values(1, 'test')");
+        {
+            final DatabaseConnection connection = cache.newConnection(ds, ds.getConnection(), null);
+            assertSame(first, connection.createDataSet().getTableMetaData("foo"));
+            connection.close();
+        }
+
+        cache.onScript(ds, "alter table foo add column other varchar(255)");
+        {
+            final DatabaseConnection connection = cache.newConnection(ds, ds.getConnection(), null);
+            assertNotSame(first, connection.createDataSet().getTableMetaData("foo"));
+            connection.close();
+        }
+        assertEquals("h2", cache.getProduct(ds));
+    }
+}
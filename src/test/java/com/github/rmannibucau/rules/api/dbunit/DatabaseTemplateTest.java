@@ -0,0 +1,83 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runners.MethodSorters;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class DatabaseTemplateTest {
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).databaseTemplate(new H2DatabaseTemplate());
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @UnitInject
+    private DataSource managed;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + DatabaseTemplateTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void test1() throws SQLException {
+        assertClone();
+        assertEquals(2, count(managed));
+        try (final Connection c = managed.getConnection(); final Statement s = c.createStatement()) {
+            s.executeUpdate("delete from useraccount where id = 1");
+        }
+        assertEquals(1, count(managed));
+        assertEquals(0, count(ds)); // the fixture is in the template, the source is cleaned
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    @ShouldMatchDataSet("datasets/users.yml")
+    public void test2() throws SQLException {
+        assertClone();
+        assertEquals(2, count(managed)); // fresh clone
+        assertEquals(0, count(ds));
+    }
+
+    private void assertClone() throws SQLException {
+        try (final Connection c = managed.getConnection()) {
+            final String url = c.getMetaData().getURL();
+            assertTrue(url, url.startsWith("jdbc:h2:file:"));
+            assertFalse(url, url.contains(DatabaseTemplateTest.class.getSimpleName()));
+        }
+    }
+
+    private static int count(final DataSource dataSource) throws SQLException {
+        try (final Connection c = dataSource.getConnection();
+             final Statement s = c.createStatement();
+             final ResultSet r = s.executeQuery("select count(*) from useraccount")) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+import org.jboss.arquillian.persistence.SeedDataUsing;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirtyTablesAcrossClassesTest {
+    private static final AtomicInteger SEEDS = new AtomicInteger();
+
+    // each class creates its own DataSource on the same database as the usual tests do
+    private static final String URL = "jdbc:h2:mem:" + DirtyTablesAcrossClassesTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1";
+
+    @Test
+    public void nextClassCleansPendingTables() throws SQLException {
+        run(Reader.class);
+        assertEquals(2, count()); // read only test, left for the next test using the database
+
+        run(Inserter.class); // would get a duplicated key if the rows were still there
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void flushCleansPendingTables() throws SQLException {
+        run(Reader.class);
+        assertEquals(2, count());
+
+        DirtyTables.flush(); // what the shutdown hook does
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void nextClassReusesSameFixture() throws SQLException {
+        final int seeds = SEEDS.get();
+        run(Reuser1.class);
+        assertEquals(seeds + 1, SEEDS.get());
+
+        run(Reuser2.class); // the last test of the previous class only read the fixture
+        assertEquals(seeds + 1, SEEDS.get());
+        assertEquals(2, count());
+
+        DirtyTables.flush();
+        assertEquals(0, count());
+    }
+
+    private static void run(final Class<?> test) {
+        final Result result = JUnitCore.runClasses(test);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(1, result.getRunCount());
+    }
+
+    private static int count() throws SQLException {
+        try (final Connection c = newDataSource().getConnection();
+             final Statement s = c.createStatement();
+             final ResultSet r = s.executeQuery("select count(*) from useraccount")) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+
+    private static ArquillianPersistenceDbUnitRule newReuseRule(final Object test) {
+        return new ArquillianPersistenceDbUnitRule().resourcesHolder(test)
+            .trackDirtyTables(true).reuseSeededData(true)
+            .dataSeeder(new DataSeeder() {
+                @Override
+                public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException, SQLException {
+                    SEEDS.incrementAndGet();
+                    new DbUnitDataSeeder(false).seed(connection, dataSet, strategy);
+                }
+            });
+    }
+
+    private static DataSource newDataSource() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl(URL);
+        return jdbcDataSource;
+    }
+
+    @Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+    @ApplyScriptBefore("datasets/user_table.sql")
+    public static class Reader {
+        @Rule
+        public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).trackDirtyTables(true);
+
+        @DbUnitInstance
+        private static DataSource ds;
+
+        @BeforeClass
+        public static void createDs() {
+            ds = newDataSource();
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        public void read() {
+            // no-op
+        }
+    }
+
+    @Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+    @ApplyScriptBefore("datasets/user_table.sql")
+    public static class Inserter {
+        @Rule
+        public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this);
+
+        @DbUnitInstance
+        private static DataSource ds;
+
+        @BeforeClass
+        public static void createDs() {
+            ds = newDataSource();
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        @SeedDataUsing(DataSeedStrategy.INSERT)
+        public void insert() {
+            // no-op
+        }
+    }
+
+    @Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+    @ApplyScriptBefore("datasets/user_table.sql")
+    public static class Reuser1 {
+        @Rule
+        public final TestRule dbunit = newReuseRule(this);
+
+        @DbUnitInstance
+        private static DataSource ds;
+
+        @BeforeClass
+        public static void createDs() {
+            ds = newDataSource();
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        public void read() {
+            // no-op
+        }
+    }
+
+    @Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+    @ApplyScriptBefore("datasets/user_table.sql")
+    public static class Reuser2 {
+        @Rule
+        public final TestRule dbunit = newReuseRule(this);
+
+        @DbUnitInstance
+        private static DataSource ds;
+
+        @BeforeClass
+        public static void createDs() {
+            ds = newDataSource();
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        public void read() {
+            // no-op
+        }
+    }
+}
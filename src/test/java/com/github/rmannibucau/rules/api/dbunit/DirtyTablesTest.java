@@ -0,0 +1,116 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.MethodSorters;
+import org.junit.runners.model.Statement;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class DirtyTablesTest {
+    @Rule
+    public final TestRule dbunit = RuleChain
+        .outerRule(new TestRule() {
+            @Override
+            public Statement apply(final Statement base, final Description description) {
+                return new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        base.evaluate();
+
+                        // read only tests don't clean the seeded data, the next test does before seeding
+                        assertEquals(description.getMethodName().startsWith("read") ? 2 : 0, count());
+                    }
+                };
+            }
+        }).around(new ArquillianPersistenceDbUnitRule().resourcesHolder(this).trackDirtyTables(true));
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @UnitInject
+    private DataSource managed;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + DirtyTablesTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read1() throws SQLException {
+        try (final Connection c = managed.getConnection();
+             final PreparedStatement s = c.prepareStatement("select count(*) from useraccount");
+             final ResultSet r = s.executeQuery()) {
+            assertTrue(r.next());
+            assertEquals(2, r.getInt(1));
+        }
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read2() throws SQLException {
+        assertEquals(2, count());
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void write() throws SQLException {
+        try (final Connection c = managed.getConnection();
+             final java.sql.Statement s = c.createStatement()) {
+            s.executeUpdate("update useraccount set password = 'changed' where id = 1");
+        }
+    }
+
+    @Test
+    public void parse() {
+        final DirtyTables tables = new DirtyTables();
+        tables.onSql("insert into foo(id) values(1)");
+        tables.onSql("UPDATE app.\"Bar\" set a = 1");
+        tables.onSql("delete from `baz` where id in (select id from other)");
+        tables.onSql("select * from dummy");
+        assertEquals(new HashSet<>(asList("FOO", "BAR", "BAZ")), tables.getTables());
+        assertFalse(tables.isUnknown());
+
+        tables.onSql("{call proc()}");
+        assertTrue(tables.isUnknown());
+    }
+
+    private static int count() throws SQLException {
+        try (final Connection c = ds.getConnection();
+             final PreparedStatement s = c.prepareStatement("select count(*) from useraccount");
+             final ResultSet r = s.executeQuery()) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+}
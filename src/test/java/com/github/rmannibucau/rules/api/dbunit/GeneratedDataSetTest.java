@@ -0,0 +1,92 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/library_tables.sql")
+public class GeneratedDataSetTest {
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this);
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + GeneratedDataSetTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @GeneratedDataSets({
+        @GeneratedDataSet(table = "author", rows = 100),
+        @GeneratedDataSet(table = "book", rows = 20000, seed = 1)
+    })
+    public void generated() throws SQLException {
+        assertEquals(100, count("select count(*) from author"));
+        assertEquals(20000, count("select count(*) from book"));
+        assertEquals(0, count("select count(*) from book b left join author a on b.author_id = a.id where a.id is null"));
+        assertEquals(0, count("select count(*) from book where title is null or length(title) = 0"));
+    }
+
+    @Test
+    @GeneratedDataSet(table = "book", rows = 50)
+    @ApplyScriptBefore({
+        "datasets/library_tables.sql",
+        "insert into author(id, name) values(7, 'a');",
+        "insert into author(id, name) values(9, 'b');"
+    })
+    public void existingReferences() throws SQLException {
+        assertEquals(50, count("select count(*) from book where author_id in (7, 9)"));
+    }
+
+    @Test
+    @ApplyScriptBefore({ "datasets/library_tables.sql", "insert into author(id, name) values(1, 'a');" })
+    public void deterministic() throws Exception {
+        final GeneratedDataSet definition = GeneratedDataSetTest.class.getMethod("existingReferences").getAnnotation(GeneratedDataSet.class);
+        try (final Connection connection = ds.getConnection()) {
+            final DatabaseConnection databaseConnection = new DatabaseConnection(connection);
+            final ITable first = GeneratedTable.dataSet(databaseConnection, definition).getTable("BOOK");
+            final IDataSet second = GeneratedTable.dataSet(databaseConnection, definition);
+
+            final Object title = first.getValue(42, "TITLE");
+            assertTrue(String.class.isInstance(title));
+            first.getValue(3, "TITLE"); // random access doesn't change the values
+            assertEquals(title, first.getValue(42, "TITLE"));
+            assertEquals(title, second.getTable("BOOK").getValue(42, "TITLE"));
+            assertEquals(43L, first.getValue(42, "ID"));
+        }
+    }
+
+    private static int count(final String sql) throws SQLException {
+        try (final Connection c = ds.getConnection();
+             final PreparedStatement s = c.prepareStatement(sql);
+             final ResultSet r = s.executeQuery()) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.JpaCacheEviction;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runners.MethodSorters;
+
+import javax.persistence.Cache;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.ManyToMany;
+import javax.persistence.Table;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.Type;
+import javax.sql.DataSource;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.jboss.arquillian.persistence.TestExecutionPhase.NONE;
+import static org.junit.Assert.assertEquals;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@JpaCacheEviction
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.USED_TABLES_ONLY)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class JpaCacheEvictionTest {
+    private static final List<Object> EVICTIONS = new ArrayList<>(); // evicted classes or "all"
+
+    private static DataSource ds;
+
+    @DbUnitInstance
+    private static EntityManager em;
+
+    @Rule // no test instance: the entity manager is a static field of the test class
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().dataSource(ds).trackDirtyTables(true);
+
+    @BeforeClass
+    public static void init() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + JpaCacheEvictionTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+        em = entityManager(UserAccount.class, Book.class, Tag.class);
+    }
+
+    @After // @Before runs after the eviction
+    public void reset() {
+        EVICTIONS.clear();
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void test1SeededTables() {
+        assertEquals(singletonList((Object) UserAccount.class), EVICTIONS);
+    }
+
+    @Test
+    @Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+    public void test2CleanedTables() {
+        assertEquals(singletonList((Object) UserAccount.class), EVICTIONS); // seeded data the previous test left
+    }
+
+    @Test
+    @Cleanup(phase = NONE) // writes are not tracked
+    public void test3UntrackedTest() {
+        assertEquals(emptyList(), EVICTIONS);
+    }
+
+    @Test
+    public void test4AfterUntrackedTest() {
+        assertEquals(singletonList((Object) "all"), EVICTIONS);
+    }
+
+    @Test
+    @ApplyScriptBefore({ "create table if not exists book(id int primary key);", "insert into book(id) values(1);" })
+    public void test5Script() {
+        assertEquals(singletonList((Object) Book.class), EVICTIONS);
+    }
+
+    @Test
+    @ApplyScriptBefore({ "create table if not exists other(id int primary key);", "insert into other(id) values(1);" })
+    public void test6UnmappedTable() {
+        assertEquals(singletonList((Object) "all"), EVICTIONS);
+    }
+
+    @Test
+    @ApplyScriptBefore({
+        "create table if not exists useraccount_tag(useraccount_id int, tags_id int);",
+        "insert into useraccount_tag(useraccount_id, tags_id) values(1, 1);"
+    })
+    public void test7DefaultJoinTable() { // cached collections can only be evicted with everything
+        assertEquals(singletonList((Object) "all"), EVICTIONS);
+    }
+
+    @Test
+    @ApplyScriptBefore({
+        "create table if not exists useraccount_roles(useraccount_id int, roles varchar(20));",
+        "insert into useraccount_roles(useraccount_id, roles) values(1, 'admin');"
+    })
+    public void test8DefaultCollectionTable() {
+        assertEquals(singletonList((Object) "all"), EVICTIONS);
+    }
+
+    private static EntityManager entityManager(final Class<?>... entities) {
+        final Collection<EntityType<?>> types = new HashSet<>();
+        for (final Class<?> entity : entities) {
+            final Set<PluralAttribute<?, ?, ?>> collections = new HashSet<>();
+            for (final Field field : entity.getDeclaredFields()) {
+                final Class<?> element = Class.class.cast(ParameterizedType.class.cast(field.getGenericType()).getActualTypeArguments()[0]);
+                final Type<?> elementType = proxy(Type.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        return element;
+                    }
+                });
+                collections.add(proxy(PluralAttribute.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        switch (method.getName()) {
+                            case "getJavaMember":
+                                return field;
+                            case "getElementType":
+                                return elementType;
+                            default:
+                                return field.getName();
+                        }
+                    }
+                }));
+            }
+            types.add(proxy(EntityType.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    switch (method.getName()) {
+                        case "getJavaType":
+                            return entity;
+                        case "getPluralAttributes":
+                            return collections;
+                        default:
+                            return entity.getSimpleName();
+                    }
+                }
+            }));
+        }
+        final Metamodel metamodel = proxy(Metamodel.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                return types;
+            }
+        });
+        final Cache cache = proxy(Cache.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                EVICTIONS.add("evictAll".equals(method.getName()) ? "all" : args[0]);
+                return null;
+            }
+        });
+        final EntityManagerFactory factory = proxy(EntityManagerFactory.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                return "getCache".equals(method.getName()) ? cache : metamodel;
+            }
+        });
+        return proxy(EntityManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                return factory;
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> api, final InvocationHandler handler) {
+        return api.cast(Proxy.newProxyInstance(JpaCacheEvictionTest.class.getClassLoader(), new Class<?>[]{ api }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                switch (method.getName()) { // used as map keys
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return api.getSimpleName();
+                    default:
+                        return handler.invoke(proxy, method, args);
+                }
+            }
+        }));
+    }
+
+    @Entity
+    @Table(name = "useraccount")
+    public static class UserAccount {
+        @ElementCollection
+        private Collection<String> roles;
+
+        @ManyToMany
+        private Collection<Tag> tags;
+    }
+
+    @Entity
+    public static class Book {
+    }
+
+    @Entity
+    public static class Tag {
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.NONE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Cleanup(phase = NONE)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class NamedDataSourceTest {
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).dataSource("b");
+
+    @DbUnitInstance("a")
+    private static DataSource a;
+
+    @DbUnitInstance("b")
+    private static DataSource b;
+
+    @BeforeClass
+    public static void createDs() throws SQLException {
+        a = newDataSource("a");
+        b = newDataSource("b");
+        try (final Connection c = a.getConnection(); final Statement s = c.createStatement()) {
+            s.execute("CREATE TABLE useraccount(id NUMBER PRIMARY KEY, firstname varchar(255), lastname varchar(255), username varchar(255), password varchar(255))");
+        }
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void seedNamedDataSource() throws SQLException {
+        assertEquals(0, count(a));
+        assertEquals(2, count(b));
+    }
+
+    @Test
+    public void defaultToFirstDataSource() { // without dataSource(name)
+        assertSame(a, TestClassMetadata.of(NamedDataSourceTest.class).findDataSource("", this));
+    }
+
+    private static DataSource newDataSource(final String name) {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + NamedDataSourceTest.class.getSimpleName() + name + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        return jdbcDataSource;
+    }
+
+    private static int count(final DataSource ds) throws SQLException {
+        try (final Connection c = ds.getConnection();
+             final Statement s = c.createStatement();
+             final ResultSet r = s.executeQuery("select count(*) from useraccount")) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+import org.jboss.arquillian.persistence.SeedDataUsing;
+import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.jboss.arquillian.persistence.dbunit.dataset.yaml.YamlDataSet;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/library_tables.sql")
+public class ParallelSeedingTest {
+    @DbUnitInstance
+    private static DataSource ds;
+
+    private static final Map<String, String> THREADS = new ConcurrentHashMap<String, String>(); // table -> seeding thread
+
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).dataSeeder(new ParallelDataSeeder(ds, 2, new BatchedDataSeeder() {
+        @Override
+        protected void report(final String table, final int rows, final long durationNs) {
+            THREADS.put(table.toUpperCase(Locale.ENGLISH), Thread.currentThread().getName());
+        }
+    }));
+
+    private String testThread;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + ParallelSeedingTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Before
+    public void captureThread() { // inside the rule, on the thread which seeded
+        testThread = Thread.currentThread().getName();
+    }
+
+    @Test
+    @UsingDataSet("datasets/library.yml") // book is before author in the dataset
+    @ShouldMatchDataSet("datasets/library.yml")
+    public void insert() {
+        // author and tag are the first level and are seeded concurrently, book waits for author
+        final String author = THREADS.get("AUTHOR");
+        final String tag = THREADS.get("TAG");
+        assertTrue(author, author.startsWith("rule-them-all-dbunit-seeder-"));
+        assertTrue(tag, tag.startsWith("rule-them-all-dbunit-seeder-"));
+        assertNotEquals(author, tag);
+        assertEquals(testThread, THREADS.get("BOOK")); // single table level
+    }
+
+    @Test
+    @UsingDataSet("datasets/library.yml")
+    @SeedDataUsing(DataSeedStrategy.CLEAN_INSERT)
+    @ApplyScriptBefore({
+        "datasets/library_tables.sql",
+        "insert into author(id, name) values(3, 'Tolkien')",
+        "insert into book(id, title, author_id) values(3, 'The Hobbit', 3)"
+    })
+    @ShouldMatchDataSet("datasets/library.yml")
+    public void cleanInsert() {
+        // no-op
+    }
+
+    @Test
+    public void failureClosesAllConnections() throws Exception {
+        final AtomicInteger open = new AtomicInteger();
+        final DataSource counting = proxy(DataSource.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                final Object result = method.invoke(ds, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+                open.incrementAndGet();
+                return proxy(Connection.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if ("close".equals(method.getName())) {
+                            open.decrementAndGet();
+                        }
+                        try {
+                            return method.invoke(result, args);
+                        } catch (final InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+            }
+        });
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final ParallelDataSeeder seeder = new ParallelDataSeeder(counting, 2, new DataSeeder() {
+            @Override
+            public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException {
+                final String table = dataSet.getTableNames()[0];
+                if ("author".equalsIgnoreCase(table)) {
+                    try {
+                        writing.await(1, TimeUnit.MINUTES);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new DatabaseUnitException("failing " + table);
+                }
+                writing.countDown(); // still writing when the other table fails, like a JDBC batch it doesn't stop on interruption
+                final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+            }
+        });
+
+        try (final Connection connection = ds.getConnection();
+             final InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream("datasets/library.yml")) {
+            seeder.seed(DatabaseMetaDataCache.getInstance().newConnection(ds, connection, null), new YamlDataSet(stream), DataSeedStrategy.INSERT);
+            fail();
+        } catch (final DatabaseUnitException e) {
+            assertEquals("failing author", e.getMessage());
+        }
+        assertEquals(0, open.get());
+    }
+
+    private static <T> T proxy(final Class<T> api, final InvocationHandler handler) {
+        return api.cast(Proxy.newProxyInstance(ParallelSeedingTest.class.getClassLoader(), new Class<?>[]{ api }, handler));
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/library_tables.sql")
+@UsingDataSet("datasets/library.yml")
+public class ParallelVerificationTest {
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @UnitInject
+    private DataSource managed;
+
+    @Rule
+    public final TestRule dbunit = RuleChain
+        .outerRule(new TestRule() {
+            @Override
+            public Statement apply(final Statement base, final Description description) {
+                return new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        if (!"mismatches".equals(description.getMethodName())) {
+                            base.evaluate();
+                            return;
+                        }
+                        try {
+                            base.evaluate();
+                        } catch (final AssertionError e) {
+                            final String message = e.getMessage();
+                            assertTrue(message, message.startsWith("Test failed in 2 cases"));
+                            final int author = message.indexOf("Asimov");
+                            final int tag = message.indexOf("scifi");
+                            assertTrue(message, author > 0 && tag > author); // dataset order
+                            return;
+                        }
+                        fail("differences not reported");
+                    }
+                };
+            }
+        }).around(new ArquillianPersistenceDbUnitRule().resourcesHolder(this)
+            .dataSeeder(new ParallelDataSeeder(ds, 2)) // book is before author in the dataset
+            .verificationParallelism(3));
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + ParallelVerificationTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @ShouldMatchDataSet("datasets/library.yml")
+    public void matches() {
+        // no-op
+    }
+
+    @Test
+    @ShouldMatchDataSet("datasets/library.yml")
+    public void mismatches() throws SQLException {
+        try (final Connection c = managed.getConnection();
+             final java.sql.Statement s = c.createStatement()) {
+            s.executeUpdate("update tag set name = 'fantasy'");
+            s.executeUpdate("update author set name = 'Clarke' where id = 2");
+        }
+    }
+}
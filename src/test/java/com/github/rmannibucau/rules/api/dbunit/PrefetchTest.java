@@ -0,0 +1,66 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runners.MethodSorters;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class PrefetchTest {
+    private static long misses;
+    private static long hits;
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).prefetch(true);
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + PrefetchTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+        DataSetCache.getInstance().clear();
+        misses = DataSetCache.getInstance().getMisses();
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void test1Prefetch() throws Exception {
+        final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (DataSetCache.getInstance().getMisses() - misses < 2 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(misses + 2, DataSetCache.getInstance().getMisses()); // datasets of both tests, parsed once
+        misses = DataSetCache.getInstance().getMisses();
+        hits = DataSetCache.getInstance().getHits();
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    @ShouldMatchDataSet("datasets/users2.yml")
+    public void test2Prefetched() {
+        assertEquals(misses, DataSetCache.getInstance().getMisses());
+        assertTrue(DataSetCache.getInstance().getHits() > hits);
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+@UsingDataSet("datasets/users.yml")
+public class QueryBudgetTest {
+    private final ArquillianPersistenceDbUnitRule persistence = new ArquillianPersistenceDbUnitRule().resourcesHolder(this);
+
+    @Rule
+    public final TestRule dbunit = RuleChain
+        .outerRule(new TestRule() {
+            @Override
+            public Statement apply(final Statement base, final Description description) {
+                return new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        final String expected = description.getMethodName().startsWith("tooMany") ? "Expected at most " : null;
+                        try {
+                            base.evaluate();
+                        } catch (final AssertionError e) {
+                            if (expected == null || !e.getMessage().contains(expected)) {
+                                throw e;
+                            }
+                            return;
+                        }
+                        if (expected != null) {
+                            fail("budget not checked");
+                        }
+                    }
+                };
+            }
+        }).around(persistence);
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @UnitInject
+    private DataSource managed;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + QueryBudgetTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @MaxQueries(1)
+    @MaxRowsFetched(2)
+    public void withinBudget() throws SQLException {
+        assertEquals(2, ids().size());
+
+        final QueryStatistics statistics = persistence.getQueryStatistics();
+        assertEquals(1, statistics.getQueries()); // seeding is not recorded
+        assertEquals(2, statistics.getRowsFetched());
+        assertEquals("select id from useraccount order by id", statistics.getShapes().get(0).getSql());
+    }
+
+    @Test
+    @MaxQueries(2)
+    public void tooManyQueries() throws SQLException {
+        for (final Long id : ids()) { // N+1
+            try (final Connection c = managed.getConnection();
+                 final PreparedStatement s = c.prepareStatement("select firstname from useraccount where id = " + id);
+                 final ResultSet r = s.executeQuery()) {
+                assertTrue(r.next());
+            }
+        }
+        final QueryStatistics.Shape shape = persistence.getQueryStatistics().getShapes().get(0);
+        assertEquals("select firstname from useraccount where id = ?", shape.getSql());
+        assertEquals(2, shape.getQueries());
+    }
+
+    @Test
+    @MaxRowsFetched(1)
+    public void tooManyRowsFetched() throws SQLException {
+        ids();
+    }
+
+    @Test
+    @MaxQueries(1)
+    public void batch() throws SQLException {
+        try (final Connection c = managed.getConnection();
+             final PreparedStatement s = c.prepareStatement("update useraccount set password = ? where id = ?")) {
+            for (int i = 1; i <= 3; i++) {
+                s.setString(1, "p" + i);
+                s.setLong(2, i);
+                s.addBatch();
+            }
+            s.executeBatch();
+        }
+        assertEquals(1, persistence.getQueryStatistics().getQueries());
+        assertEquals(3, persistence.getQueryStatistics().getStatements());
+    }
+
+    @Test
+    public void shape() {
+        assertEquals("select * from t where a = ? and b in (?) and c = ? and d = t2.x1",
+            QueryStatistics.normalize("select *  from t\nwhere a = 'it''s' and b in (1, 2,3) and c = -1.5 and d = t2.x1"));
+    }
+
+    private Collection<Long> ids() throws SQLException {
+        final Collection<Long> ids = new ArrayList<>();
+        try (final Connection c = managed.getConnection();
+             final PreparedStatement s = c.prepareStatement("select id from useraccount order by id");
+             final ResultSet r = s.executeQuery()) {
+            while (r.next()) {
+                ids.add(r.getLong(1));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+@UsingDataSet("datasets/users.yml")
+public class QueryPlanTest {
+    private static final File REPORTS = new File("target/query-plans/" + QueryPlanTest.class.getSimpleName());
+
+    private final ArquillianPersistenceDbUnitRule persistence = new ArquillianPersistenceDbUnitRule()
+        .resourcesHolder(this).explainQueries(1, REPORTS);
+
+    @Rule // plans are captured after the test so check them around the rule
+    public final TestRule dbunit = RuleChain
+        .outerRule(new TestRule() {
+            @Override
+            public Statement apply(final Statement base, final Description description) {
+                return new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        final boolean fullScan = "fullScan".equals(description.getMethodName());
+                        try {
+                            base.evaluate();
+                        } catch (final AssertionError e) {
+                            if (!fullScan || !e.getMessage().contains("Full scan of PUBLIC.USERACCOUNT (2 rows)")) {
+                                throw e;
+                            }
+                            return;
+                        }
+                        if (fullScan) {
+                            fail("full scan not detected");
+                        }
+
+                        final QueryStatistics.Shape shape = persistence.getQueryStatistics().getShapes().get(0);
+                        assertTrue(shape.getPlan(), shape.getPlan().contains("PRIMARY_KEY"));
+                        assertTrue(shape.getFullScans().isEmpty());
+
+                        final String report = new String(Files.readAllBytes(
+                            new File(REPORTS, QueryPlanTest.class.getName() + ".indexed.txt").toPath()), StandardCharsets.UTF_8);
+                        assertTrue(report, report.contains("select lastname from useraccount where id = ?"));
+                        assertTrue(report, report.contains(shape.getPlan().replace("\n", "\n  ")));
+                    }
+                };
+            }
+        }).around(persistence);
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @UnitInject
+    private DataSource managed;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + QueryPlanTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    public void fullScan() throws SQLException {
+        assertEquals("Kent", lastname("select lastname from useraccount where firstname = ?", "Clark"));
+    }
+
+    @Test
+    public void indexed() throws SQLException {
+        assertEquals("Smith", lastname("select lastname from useraccount where id = ?", 1));
+        assertNull(persistence.getQueryStatistics().getShapes().get(0).getPlan()); // explained after the test
+    }
+
+    private String lastname(final String sql, final Object parameter) throws SQLException {
+        try (final Connection c = managed.getConnection();
+             final PreparedStatement s = c.prepareStatement(sql)) {
+            s.setObject(1, parameter);
+            try (final ResultSet r = s.executeQuery()) {
+                assertTrue(r.next());
+                return r.getString(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runners.MethodSorters;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class ReuseSeededDataTest {
+    private static final AtomicInteger SEEDS = new AtomicInteger();
+
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this)
+        .trackDirtyTables(true).reuseSeededData(true)
+        .dataSeeder(new DataSeeder() {
+            @Override
+            public void seed(final DatabaseConnection connection, final IDataSet dataSet, final DataSeedStrategy strategy) throws DatabaseUnitException, SQLException {
+                SEEDS.incrementAndGet();
+                new DbUnitDataSeeder(false).seed(connection, dataSet, strategy);
+            }
+        });
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @UnitInject
+    private DataSource managed;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + ReuseSeededDataTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read1() throws SQLException {
+        assertEquals(1, SEEDS.get());
+        assertEquals(2, count("select count(*) from useraccount"));
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read2() throws SQLException {
+        assertEquals(1, SEEDS.get()); // reused
+        assertEquals(2, count("select count(*) from useraccount"));
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read3UntrackedWrite() throws SQLException {
+        assertEquals(1, SEEDS.get());
+        try (final Connection c = ds.getConnection();
+             final java.sql.Statement s = c.createStatement()) {
+            s.executeUpdate("insert into useraccount(id, firstname, lastname, username, password) values(3, 'a', 'b', 'c', 'd')");
+        }
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read4() throws SQLException {
+        assertEquals(2, SEEDS.get()); // row count changed
+        assertEquals(2, count("select count(*) from useraccount"));
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read5UntrackedUpdate() throws SQLException {
+        assertEquals(2, SEEDS.get());
+        try (final Connection c = ds.getConnection();
+             final java.sql.Statement s = c.createStatement()) {
+            s.executeUpdate("update useraccount set password = 'changed' where id = 1");
+        }
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read6() throws SQLException {
+        assertEquals(3, SEEDS.get()); // same row count but not the same data
+        assertEquals(0, count("select count(*) from useraccount where password = 'changed'"));
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read7Write() throws SQLException {
+        assertEquals(3, SEEDS.get());
+        try (final Connection c = managed.getConnection();
+             final java.sql.Statement s = c.createStatement()) {
+            s.executeUpdate("update useraccount set password = 'changed' where id = 1");
+        }
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void read8() throws SQLException {
+        assertEquals(4, SEEDS.get()); // tracked write
+        assertEquals(0, count("select count(*) from useraccount where password = 'changed'"));
+    }
+
+    @Test
+    @UsingDataSet("datasets/users2.yml")
+    public void read9OtherFixture() throws SQLException {
+        assertEquals(5, SEEDS.get());
+        assertEquals(1, count("select count(*) from useraccount where password = 'nothing'"));
+    }
+
+    private static int count(final String sql) throws SQLException {
+        try (final Connection c = ds.getConnection();
+             final PreparedStatement s = c.prepareStatement(sql);
+             final ResultSet r = s.executeQuery()) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.ShouldMatchDataSet;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.ParallelComputer;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runners.model.Statement;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaPoolTest {
+    @Test
+    public void parallel() {
+        final Result result = JUnitCore.runClasses(new ParallelComputer(false, true), Worker.class);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(4, result.getRunCount());
+        assertEquals(2, Worker.SCHEMAS.size()); // pool size
+    }
+
+    @Test
+    public void parallelSeederAndPendingTables() throws SQLException {
+        final Result result = JUnitCore.runClasses(new ParallelComputer(false, true), ParallelSeederWorker.class);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(4, result.getRunCount());
+
+        // read only tests left the seeded rows of each schema for the next test using it
+        try (final Connection c = ParallelSeederWorker.ds.getConnection(); final java.sql.Statement s = c.createStatement()) {
+            assertEquals(4, count(s, "PARALLEL_0.author") + count(s, "PARALLEL_1.author"));
+            DirtyTables.flush();
+            assertEquals(0, count(s, "PARALLEL_0.author"));
+            assertEquals(0, count(s, "PARALLEL_1.author"));
+        }
+    }
+
+    @Test
+    public void parallelMethodsOfSameClass() {
+        final Result result = JUnitCore.runClasses(new ParallelComputer(false, true), SameClassWorker.class);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(2, result.getRunCount());
+    }
+
+    private static int count(final java.sql.Statement statement, final String table) throws SQLException {
+        try (final ResultSet r = statement.executeQuery("select count(*) from " + table)) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+
+    public static class Worker {
+        private static final SchemaPool POOL = new SchemaPool("WORKER_", 2, "datasets/user_table.sql");
+        private static final Set<String> SCHEMAS = Collections.synchronizedSet(new HashSet<String>());
+        private static final CountDownLatch CONCURRENT = new CountDownLatch(2);
+
+        @Rule
+        public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).schemaPool(POOL);
+
+        @DbUnitInstance
+        private static DataSource ds;
+
+        @UnitInject
+        private DataSource managed;
+
+        @BeforeClass
+        public static void createDs() {
+            final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+            jdbcDataSource.setUser("SA");
+            jdbcDataSource.setPassword("");
+            jdbcDataSource.setUrl("jdbc:h2:mem:" + SchemaPoolTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+            ds = jdbcDataSource;
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        @ShouldMatchDataSet("datasets/users.yml")
+        public void test1() throws Exception {
+            check();
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        @ShouldMatchDataSet("datasets/users.yml")
+        public void test2() throws Exception {
+            check();
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        @ShouldMatchDataSet("datasets/users.yml")
+        public void test3() throws Exception {
+            check();
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        @ShouldMatchDataSet("datasets/users.yml")
+        public void test4() throws Exception {
+            check();
+        }
+
+        private void check() throws SQLException, InterruptedException {
+            // two tests at least run at the same time, each in its own schema
+            CONCURRENT.countDown();
+            assertTrue(CONCURRENT.await(1, TimeUnit.MINUTES));
+
+            try (final Connection c = managed.getConnection(); final java.sql.Statement s = c.createStatement()) {
+                try (final ResultSet r = s.executeQuery("select schema()")) {
+                    assertTrue(r.next());
+                    final String schema = r.getString(1);
+                    assertTrue(schema, schema.startsWith("WORKER_"));
+                    SCHEMAS.add(schema);
+                }
+                try (final ResultSet r = s.executeQuery("select count(*) from useraccount")) {
+                    assertTrue(r.next());
+                    assertEquals(2, r.getInt(1));
+                }
+            }
+        }
+    }
+
+    // tables only exist in the leased schemas
+    public static class ParallelSeederWorker {
+        private static final SchemaPool POOL = new SchemaPool("PARALLEL_", 2, "datasets/library_tables.sql");
+        private static final CountDownLatch CONCURRENT = new CountDownLatch(2);
+
+        private static DataSource ds;
+
+        @Rule
+        public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this).schemaPool(POOL)
+            .dataSource(ds).dataSeeder(new ParallelDataSeeder(ds, 2)).trackDirtyTables(true);
+
+        @UnitInject
+        private DataSource managed;
+
+        @BeforeClass
+        public static void createDs() {
+            final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+            jdbcDataSource.setUser("SA");
+            jdbcDataSource.setPassword("");
+            jdbcDataSource.setUrl("jdbc:h2:mem:" + ParallelSeederWorker.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+            ds = jdbcDataSource;
+        }
+
+        @Test
+        @UsingDataSet("datasets/library.yml")
+        @ShouldMatchDataSet("datasets/library.yml")
+        public void test1() throws Exception {
+            check();
+        }
+
+        @Test
+        @UsingDataSet("datasets/library.yml")
+        @ShouldMatchDataSet("datasets/library.yml")
+        public void test2() throws Exception {
+            check();
+        }
+
+        @Test
+        @UsingDataSet("datasets/library.yml")
+        @ShouldMatchDataSet("datasets/library.yml")
+        public void test3() throws Exception {
+            check();
+        }
+
+        @Test
+        @UsingDataSet("datasets/library.yml")
+        @ShouldMatchDataSet("datasets/library.yml")
+        public void test4() throws Exception {
+            check();
+        }
+
+        private void check() throws SQLException, InterruptedException {
+            CONCURRENT.countDown();
+            assertTrue(CONCURRENT.await(1, TimeUnit.MINUTES));
+
+            try (final Connection c = managed.getConnection(); final java.sql.Statement s = c.createStatement()) {
+                assertEquals(2, count(s, "author"));
+                assertEquals(2, count(s, "book"));
+            }
+        }
+    }
+
+    // both methods enter the rule together, first use of the class metadata included
+    public static class SameClassWorker {
+        private static final SchemaPool POOL = new SchemaPool("SAME_", 2, "datasets/user_table.sql");
+        private static final CountDownLatch CONCURRENT = new CountDownLatch(2);
+
+        private static DataSource ds;
+
+        @Rule
+        public final TestRule rules = RuleChain
+            .outerRule(new TestRule() {
+                @Override
+                public Statement apply(final Statement base, final Description description) {
+                    return new Statement() {
+                        @Override
+                        public void evaluate() throws Throwable {
+                            CONCURRENT.countDown();
+                            assertTrue(CONCURRENT.await(1, TimeUnit.MINUTES));
+                            base.evaluate();
+                        }
+                    };
+                }
+            })
+            .around(new ArquillianPersistenceDbUnitRule().resourcesHolder(this).schemaPool(POOL).dataSource(ds));
+
+        @UnitInject
+        private DataSource managed;
+
+        @BeforeClass
+        public static void createDs() {
+            final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+            jdbcDataSource.setUser("SA");
+            jdbcDataSource.setPassword("");
+            jdbcDataSource.setUrl("jdbc:h2:mem:" + SameClassWorker.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+            ds = jdbcDataSource;
+        }
+
+        @Test
+        @UsingDataSet("datasets/users.yml")
+        @ShouldMatchDataSet("datasets/users.yml")
+        public void verified() throws Exception {
+            assertEquals(2, count());
+        }
+
+        @Test
+        @UsingDataSet("datasets/users2.yml")
+        @Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+        public void cleaned() throws Exception {
+            assertEquals(2, count());
+        }
+
+        private int count() throws SQLException {
+            try (final Connection c = managed.getConnection(); final java.sql.Statement s = c.createStatement()) {
+                return SchemaPoolTest.count(s, "useraccount");
+            }
+        }
+    }
+}
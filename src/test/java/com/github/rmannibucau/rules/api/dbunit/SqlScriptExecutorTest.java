@@ -0,0 +1,49 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.core.exception.ScriptExecutionException;
+import org.jboss.arquillian.persistence.script.configuration.ScriptingConfiguration;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SqlScriptExecutorTest {
+    @Test
+    public void execute() throws SQLException {
+        final JdbcDataSource ds = new JdbcDataSource();
+        ds.setUser("SA");
+        ds.setPassword("");
+        ds.setUrl("jdbc:h2:mem:" + SqlScriptExecutorTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+
+        try (final Connection connection = ds.getConnection()) {
+            final SqlScriptExecutor executor = new SqlScriptExecutor(connection, new ScriptingConfiguration());
+            executor.execute("test.sql", "create table foo(id int primary key);\ninsert into foo values(1);\ninsert into foo values(2);");
+            assertEquals(2, count(connection));
+
+            // same location but another content
+            executor.execute("test.sql", "insert into foo values(3);\ninsert into foo values(4);\ninsert into foo values(5);");
+            assertEquals(5, count(connection));
+
+            try {
+                executor.execute("test.sql", "insert into foo values(6);\ninsert into foo values(1);");
+                fail("duplicated key");
+            } catch (final ScriptExecutionException e) {
+                assertTrue(e.getMessage().contains("values(1)"));
+            }
+        }
+    }
+
+    private static int count(final Connection connection) throws SQLException {
+        try (final Statement s = connection.createStatement(); final ResultSet r = s.executeQuery("select count(*) from foo")) {
+            assertTrue(r.next());
+            return r.getInt(1);
+        }
+    }
+}
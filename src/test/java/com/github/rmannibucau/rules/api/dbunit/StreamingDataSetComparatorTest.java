@@ -0,0 +1,64 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.core.data.descriptor.Format;
+import org.jboss.arquillian.persistence.dbunit.data.descriptor.DataSetResourceDescriptor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingDataSetComparatorTest {
+    private static final String[] NONE = new String[0];
+
+    private static JdbcDataSource ds;
+    private static DatabaseConnection connection;
+
+    @BeforeClass
+    public static void createDb() throws Exception {
+        ds = new JdbcDataSource();
+        ds.setUser("SA");
+        ds.setPassword("");
+        ds.setUrl("jdbc:h2:mem:" + StreamingDataSetComparatorTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        try (final Connection c = ds.getConnection(); final Statement s = c.createStatement()) {
+            s.execute("create table useraccount(id int primary key, firstname varchar(255), lastname varchar(255), username varchar(255), password varchar(255))");
+            // inserted in reverse order to ensure sorting is done
+            s.execute("insert into useraccount values(2, 'Clark', 'Kent', 'superman', 'kryptonite')");
+            s.execute("insert into useraccount values(1, 'John', 'Smith', 'doovde', 'password')");
+        }
+        connection = DatabaseMetaDataCache.getInstance().newConnection(ds, ds.getConnection(), null);
+    }
+
+    @AfterClass
+    public static void close() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void matches() throws Exception {
+        assertTrue(new StreamingDataSetComparator(NONE, NONE, NONE).matches(connection, dataSet("datasets/users.yml")));
+        assertTrue(new StreamingDataSetComparator(new String[]{ "useraccount.firstname" }, NONE, NONE).matches(connection, dataSet("datasets/users.yml")));
+    }
+
+    @Test
+    public void mismatch() throws Exception {
+        assertFalse(new StreamingDataSetComparator(NONE, NONE, NONE).matches(connection, dataSet("datasets/users2.yml")));
+    }
+
+    @Test
+    public void excludedColumn() throws Exception {
+        assertTrue(new StreamingDataSetComparator(NONE, new String[]{ "password" }, NONE).matches(connection, dataSet("datasets/users2.yml")));
+        assertTrue(new StreamingDataSetComparator(NONE, new String[]{ "useraccount.password" }, NONE).matches(connection, dataSet("datasets/users2.yml")));
+    }
+
+    private static IDataSet dataSet(final String location) {
+        return DataSetCache.getInstance().get(new DataSetResourceDescriptor(location, Format.YAML));
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.database.DatabaseConnection;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.CleanupStrategy;
+import org.jboss.arquillian.persistence.DataSeedStrategy;
+import org.jboss.arquillian.persistence.SeedDataUsing;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static java.util.Arrays.asList;
+import static org.jboss.arquillian.persistence.TestExecutionPhase.AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Cleanup(phase = AFTER, strategy = CleanupStrategy.STRICT)
+@ApplyScriptBefore("datasets/user_table.sql")
+public class StreamingDataSetTest {
+    @Rule
+    public final TestRule dbunit = new ArquillianPersistenceDbUnitRule().resourcesHolder(this);
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + StreamingDataSetTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @StreamingDataSet("datasets/streaming/users.xml")
+    public void flatXml() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Clark:null:kryptonite", "3:Bruce:Wayne:alfred"), users());
+    }
+
+    @Test
+    @StreamingDataSet("datasets/streaming/users.yml")
+    public void yaml() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Clark:null:kryptonite"), users());
+    }
+
+    @Test
+    @StreamingDataSet("datasets/streaming/useraccount.csv")
+    public void csv() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Kent, Clark:null:kryp\"tonite"), users());
+    }
+
+    @Test
+    @StreamingDataSet("datasets/streaming/users.yml")
+    @SeedDataUsing(DataSeedStrategy.CLEAN_INSERT)
+    @ApplyScriptBefore({
+        "datasets/user_table.sql",
+        "insert into useraccount(id, firstname, lastname, username, password) values(5, 'C', 'K', 's', 'k')"
+    })
+    public void cleanInsert() throws SQLException {
+        assertEquals(asList("1:John:Smith:password", "2:Clark:null:kryptonite"), users());
+    }
+
+    @Test
+    public void big() throws Exception {
+        final int rows = 200000;
+        final File csv = new File(temp.getRoot(), "big/useraccount.csv");
+        assertTrue(csv.getParentFile().mkdirs());
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(csv), StandardCharsets.UTF_8)) {
+            writer.write("id,firstname,lastname,username,password\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write(i + ",first" + i + ",last" + i + ",user" + i + ",pwd" + i + "\n");
+            }
+        }
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader loader = thread.getContextClassLoader();
+        thread.setContextClassLoader(new URLClassLoader(new URL[]{ temp.getRoot().toURI().toURL() }, loader));
+        try (final Connection connection = ds.getConnection(); final StreamedDataSet dataSet = new StreamedDataSet("big/useraccount.csv")) {
+            new BatchedDataSeeder().seed(new DatabaseConnection(connection), dataSet, DataSeedStrategy.INSERT);
+            assertEquals(asList("useraccount"), new ArrayList<>(dataSet.getStreamedTableNames()));
+            try (final PreparedStatement s = connection.prepareStatement("select count(*) from useraccount");
+                 final ResultSet r = s.executeQuery()) {
+                assertTrue(r.next());
+                assertEquals(rows, r.getInt(1));
+            }
+        } finally {
+            thread.setContextClassLoader(loader);
+            try (final Connection connection = ds.getConnection(); final PreparedStatement s = connection.prepareStatement("delete from useraccount")) {
+                s.executeUpdate();
+            }
+        }
+    }
+
+    private static Collection<String> users() throws SQLException {
+        final Collection<String> users = new ArrayList<>();
+        try (final Connection c = ds.getConnection();
+             final PreparedStatement s = c.prepareStatement("select id, firstname, lastname, password from useraccount order by id");
+             final ResultSet r = s.executeQuery()) {
+            while (r.next()) {
+                users.add(r.getLong(1) + ":" + r.getString(2) + ":" + r.getString(3) + ":" + r.getString(4));
+            }
+        }
+        return users;
+    }
+}
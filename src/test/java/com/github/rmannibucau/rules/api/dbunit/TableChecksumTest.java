@@ -0,0 +1,80 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.datatype.DataType;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TableChecksumTest {
+    private static final List<Column> COLUMNS = asList(
+        new Column("ID", DataType.INTEGER), new Column("NAME", DataType.VARCHAR), new Column("NOTE", DataType.VARCHAR));
+    private static final List<String> NAMES = asList("ID", "NAME", "NOTE");
+
+    private static Connection connection;
+    private static TableChecksum checksum;
+
+    @BeforeClass
+    public static void createDb() throws Exception {
+        final JdbcDataSource ds = new JdbcDataSource();
+        ds.setUser("SA");
+        ds.setPassword("");
+        ds.setUrl("jdbc:h2:mem:" + TableChecksumTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        connection = ds.getConnection();
+        try (final Statement s = connection.createStatement()) {
+            s.execute("create table item(id int primary key, name varchar(255), note varchar(255))");
+            s.execute("insert into item values(2, 'b', null)");
+            s.execute("insert into item values(1, 'a', '')");
+            s.execute("insert into item values(3, 'c;V1:x', 'é')");
+        }
+        checksum = TableChecksum.find(connection.getMetaData().getDatabaseProductName().toLowerCase());
+        assertNotNull(checksum);
+    }
+
+    @AfterClass
+    public static void close() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void matches() throws Exception {
+        assertTrue(checksum.matches(connection, "item", NAMES, table(
+            new Object[]{ "1", "a", "" }, new Object[]{ "3", "c;V1:x", "é" }, new Object[]{ "2", "b", null }), COLUMNS));
+    }
+
+    @Test
+    public void mismatch() throws Exception {
+        assertFalse(checksum.matches(connection, "item", NAMES, table( // null vs empty
+            new Object[]{ "1", "a", null }, new Object[]{ "3", "c;V1:x", "é" }, new Object[]{ "2", "b", "" }), COLUMNS));
+        assertFalse(checksum.matches(connection, "item", NAMES, table( // swapped values
+            new Object[]{ "1", "b", "" }, new Object[]{ "3", "c;V1:x", "é" }, new Object[]{ "2", "a", null }), COLUMNS));
+        assertFalse(checksum.matches(connection, "item", NAMES, table( // missing row
+            new Object[]{ "1", "a", "" }, new Object[]{ "2", "b", null }), COLUMNS));
+    }
+
+    @Test
+    public void supportedTypes() {
+        assertTrue(TableChecksum.supports(COLUMNS));
+        assertFalse(TableChecksum.supports(asList(new Column("PRICE", DataType.DECIMAL))));
+        assertFalse(TableChecksum.supports(asList(new Column("CREATED", DataType.TIMESTAMP))));
+    }
+
+    private static DefaultTable table(final Object[]... rows) throws Exception {
+        final DefaultTable table = new DefaultTable("ITEM", COLUMNS.toArray(new Column[COLUMNS.size()]));
+        for (final Object[] row : rows) {
+            table.addRow(row);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.rmannibucau.rules.api.dbunit;
+
+import com.github.rmannibucau.rules.api.UnitInject;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.arquillian.persistence.ApplyScriptBefore;
+import org.jboss.arquillian.persistence.Cleanup;
+import org.jboss.arquillian.persistence.UsingDataSet;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.jboss.arquillian.persistence.TestExecutionPhase.NONE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Cleanup(phase = NONE) // rollback does the cleanup
+@ApplyScriptBefore("datasets/user_table.sql")
+public class TransactionalTest {
+    @Rule
+    public final TestRule dbunit = RuleChain
+        .outerRule(new TestRule() {
+            @Override
+            public Statement apply(final Statement base, final Description description) {
+                return new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        base.evaluate();
+
+                        // check after the dbunit rule is done and has rolled back the data
+                        assertEquals(0, count(ds));
+                    }
+                };
+            }
+        }).around(new ArquillianPersistenceDbUnitRule().resourcesHolder(this).transactional(true));
+
+    @DbUnitInstance
+    private static DataSource ds;
+
+    @UnitInject
+    private DataSource managed;
+
+    @BeforeClass
+    public static void createDs() {
+        final JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        jdbcDataSource.setUser("SA");
+        jdbcDataSource.setPassword("");
+        jdbcDataSource.setUrl("jdbc:h2:mem:" + TransactionalTest.class.getSimpleName() + System.currentTimeMillis() + ";DB_CLOSE_DELAY=-1");
+        ds = jdbcDataSource;
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void seededInTransaction() throws SQLException {
+        assertEquals(2, count(managed));
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void commitIsIgnored() throws SQLException {
+        try (final Connection c = managed.getConnection()) {
+            c.setAutoCommit(true);
+            try (final java.sql.Statement s = c.createStatement()) {
+                s.executeUpdate("insert into useraccount(id, firstname, lastname, username, password) values(3, 'a', 'b', 'c', 'd')");
+            }
+            c.commit();
+        }
+        assertEquals(3, count(managed));
+    }
+
+    @Test
+    @UsingDataSet("datasets/users.yml")
+    public void rollbackKeepsFixture() throws SQLException {
+        try (final Connection c = managed.getConnection()) {
+            try (final java.sql.Statement s = c.createStatement()) {
+                s.executeUpdate("delete from useraccount");
+            }
+            c.rollback();
+        }
+        assertEquals(2, count(managed));
+    }
+
+    private static int count(final DataSource dataSource) throws SQLException {
+        try (final Connection c = dataSource.getConnection()) {
+            try (final PreparedStatement s = c.prepareStatement("select count(*) from useraccount")) {
+                try (final ResultSet r = s.executeQuery()) {
+                    assertTrue(r.next());
+                    final int count = r.getInt(1);
+                    assertFalse(r.next());
+                    return count;
+                }
+            }
+        }
+    }
+}
@@ -13,7 +13,10 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Properties;
+import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -48,6 +51,37 @@ public class TestSftpRule {
 		assertEquals("Awesome", new String(dst.toByteArray()));
 	}
 
+	@Test
+	@SftpServer({
+		@SftpFile(name = "/foo/a.txt", content = "a"),
+		@SftpFile(name = "/foo/sub/c.txt", content = "c"),
+		@SftpFile(name = "/foobar/b.txt", content = "b")
+	})
+	public void listDirectChildren() throws Exception {
+		final JSch jSch = new JSch();
+		final Session session = jSch.getSession("test", "localhost", server.getPort());
+		session.setPassword("testpwd");
+		session.setConfig(new Properties() {{ put("StrictHostKeyChecking", "no"); }});
+		session.connect();
+		try {
+			final ChannelSftp channel = ChannelSftp.class.cast(session.openChannel("sftp"));
+			channel.connect();
+
+			final Collection<String> names = new TreeSet<String>();
+			for (final Object entry : channel.ls("/foo")) {
+				names.add(ChannelSftp.LsEntry.class.cast(entry).getFilename());
+			}
+			names.removeAll(Arrays.asList(".", ".."));
+			assertEquals(new TreeSet<String>(Arrays.asList("a.txt", "sub")), names);
+
+			final ByteArrayOutputStream dst = new ByteArrayOutputStream();
+			channel.get("/foo/sub/../sub/c.txt", dst);
+			assertEquals("c", new String(dst.toByteArray()));
+		} finally {
+			session.disconnect();
+		}
+	}
+
 	@AfterClass
 	public static void checkServerIsOff() {
 		assertTrue(oldServer.isClosed());
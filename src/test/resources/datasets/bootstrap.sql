@@ -0,0 +1,2 @@
+CREATE TABLE IF NOT EXISTS bootstrap_counter(run NUMBER);
+INSERT INTO bootstrap_counter(run) VALUES(1);
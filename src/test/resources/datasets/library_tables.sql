@@ -0,0 +1,3 @@
+CREATE TABLE IF NOT EXISTS author(id NUMBER PRIMARY KEY, name varchar(255));
+CREATE TABLE IF NOT EXISTS tag(id NUMBER PRIMARY KEY, name varchar(255));
+CREATE TABLE IF NOT EXISTS book(id NUMBER PRIMARY KEY, title varchar(255), author_id NUMBER, FOREIGN KEY (author_id) REFERENCES author(id));